@@ -16,14 +16,41 @@ public class Constants {
 	public static final String EXTRA_IMAGE_URL = "com.erakk.lnreader.IMAGE_URL";
 	
 	public static final String IMAGE_ROOT = Environment.getExternalStorageDirectory().getAbsolutePath().toString() + "/Android/data/" + Constants.class.getPackage().getName() + "/files";
+	// not under IMAGE_ROOT, so clearing the image cache keeps the chapters
+	public static final String CHAPTER_ROOT = Environment.getExternalStorageDirectory().getAbsolutePath().toString() + "/Android/data/" + Constants.class.getPackage().getName() + "/chapters";
+	// compressed chapter bigger than this is saved to CHAPTER_ROOT instead of the db, in bytes
+	public static final int CONTENT_FILE_THRESHOLD = 256 * 1024;
 	
 	public static final int IMAGE_DOWNLOAD_RETRY = 3;
 	public static final int PAGE_DOWNLOAD_RETRY = 3;
+	// max titles per api query, limit of the MediaWiki api for normal user
+	public static final int API_TITLE_BATCH_SIZE = 50;
+	// in ms, see RetryPolicy
+	public static final long RETRY_INITIAL_DELAY = 1000;
+	public static final long RETRY_MAX_DELAY = 15000;
+	public static final long RETRY_DEADLINE = 120000;
 	
 	public static final String NOVEL_BOOK_DIVIDER = "%";
 	public static final int CHECK_INTERVAL = 7;
+	// per page check interval from the update history, see RevalidationPolicy
+	public static final double REVALIDATE_EWMA_WEIGHT = 0.3;
+	public static final double REVALIDATE_TTL_FACTOR = 0.5;
+	public static final long REVALIDATE_MIN_TTL = 12 * 3600 * 1000L;
+	public static final long REVALIDATE_MAX_TTL = 30 * 24 * 3600 * 1000L;
 	
 	public static final int TIMEOUT = 60000;
+	// parallel chapter download, see ChapterDownloader and HostLimiter
+	public static final int DOWNLOAD_THREADS = 4;
+	public static final int MAX_CONNECTIONS_PER_HOST = 4;
+	// items taken from the download queue at once, see DownloadService
+	public static final int DOWNLOAD_QUEUE_BATCH = 10;
+	public static final int DOWNLOAD_QUEUE_MAX_ATTEMPTS = 3;
+	// next chapters loaded while reading, see ChapterPrefetcher
+	public static final int PREFETCH_CHAPTERS = 2;
+	// max wait in ms for a chapter still being prefetched when opened
+	public static final long PREFETCH_WAIT_TIMEOUT = 30000;
+	// in ms, see QueryStats
+	public static final long SLOW_QUERY_THRESHOLD = 100;
 	
 	public static final String TAG = "LNReader";
 	
@@ -34,6 +61,8 @@ public class Constants {
 	public static final String PREF_UPDATE_INTERVAL = "updates_interval";
 	public static final String PREF_RUN_UPDATES = "run_update";
 	public static final String PREF_RUN_UPDATES_STATUS = "run_update_status";
+	public static final String PREF_PREFETCH = "prefetch_chapters";
+	public static final String PREF_PREFETCH_METERED = "prefetch_metered";
 	
 	public static final float DISPLAY_SCALE = LNReaderApplication.getInstance().getResources().getDisplayMetrics().density ;
 
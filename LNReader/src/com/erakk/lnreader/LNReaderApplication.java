@@ -7,6 +7,7 @@ import java.io.InputStreamReader;
 import java.util.Date;
 import java.util.Hashtable;
 
+import android.annotation.SuppressLint;
 import android.app.Application;
 import android.content.ComponentName;
 import android.content.Context;
@@ -14,11 +15,13 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.Build;
 import android.os.IBinder;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.erakk.lnreader.dao.NovelsDao;
+import com.erakk.lnreader.service.DownloadService;
 import com.erakk.lnreader.service.UpdateService;
 
 /*
@@ -40,6 +43,9 @@ public class LNReaderApplication extends Application {
 		instance = this;
 		
 		doBindService();
+
+		// resume the unfinished download queue
+		DownloadService.start(this);
 	}
 		
 	protected void initSingletons()
@@ -57,6 +63,20 @@ public class LNReaderApplication extends Application {
 	    return false;
 	}
 	
+	/**
+	 * @return true if the active network might be charged by usage, e.g. mobile data
+	 */
+	@SuppressLint("NewApi")
+	public boolean isMetered() {
+	    ConnectivityManager cm =
+	        (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+	    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+	        return cm.isActiveNetworkMetered();
+	    }
+	    NetworkInfo netInfo = cm.getActiveNetworkInfo();
+	    return netInfo == null || netInfo.getType() != ConnectivityManager.TYPE_WIFI;
+	}
+	
 	public static LNReaderApplication getInstance() {
 		return instance;
 	}
@@ -107,10 +127,18 @@ public class LNReaderApplication extends Application {
 	
 	@Override
 	public void onLowMemory () {
+		novelsDao.flushPendingFlags(true);
 		unbindService(mConnection);
 		super.onLowMemory();		
 	}
 	
+	@Override
+	public void onTrimMemory(int level) {
+		// API 14+, the process might be killed after this
+		novelsDao.flushPendingFlags(true);
+		super.onTrimMemory(level);
+	}
+	
 	public void runUpdateService(boolean force) {
 		if(service == null){
 			doBindService();
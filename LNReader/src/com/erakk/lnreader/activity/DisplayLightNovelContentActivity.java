@@ -39,6 +39,7 @@ import com.erakk.lnreader.UIHelper;
 import com.erakk.lnreader.adapter.PageModelAdapter;
 import com.erakk.lnreader.callback.ICallbackEventData;
 import com.erakk.lnreader.callback.ICallbackNotifier;
+import com.erakk.lnreader.dao.ChapterPrefetcher;
 import com.erakk.lnreader.dao.NovelsDao;
 import com.erakk.lnreader.helper.AsyncTaskResult;
 import com.erakk.lnreader.helper.BakaTsukiWebViewClient;
@@ -116,6 +117,7 @@ public class DisplayLightNovelContentActivity extends Activity {
 	public void onPause() {
 		super.onPause();
 		setLastReadState();
+		dao.flushPendingFlags();
 		Log.d(TAG, "onPause Completed");
 	}
 	
@@ -313,15 +315,14 @@ public class DisplayLightNovelContentActivity extends Activity {
 			content.setLastYScroll(wv.getScrollY());
 			content.setLastZoom(wv.getScale());
 			try{
-				content = dao.updateNovelContent(content);
+				dao.updateReadingPosition(content);
 			}catch(Exception ex) {
 				ex.printStackTrace();
 			}
 			if(wv.getContentHeight() <=  wv.getScrollY() + wv.getBottom()) {
 				try{
 					PageModel page = content.getPageModel();
-					page.setFinishedRead(true);
-					page = dao.updatePageModel(page);
+					dao.setFinishedRead(page, true);
 					Log.d(TAG, "Update Content: " + content.getLastXScroll() + " " + content.getLastYScroll() +  " " + content.getLastZoom());
 				}catch(Exception ex) {
 					ex.printStackTrace();
@@ -353,7 +354,24 @@ public class DisplayLightNovelContentActivity extends Activity {
     	return sharedPrefs.getBoolean(Constants.PREF_INVERT_COLOR, false);
 	}
 	
+	private String getCss() {
+		int styleId = -1;
+		if(getColorPreferences()) {
+			styleId = R.raw.style_dark;
+			Log.d("CSS", "CSS = dark");					
+		}
+		else {
+			styleId = R.raw.style;
+			Log.d("CSS", "CSS = normal");
+		}
+		LNReaderApplication app = (LNReaderApplication) getApplication();
+		return app.ReadCss(styleId);
+	}
+	
 	public class LoadNovelContentTask extends AsyncTask<PageModel, String, AsyncTaskResult<NovelContentModel>> implements ICallbackNotifier{
+		private ChapterPrefetcher.Entry prefetched = null;
+		private long startTime;
+		
 		public void onCallback(ICallbackEventData message) {
     		publishProgress(message.getMessage());
     	}
@@ -361,6 +379,7 @@ public class DisplayLightNovelContentActivity extends Activity {
 		@Override
 		protected void onPreExecute (){
 			// executed on UI thread.
+			startTime = System.currentTimeMillis();
 			ToggleProgressBar(true);
 		}
 		
@@ -369,9 +388,15 @@ public class DisplayLightNovelContentActivity extends Activity {
 			try{
 				PageModel p = params[0];
 				if(refresh) {
+					ChapterPrefetcher.invalidate(p.getPage());
 					return new AsyncTaskResult<NovelContentModel>(dao.getNovelContentFromInternet(p, this));
 				}
 				else {
+					// already loaded while reading the previous chapter
+					prefetched = ChapterPrefetcher.take(p.getPage(), getCss());
+					if(prefetched != null) {
+						return new AsyncTaskResult<NovelContentModel>(prefetched.getContent());
+					}
 					return new AsyncTaskResult<NovelContentModel>(dao.getNovelContent(p, this));
 				}
 			}catch(Exception e) {
@@ -411,25 +436,23 @@ public class DisplayLightNovelContentActivity extends Activity {
 				BakaTsukiWebViewClient client = new BakaTsukiWebViewClient(activity);
 				wv.setWebViewClient(client);
 
-				int styleId = -1;
-				if(getColorPreferences()) {
-					styleId = R.raw.style_dark;
-					Log.d("CSS", "CSS = dark");					
-				}
-				else {
-					styleId = R.raw.style;
-					Log.d("CSS", "CSS = normal");
-				}
-				LNReaderApplication app = (LNReaderApplication) getApplication();
-				String html = "<html><head><style type=\"text/css\">" + app.ReadCss(styleId) + "</style></head><body>" + content.getContent() + "</body></html>";
+				final String css = getCss();
+				String html = prefetched != null ? prefetched.getHtml() : ChapterPrefetcher.buildHtml(css, content);
 				wv.loadDataWithBaseURL(Constants.BASE_URL, html, "text/html", "utf-8", "");
 
 				wv.setInitialScale((int) (content.getLastZoom() * 100));
 				
+				final long start = startTime;
+				final boolean isPrefetched = prefetched != null;
 				wv.setPictureListener(new PictureListener(){
 					boolean needScroll = true;
+					boolean firstPaint = true;
 					@Deprecated
 					public void onNewPicture(WebView arg0, Picture arg1) {
+						if(firstPaint) {
+							firstPaint = false;
+							ChapterPrefetcher.recordFirstPaint(System.currentTimeMillis() - start, isPrefetched);
+						}
 						Log.d(TAG, "Content Height: " + wv.getContentHeight() + " : " + content.getLastYScroll());
 						if(needScroll && wv.getContentHeight() * content.getLastZoom() > content.getLastYScroll()) {
 							wv.scrollTo(0, content.getLastYScroll());
@@ -446,6 +469,8 @@ public class DisplayLightNovelContentActivity extends Activity {
 				} catch (Exception ex) {
 					Log.e(TAG, "Error when setting title: " + ex.getMessage(), ex);
 				}
+				// load the next chapters while this one is read
+				ChapterPrefetcher.prefetch(novelDetails, pageModel.getPage(), css);
 				Log.d(TAG, "Load Content: " + content.getLastXScroll() + " " + content.getLastYScroll() +  " " + content.getLastZoom());
 				
 				buildTOCMenu();
@@ -34,14 +34,17 @@ import com.erakk.lnreader.Constants;
 import com.erakk.lnreader.R;
 import com.erakk.lnreader.UIHelper;
 import com.erakk.lnreader.adapter.BookModelAdapter;
+import com.erakk.lnreader.callback.DownloadJobCallbackEventData;
 import com.erakk.lnreader.callback.ICallbackEventData;
 import com.erakk.lnreader.callback.ICallbackNotifier;
+import com.erakk.lnreader.callback.RefreshCallbackEventData;
 import com.erakk.lnreader.dao.NovelsDao;
 import com.erakk.lnreader.helper.AsyncTaskResult;
 import com.erakk.lnreader.model.BookModel;
+import com.erakk.lnreader.model.DownloadJobModel;
 import com.erakk.lnreader.model.NovelCollectionModel;
-import com.erakk.lnreader.model.NovelContentModel;
 import com.erakk.lnreader.model.PageModel;
+import com.erakk.lnreader.service.DownloadService;
 
 public class DisplayLightNovelDetailsActivity extends Activity {
 	private static final String TAG = DisplayLightNovelDetailsActivity.class.toString();
@@ -52,7 +55,6 @@ public class DisplayLightNovelDetailsActivity extends Activity {
     private BookModelAdapter bookModelAdapter;
     private ExpandableListView expandList;
     
-    private DownloadNovelContentTask downloadTask = null;
     private LoadNovelDetailsTask task = null;
     
 	private ProgressDialog dialog;
@@ -108,6 +110,16 @@ public class DisplayLightNovelDetailsActivity extends Activity {
 	protected void onResume(){
 		super.onResume();
 		Log.d(TAG, "OnResume: " + task.getStatus().toString());
+		DownloadService.setListener(downloadListener);
+		dao.setRefreshListener(refreshListener);
+	}
+	
+	@Override
+	protected void onPause() {
+		super.onPause();
+		DownloadService.setListener(null);
+		dao.setRefreshListener(null);
+		dao.flushPendingFlags();
 	}
 	
     public void onStop(){
@@ -115,9 +127,6 @@ public class DisplayLightNovelDetailsActivity extends Activity {
     	if(task != null && !(task.getStatus() == Status.FINISHED)) {
     		task.cancel(true);
     	}
-    	if(downloadTask != null && !(downloadTask.getStatus() == Status.FINISHED)) {
-    		downloadTask.cancel(true);
-    	}
     	super.onStop();
     }
     
@@ -219,8 +228,7 @@ public class DisplayLightNovelDetailsActivity extends Activity {
 			BookModel book2 = novelCol.getBookCollections().get(groupPosition);
 			for(Iterator<PageModel> iPage = book2.getChapterCollection().iterator(); iPage.hasNext();) {
 				PageModel page = iPage.next();
-				page.setFinishedRead(true);
-				dao.updatePageModel(page);
+				dao.setFinishedRead(page, true);
 			}
 			bookModelAdapter.notifyDataSetChanged();
 			return true;
@@ -231,8 +239,9 @@ public class DisplayLightNovelDetailsActivity extends Activity {
 			 * Implement code to download this chapter
 			 */
 			chapter = novelCol.getBookCollections().get(groupPosition).getChapterCollection().get(childPosition);
-			downloadTask = new DownloadNovelContentTask(new PageModel[] { chapter});
-			downloadTask.execute();
+			ArrayList<PageModel> singleChapter = new ArrayList<PageModel>();
+			singleChapter.add(chapter);
+			executeDownloadTask(singleChapter);
 			return true;
 		case R.id.clear_chapter:
 			
@@ -252,8 +261,7 @@ public class DisplayLightNovelDetailsActivity extends Activity {
 			 * >> change to toggle
 			 */
 			chapter = novelCol.getBookCollections().get(groupPosition).getChapterCollection().get(childPosition);
-			chapter.setFinishedRead(!chapter.isFinishedRead());
-			dao.updatePageModel(chapter);
+			dao.setFinishedRead(chapter, !chapter.isFinishedRead());
 			bookModelAdapter.notifyDataSetChanged();
 			Toast.makeText(this, "Toggle Read", Toast.LENGTH_SHORT).show();
 			return true;
@@ -272,15 +280,58 @@ public class DisplayLightNovelDetailsActivity extends Activity {
 			task.execute(new PageModel[] {pageModel});
 	}
 	
-	@SuppressLint("NewApi")
 	private void executeDownloadTask(ArrayList<PageModel> chapters) {
-		downloadTask = new DownloadNovelContentTask((PageModel[]) chapters.toArray(new PageModel[chapters.size()]));
-		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
-			downloadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
-		else
-			downloadTask.execute();
+		// queued in db, DownloadService continue even if the activity is closed
+		dao.addDownloads(chapters, DownloadJobModel.TYPE_CHAPTER);
+		DownloadService.start(this);
+		Toast.makeText(this, "Added to download queue: " + chapters.size() + " chapter(s)", Toast.LENGTH_SHORT).show();
 	}
 	
+	private final ICallbackNotifier downloadListener = new ICallbackNotifier() {
+		public void onCallback(ICallbackEventData message) {
+			if(!(message instanceof DownloadJobCallbackEventData)) return;
+			final DownloadJobModel job = ((DownloadJobCallbackEventData) message).getJob();
+			if(job.getState() != DownloadJobModel.STATE_DONE || !DownloadJobModel.TYPE_CHAPTER.equals(job.getType())) return;
+			// called from the service thread
+			runOnUiThread(new Runnable() {
+				public void run() {
+					if(novelCol == null) return;
+					for(Iterator<BookModel> iBook = novelCol.getBookCollections().iterator(); iBook.hasNext();) {
+						BookModel book = iBook.next();
+						for(Iterator<PageModel> iPage = book.getChapterCollection().iterator(); iPage.hasNext();) {
+							PageModel temp = iPage.next();
+							if(job.getPage().equals(temp.getPage())) temp.setDownloaded(true);
+						}
+					}
+					bookModelAdapter.notifyDataSetChanged();
+				}
+			});
+		}
+	};
+	
+	/*
+	 * The saved chapter list is shown first, the background refresh from NovelsDao.getNovelDetails() lands here.
+	 */
+	private final ICallbackNotifier refreshListener = new ICallbackNotifier() {
+		public void onCallback(ICallbackEventData message) {
+			if(!(message instanceof RefreshCallbackEventData)) return;
+			final RefreshCallbackEventData event = (RefreshCallbackEventData) message;
+			if(event.getNovelDetails() == null || !event.hasChanges() || !event.getPage().equals(page.getPage())) return;
+			// called from the background thread
+			runOnUiThread(new Runnable() {
+				public void run() {
+					if(novelCol == null || bookModelAdapter == null) return;
+					novelCol = event.getNovelDetails();
+					bookModelAdapter = new BookModelAdapter(DisplayLightNovelDetailsActivity.this, novelCol.getBookCollections());
+					expandList.setAdapter(bookModelAdapter);
+					if(event.getAdded().size() > 0) {
+						Toast.makeText(getApplicationContext(), "New chapters: " + event.getAdded().size(), Toast.LENGTH_SHORT).show();
+					}
+				}
+			});
+		}
+	};
+	
 	private void ToggleProgressBar(boolean show) {
 		if(show) {
 			dialog = ProgressDialog.show(this, "Novel Details", "Loading. Please wait...", true);
@@ -363,9 +414,8 @@ public class DisplayLightNovelDetailsActivity extends Activity {
 									Toast.makeText(getApplicationContext(), "Removed from watch list: " + page.getTitle(),	Toast.LENGTH_SHORT).show();
 								}
 								// update the db!
-								page.setWatched(isChecked);
 								NovelsDao dao = NovelsDao.getInstance(getApplicationContext());
-								dao.updatePageModel(page);
+								dao.setWatched(page, isChecked);
 							}
 						});
 
@@ -396,74 +446,4 @@ public class DisplayLightNovelDetailsActivity extends Activity {
 		}		
     }
 
-	public class DownloadNovelContentTask extends AsyncTask<Void, String, AsyncTaskResult<NovelContentModel[]>> implements ICallbackNotifier{
-		private PageModel[] chapters;
-		
-		public DownloadNovelContentTask(PageModel[] chapters) {
-			super();
-			this.chapters = chapters;
-		}
-		
-		@Override
-		protected void onPreExecute (){
-			// executed on UI thread.
-			ToggleProgressBar(true);
-		}
-		
-		public void onCallback(ICallbackEventData message) {
-    		publishProgress(message.getMessage());
-    	}
-
-		@Override
-		protected AsyncTaskResult<NovelContentModel[]> doInBackground(Void... params) {
-			try{
-				NovelContentModel[] contents = new NovelContentModel[chapters.length];
-				for(int i = 0; i < chapters.length; ++i) {
-					publishProgress("Downloading: " + chapters[i].getTitle());
-					NovelContentModel temp = dao.getNovelContentFromInternet(chapters[i], this);
-					contents[i] = temp;
-				}
-				return new AsyncTaskResult<NovelContentModel[]>(contents);
-			}catch(Exception e) {
-				return new AsyncTaskResult<NovelContentModel[]>(e);
-			}
-		}
-		
-		@Override
-		protected void onProgressUpdate (String... values){
-			//executed on UI thread.
-			synchronized (dialog) {
-				if(dialog.isShowing())
-					dialog.setMessage(values[0]);
-			}			
-		}
-		
-		@Override
-		protected void onPostExecute(AsyncTaskResult<NovelContentModel[]> result) {
-			Exception e = result.getError();
-			if(e == null) {
-				NovelContentModel[] content = result.getResult();
-				if(content != null) {
-					for(Iterator<BookModel> iBook = novelCol.getBookCollections().iterator(); iBook.hasNext();) {
-						BookModel book = iBook.next();
-						for(Iterator<PageModel> iPage = book.getChapterCollection().iterator(); iPage.hasNext();) {
-							PageModel temp = iPage.next();
-							for(int i = 0; i < chapters.length; ++i) {
-								if(temp.getPage() == chapters[i].getPage()) {
-									temp.setDownloaded(true);
-									chapters[i].setDownloaded(true);
-								}
-							}
-						}
-					}
-					bookModelAdapter.notifyDataSetChanged();
-				}
-			}
-			else {
-				Log.e(TAG, e.getClass().toString() + ": " + e.getMessage(), e);
-				Toast.makeText(getApplicationContext(), e.getClass().toString() + ": " + e.getMessage(), Toast.LENGTH_SHORT).show();
-			}
-			ToggleProgressBar(false);
-		}
-	}
 }
@@ -1,11 +1,10 @@
 package com.erakk.lnreader.activity;
 
-import java.util.ArrayList;
-
 import android.annotation.SuppressLint;
 import android.app.ListActivity;
 import android.app.ProgressDialog;
 import android.content.Intent;
+import android.database.Cursor;
 import android.os.AsyncTask;
 import android.os.AsyncTask.Status;
 import android.os.Build;
@@ -28,11 +27,13 @@ import android.widget.Toast;
 import com.erakk.lnreader.Constants;
 import com.erakk.lnreader.R;
 import com.erakk.lnreader.UIHelper;
-import com.erakk.lnreader.adapter.PageModelAdapter;
+import com.erakk.lnreader.adapter.NovelListCursorAdapter;
 import com.erakk.lnreader.callback.ICallbackEventData;
 import com.erakk.lnreader.callback.ICallbackNotifier;
+import com.erakk.lnreader.callback.RefreshCallbackEventData;
 import com.erakk.lnreader.dao.NovelsDao;
 import com.erakk.lnreader.helper.AsyncTaskResult;
+import com.erakk.lnreader.helper.DBHelper;
 import com.erakk.lnreader.model.NovelCollectionModel;
 import com.erakk.lnreader.model.PageModel;
 
@@ -43,8 +44,7 @@ import com.erakk.lnreader.model.PageModel;
 
 public class DisplayLightNovelListActivity extends ListActivity{
 	private static final String TAG = DisplayLightNovelListActivity.class.toString();
-	private ArrayList<PageModel> listItems = new ArrayList<PageModel>();
-	private PageModelAdapter adapter;
+	private NovelListCursorAdapter adapter;
 	private NovelsDao dao = NovelsDao.getInstance(this);
 	private LoadNovelsTask task = null;
 	private DownloadNovelDetailsTask downloadTask = null;
@@ -77,7 +77,7 @@ public class DisplayLightNovelListActivity extends ListActivity{
 	protected void onListItemClick(ListView l, View v, int position, long id) {
 		super.onListItemClick(l, v, position, id);
 		// Get the item that was clicked
-		PageModel o = adapter.getItem(position);
+		PageModel o = DBHelper.cursorToNovelListItem((Cursor) adapter.getItem(position));
 		String novel = o.toString();
 		//Create new intent
 		Intent intent = new Intent(this, DisplayLightNovelDetailsActivity.class);
@@ -95,6 +95,20 @@ public class DisplayLightNovelListActivity extends ListActivity{
 		return true;
 	}
 	
+	@Override
+	protected void onResume() {
+		super.onResume();
+		dao.setRefreshListener(refreshListener);
+	}
+	
+	@Override
+	protected void onPause() {
+		super.onPause();
+		dao.setRefreshListener(null);
+		// save the watched flags changed from the list
+		dao.flushPendingFlags();
+	}
+	
 	@Override
 	protected void onStop() {
 		// cancel running task
@@ -113,14 +127,59 @@ public class DisplayLightNovelListActivity extends ListActivity{
 		super.onStop();
 	}
 	
+	@Override
+	protected void onDestroy() {
+		// close the cursor
+		if(adapter != null) {
+			adapter.changeCursor(null);
+		}
+		super.onDestroy();
+	}
+	
 	@Override
     protected void onRestart() {
         super.onRestart();
         if(isInverted != PreferenceManager.getDefaultSharedPreferences(this).getBoolean(Constants.PREF_INVERT_COLOR, false)) {
         	UIHelper.Recreate(this);
         }
-        adapter.notifyDataSetChanged();
+        refreshList();
     }
+	
+	/*
+	 * The saved list is shown first, the background refresh from NovelsDao.getNovelListCursor() lands here.
+	 */
+	private final ICallbackNotifier refreshListener = new ICallbackNotifier() {
+		public void onCallback(ICallbackEventData message) {
+			if(!(message instanceof RefreshCallbackEventData)) return;
+			final RefreshCallbackEventData event = (RefreshCallbackEventData) message;
+			if(!event.hasChanges() || !event.getPage().equals("Main_Page")) return;
+			// called from the background thread
+			runOnUiThread(new Runnable() {
+				public void run() {
+					refreshList();
+					if(event.getAdded().size() > 0) {
+						Toast.makeText(getApplicationContext(), "New novels: " + event.getAdded().size(), Toast.LENGTH_SHORT).show();
+					}
+				}
+			});
+		}
+	};
+	
+	/*
+	 * Requery the saved novel list, e.g. after watch status is changed from other screen.
+	 * The query runs in background, only the cursor is swapped on the UI thread.
+	 */
+	@SuppressLint("NewApi")
+	private void refreshList() {
+		if(adapter != null && (task == null || task.getStatus() == Status.FINISHED)) {
+			boolean onlyWatched = getIntent().getBooleanExtra(Constants.EXTRA_ONLY_WATCHED, false);
+			RefreshListTask refreshTask = new RefreshListTask();
+			if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB)
+				refreshTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, new Boolean[] {onlyWatched});
+			else
+				refreshTask.execute(new Boolean[] {onlyWatched});
+		}
+	}
 
 	@Override
 	public boolean onOptionsItemSelected(MenuItem item) {
@@ -176,7 +235,7 @@ public class DisplayLightNovelListActivity extends ListActivity{
 			AdapterContextMenuInfo info = (AdapterContextMenuInfo) item.getMenuInfo();
 			if(info.position > -1) {
 				ToggleProgressBar(true);
-				PageModel novel = listItems.get(info.position);
+				PageModel novel = adapter.getPageModel(info.position);
 				executeDownloadTask(novel);
 			}
 			return true;
@@ -195,7 +254,7 @@ public class DisplayLightNovelListActivity extends ListActivity{
 			if (adapter != null) {
 				adapter.setResourceId(resourceId);
 			} else {
-				adapter = new PageModelAdapter(this, resourceId, listItems);
+				adapter = new NovelListCursorAdapter(this, resourceId, null);
 			}
 			executeTask(isRefresh, onlyWatched);
 			setListAdapter(adapter);
@@ -234,7 +293,7 @@ public class DisplayLightNovelListActivity extends ListActivity{
 		}
 	}
 		
-	public class LoadNovelsTask extends AsyncTask<Boolean, String, AsyncTaskResult<ArrayList<PageModel>>>  implements ICallbackNotifier {
+	public class LoadNovelsTask extends AsyncTask<Boolean, String, AsyncTaskResult<Cursor>>  implements ICallbackNotifier {
     	private boolean refreshOnly = false;
     	private boolean onlyWatched = false;
 		
@@ -249,28 +308,29 @@ public class DisplayLightNovelListActivity extends ListActivity{
 		}
 		
 		@Override
-		protected AsyncTaskResult<ArrayList<PageModel>> doInBackground(Boolean... arg0) {
+		protected AsyncTaskResult<Cursor> doInBackground(Boolean... arg0) {
 			// different thread from UI
 			this.refreshOnly = arg0[0];
 			this.onlyWatched = arg0[1];
 			try {
 				if (onlyWatched) {
 					publishProgress("Loading Watched List");
-					return new AsyncTaskResult<ArrayList<PageModel>>(dao.getWatchedNovel());
+					return new AsyncTaskResult<Cursor>(dao.getNovelListCursor(true, this));
 				}
 				else {
 					if(refreshOnly) {
 						publishProgress("Refreshing Novel List");
-						return new AsyncTaskResult<ArrayList<PageModel>>(dao.getNovelsFromInternet(this));
+						dao.getNovelsFromInternet(this);
+						return new AsyncTaskResult<Cursor>(dao.getNovelListCursor(false));
 					}
 					else {
 						publishProgress("Loading Novel List");
-						return new AsyncTaskResult<ArrayList<PageModel>>(dao.getNovels(this));
+						return new AsyncTaskResult<Cursor>(dao.getNovelListCursor(false, this));
 					}
 				}
 			} catch (Exception e) {
 				e.printStackTrace();
-				return new AsyncTaskResult<ArrayList<PageModel>>(e);
+				return new AsyncTaskResult<Cursor>(e);
 			}
 		}
 		
@@ -281,20 +341,18 @@ public class DisplayLightNovelListActivity extends ListActivity{
 		}
 		
 		@Override
-		protected void onPostExecute(AsyncTaskResult<ArrayList<PageModel>> result) {
+		protected void onPostExecute(AsyncTaskResult<Cursor> result) {
 			//executed on UI thread.
-			ArrayList<PageModel> list = result.getResult();
-			if(list != null) {
-				if (refreshOnly) {
-					adapter.clear();
-					refreshOnly = false;
-				}
+			Cursor cursor = result.getResult();
+			if(cursor != null) {
+				refreshOnly = false;
 				
-				adapter.addAll(list);
+				// old cursor is closed by the adapter
+				adapter.changeCursor(cursor);
 				ToggleProgressBar(false);
 
 				// Show message if watch list is empty
-				if (list.size() == 0 && onlyWatched) {
+				if (cursor.getCount() == 0 && onlyWatched) {
 					TextView tv = (TextView) findViewById(R.id.emptyList);
 					tv.setVisibility(TextView.VISIBLE);
 					tv.setText("Watch List is empty.");
@@ -308,6 +366,36 @@ public class DisplayLightNovelListActivity extends ListActivity{
 		}    	 
 	}
 	
+	public class RefreshListTask extends AsyncTask<Boolean, Void, AsyncTaskResult<Cursor>> {
+		@Override
+		protected AsyncTaskResult<Cursor> doInBackground(Boolean... params) {
+			try {
+				// also write the queued flags, the watched list is filtered by the db
+				return new AsyncTaskResult<Cursor>(dao.getNovelListCursor(params[0]));
+			} catch (Exception e) {
+				return new AsyncTaskResult<Cursor>(e);
+			}
+		}
+		
+		@Override
+		protected void onPostExecute(AsyncTaskResult<Cursor> result) {
+			Cursor cursor = result.getResult();
+			if(cursor != null) {
+				if(isFinishing()) {
+					cursor.close();
+				}
+				else {
+					// old cursor is closed by the adapter
+					adapter.changeCursor(cursor);
+				}
+			}
+			if(result.getError() != null) {
+				Exception e = result.getError();
+				Log.e(TAG, "Error when refreshing novel list: " + e.getMessage(), e);
+			}
+		}
+	}
+	
 	public class DownloadNovelDetailsTask extends AsyncTask<PageModel, String, AsyncTaskResult<NovelCollectionModel>> implements ICallbackNotifier {
 
 		public void onCallback(ICallbackEventData message) {
@@ -318,6 +406,9 @@ public class DisplayLightNovelListActivity extends ListActivity{
 		protected AsyncTaskResult<NovelCollectionModel> doInBackground(PageModel... params) {
 			PageModel page = params[0];
 			try {
+				// only the list columns are filled, get the saved page
+				PageModel saved = dao.getPageModel(page, this);
+				if(saved != null) page = saved;
 				publishProgress("Downloading chapter list...");
 				NovelCollectionModel novelCol = dao.getNovelDetailsFromInternet(page, this);
 				Log.d("DownloadNovelDetailsTask", "Downloaded: " + novelCol.getPage());				
@@ -347,7 +438,7 @@ public class DisplayLightNovelListActivity extends ListActivity{
 				Toast.makeText(getApplicationContext(), e.getClass().toString() + ": " + e.getMessage(), Toast.LENGTH_SHORT).show();
 				Log.e(this.getClass().toString(), e.getClass().toString() + ": " + e.getMessage());
 			}
-			adapter.notifyDataSetChanged();
+			refreshList();
 			ToggleProgressBar(false);
 		}
 	}
@@ -0,0 +1,105 @@
+package com.erakk.lnreader.adapter;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.widget.CursorAdapter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.CompoundButton.OnCheckedChangeListener;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.erakk.lnreader.R;
+import com.erakk.lnreader.dao.NovelsDao;
+import com.erakk.lnreader.helper.DBHelper;
+import com.erakk.lnreader.model.PageModel;
+
+/*
+ * Novel list backed by NovelsDao.getNovelListCursor(), rows are read from the cursor
+ * only when they are shown instead of loading the whole list.
+ */
+public class NovelListCursorAdapter extends CursorAdapter {
+	private static final String TAG = NovelListCursorAdapter.class.toString();
+	private Context context;
+	private int layoutResourceId;
+
+	public NovelListCursorAdapter(Context context, int resourceId, Cursor cursor) {
+		super(context, cursor, 0);
+		this.context = context;
+		this.layoutResourceId = resourceId;
+	}
+
+	public void setResourceId(int id) {
+		this.layoutResourceId = id;
+	}
+
+	/**
+	 * Get the PageModel for the row from the cursor only, safe to call from the UI thread.
+	 * Only the columns of the list are filled, see DBHelper.cursorToNovelListItem().
+	 * @param position
+	 * @return PageModel
+	 */
+	public PageModel getPageModel(int position) {
+		Cursor cursor = (Cursor) getItem(position);
+		if(cursor == null) return null;
+		return NovelsDao.getInstance(context).applyPendingFlags(DBHelper.cursorToNovelListItem(cursor));
+	}
+
+	@Override
+	public View newView(Context context, Cursor cursor, ViewGroup parent) {
+		View row = LayoutInflater.from(context).inflate(layoutResourceId, parent, false);
+		PageModelHolder holder = new PageModelHolder();
+		holder.txtNovel = (TextView)row.findViewById(R.id.novel_name);
+		holder.txtLastUpdate = (TextView)row.findViewById(R.id.novel_last_update);
+		holder.txtLastCheck = (TextView)row.findViewById(R.id.novel_last_check);
+		holder.chkIsWatched = (CheckBox)row.findViewById(R.id.novel_is_watched);
+		row.setTag(holder);
+		return row;
+	}
+
+	@Override
+	public void bindView(View row, Context context, Cursor cursor) {
+		PageModelHolder holder = (PageModelHolder) row.getTag();
+		// the cursor is not requeried when a flag is changed, show the queued value
+		final PageModel page = NovelsDao.getInstance(context).applyPendingFlags(DBHelper.cursorToNovelListItem(cursor));
+
+		if(holder.txtNovel != null) {
+			holder.txtNovel.setText(page.getTitle());
+		}
+		if(holder.txtLastUpdate != null) {
+			holder.txtLastUpdate.setText("Last Update: " + page.getLastUpdate().toString());
+		}
+		if(holder.txtLastCheck != null) {
+			holder.txtLastCheck.setText("Last Check: " + page.getLastCheck().toString());
+		}
+		if(holder.chkIsWatched != null) {
+			// remove the listener first, the view might be recycled from other row.
+			holder.chkIsWatched.setOnCheckedChangeListener(null);
+			holder.chkIsWatched.setChecked(page.isWatched());
+			holder.chkIsWatched.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+
+				public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+					if(isChecked){
+						Toast.makeText(NovelListCursorAdapter.this.context, "Added to watch list: " + page.getTitle(),	Toast.LENGTH_SHORT).show();
+					}
+					else {
+						Toast.makeText(NovelListCursorAdapter.this.context, "Removed from watch list: " + page.getTitle(),	Toast.LENGTH_SHORT).show();
+					}
+					// only the flag is queued, the other columns are kept.
+					NovelsDao.getInstance(NovelListCursorAdapter.this.context).setWatched(page, isChecked);
+				}
+			});
+		}
+	}
+
+	static class PageModelHolder
+	{
+		TextView txtNovel;
+		TextView txtLastUpdate;
+		TextView txtLastCheck;
+		CheckBox chkIsWatched;
+	}
+}
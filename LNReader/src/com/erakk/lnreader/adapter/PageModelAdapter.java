@@ -96,9 +96,8 @@ public class PageModelAdapter extends ArrayAdapter<PageModel> {
 						Toast.makeText(context, "Removed from watch list: " + page.getTitle(),	Toast.LENGTH_SHORT).show();
 					}
 					// update the db!
-					page.setWatched(isChecked);
 					NovelsDao dao = NovelsDao.getInstance(context); // use the cached instance
-					dao.updatePageModel(page);
+					dao.setWatched(page, isChecked);
 				}
 			});
 		}
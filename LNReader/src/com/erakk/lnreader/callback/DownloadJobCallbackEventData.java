@@ -0,0 +1,20 @@
+package com.erakk.lnreader.callback;
+
+import com.erakk.lnreader.model.DownloadJobModel;
+
+/**
+ * Sent by DownloadService when a queued item is finished or failed.
+ */
+public class DownloadJobCallbackEventData extends CallbackEventData implements ICallbackEventData {
+
+	private DownloadJobModel job;
+
+	public DownloadJobCallbackEventData(String message, DownloadJobModel job) {
+		super(message);
+		this.job = job;
+	}
+
+	public DownloadJobModel getJob() {
+		return job;
+	}
+}
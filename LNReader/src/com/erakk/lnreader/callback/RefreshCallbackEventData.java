@@ -0,0 +1,60 @@
+package com.erakk.lnreader.callback;
+
+import java.util.ArrayList;
+
+import com.erakk.lnreader.model.NovelCollectionModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Sent by NovelsDao when a background refresh of the novel list or novel details is saved.
+ * Page is Main_Page for the novel list, the lists are the novels or chapters changed since the saved copy.
+ */
+public class RefreshCallbackEventData extends CallbackEventData implements ICallbackEventData {
+
+	private String page;
+	private ArrayList<PageModel> added = new ArrayList<PageModel>();
+	private ArrayList<PageModel> removed = new ArrayList<PageModel>();
+	private ArrayList<PageModel> updated = new ArrayList<PageModel>();
+	private NovelCollectionModel novelDetails;
+
+	public RefreshCallbackEventData(String page) {
+		this.page = page;
+	}
+
+	public String getPage() {
+		return page;
+	}
+	public ArrayList<PageModel> getAdded() {
+		return added;
+	}
+	public ArrayList<PageModel> getRemoved() {
+		return removed;
+	}
+	/**
+	 * @return pages with different last update
+	 */
+	public ArrayList<PageModel> getUpdated() {
+		return updated;
+	}
+	/**
+	 * @return refreshed novel details, null for the novel list
+	 */
+	public NovelCollectionModel getNovelDetails() {
+		return novelDetails;
+	}
+	public void setNovelDetails(NovelCollectionModel novelDetails) {
+		this.novelDetails = novelDetails;
+	}
+
+	public boolean hasChanges() {
+		return !added.isEmpty() || !removed.isEmpty() || !updated.isEmpty();
+	}
+
+	@Override
+	public String getMessage() {
+		if(this.message == null || this.message.length() == 0) {
+			this.message = "New: " + added.size() + ", updated: " + updated.size() + ", removed: " + removed.size();
+		}
+		return message;
+	}
+}
@@ -0,0 +1,296 @@
+package com.erakk.lnreader.dao;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import com.erakk.lnreader.callback.CallbackEventData;
+import com.erakk.lnreader.callback.ICallbackNotifier;
+import com.erakk.lnreader.helper.BakaTsukiFetcher;
+import com.erakk.lnreader.helper.DownloadFileTask;
+import com.erakk.lnreader.model.HttpValidatorModel;
+import com.erakk.lnreader.model.ImageModel;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Download chapters in parallel, in separate stages:
+ * page info of all chapters (batched), content page fetch and parse,
+ * images (one task per image) and saving to db (one chapter at a time).
+ * The connections per host are limited by HostLimiter.
+ * A failed chapter doesn't stop the others, the first error is thrown at the end.
+ * Override onChapterSaved() and onChapterFailed() to follow each chapter, e.g. DownloadService.
+ */
+public class ChapterDownloader {
+	private static final String TAG = ChapterDownloader.class.toString();
+
+	private final NovelsDao dao;
+	private final ICallbackNotifier notifier;
+	private final int threads;
+
+	private ExecutorService fetchPool;
+	private ExecutorService imagePool;
+	private ExecutorService savePool;
+	private CountDownLatch remaining;
+
+	private int chapterCount = 0;
+	private int chapterDone = 0;
+	private int imageCount = 0;
+	private int imageDone = 0;
+	private Exception error = null;
+
+	private static class Job {
+		final int index;
+		final PageModel page;
+		final String oldTitle;
+		final PageModel info;
+		HttpValidatorModel validator;
+		NovelContentModel content;
+		boolean notModified;
+		final AtomicInteger pendingImages = new AtomicInteger();
+		// set once when the job is saved or failed, the latch is counted down only by the one setting it
+		final AtomicBoolean done = new AtomicBoolean();
+
+		Job(int index, PageModel page, PageModel info) {
+			this.index = index;
+			this.page = page;
+			this.oldTitle = page.getTitle();
+			this.info = info;
+		}
+	}
+
+	public ChapterDownloader(NovelsDao dao, ICallbackNotifier notifier, int threads) {
+		this.dao = dao;
+		this.notifier = notifier;
+		this.threads = threads;
+	}
+
+	/**
+	 * @param pages chapters to download
+	 * @return saved content in the same order
+	 * @throws Exception first error, the other chapters are still saved
+	 */
+	public NovelContentModel[] download(List<PageModel> pages) throws Exception {
+		NovelContentModel[] result = new NovelContentModel[pages.size()];
+		if(pages.isEmpty()) return result;
+
+		// last update of all chapters, up to 50 per request
+		ArrayList<PageModel> infos = dao.fetchPageInfos(pages, notifier);
+
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		for(int i = 0; i < pages.size(); ++i) {
+			jobs.add(new Job(i, pages.get(i), infos.get(i)));
+		}
+		chapterCount = jobs.size();
+		remaining = new CountDownLatch(jobs.size());
+		fetchPool = Executors.newFixedThreadPool(threads);
+		imagePool = Executors.newFixedThreadPool(threads);
+		savePool = Executors.newSingleThreadExecutor();
+		long start = System.currentTimeMillis();
+		try{
+			for(Iterator<Job> i = jobs.iterator(); i.hasNext();) {
+				final Job job = i.next();
+				try{
+					fetchPool.execute(new Runnable() {
+						public void run() {
+							fetch(job);
+						}
+					});
+				}
+				catch(Throwable ex) {
+					fail(job, ex);
+				}
+			}
+			remaining.await();
+		}
+		finally{
+			fetchPool.shutdownNow();
+			imagePool.shutdownNow();
+			savePool.shutdownNow();
+		}
+		Log.i(TAG, "Downloaded " + chapterDone + " of " + chapterCount + " chapters, " + imageDone + " images in " + (System.currentTimeMillis() - start) + " ms");
+
+		synchronized (this) {
+			if(error != null) throw error;
+		}
+		for(int i = 0; i < jobs.size(); ++i) {
+			result[i] = jobs.get(i).content;
+		}
+		return result;
+	}
+
+	/*
+	 * Stage 1: get and parse the content page, or use the saved one if not modified.
+	 */
+	private void fetch(final Job job) {
+		try{
+			job.validator = dao.getHttpValidator(BakaTsukiFetcher.getNovelContentUrl(job.page));
+			job.content = BakaTsukiFetcher.fetchNovelContent(job.page, job.validator, null);
+			job.notModified = job.content == null;
+			if(job.notModified) {
+				job.content = dao.getSavedNovelContent(job.page);
+				if(job.content == null) {
+					// the saved copy is gone, get the full page
+					job.validator.clear();
+					job.content = BakaTsukiFetcher.fetchNovelContent(job.page, job.validator, null);
+					job.notModified = false;
+				}
+			}
+		}
+		catch(Throwable ex) {
+			fail(job, ex);
+			return;
+		}
+
+		try{
+			// images of unmodified page are already downloaded
+			ArrayList<ImageModel> images = job.notModified ? null : job.content.getImages();
+			if(images == null || images.isEmpty()) {
+				save(job);
+				return;
+			}
+			job.pendingImages.set(images.size());
+			synchronized (this) {
+				imageCount += images.size();
+			}
+			for(Iterator<ImageModel> i = images.iterator(); i.hasNext();) {
+				final ImageModel image = i.next();
+				imagePool.execute(new Runnable() {
+					public void run() {
+						downloadImage(job, image);
+					}
+				});
+			}
+		}
+		catch(Throwable ex) {
+			// e.g. rejected by the pool, the images already queued are skipped
+			fail(job, ex);
+		}
+	}
+
+	/*
+	 * Stage 2: download the image, the chapter is saved after the last one.
+	 */
+	private void downloadImage(Job job, ImageModel image) {
+		if(!job.done.get()) {
+			try{
+				new DownloadFileTask(null).downloadImage(image.getUrl());
+				synchronized (this) {
+					++imageDone;
+				}
+				notifyProgress();
+			}
+			catch(Throwable ex) {
+				fail(job, ex);
+			}
+		}
+		if(job.pendingImages.decrementAndGet() == 0 && !job.done.get()) {
+			save(job);
+		}
+	}
+
+	/*
+	 * Stage 3: save to db, one chapter at a time.
+	 */
+	private void save(final Job job) {
+		try{
+			savePool.execute(new Runnable() {
+				public void run() {
+					saveJob(job);
+				}
+			});
+		}
+		catch(Throwable ex) {
+			fail(job, ex);
+		}
+	}
+
+	private void saveJob(Job job) {
+		try{
+			if(job.info != null) {
+				// the saved one is shared by the page cache
+				PageModel pageModel = job.content.getPageModel().copy();
+				job.content.setPageModel(pageModel);
+				// overwrite the old title
+				pageModel.setTitle(job.oldTitle);
+				//syncronize the date
+				pageModel.setLastUpdate(job.info.getLastUpdate());
+				pageModel.setLastCheck(new Date());
+				job.content.setLastUpdate(job.info.getLastUpdate());
+				job.content.setLastCheck(new Date());
+			}
+			job.content = dao.saveNovelContent(job.content, job.validator, job.notModified);
+		}
+		catch(Throwable ex) {
+			fail(job, ex);
+			return;
+		}
+		if(!job.done.compareAndSet(false, true)) return;
+		try{
+			synchronized (this) {
+				++chapterDone;
+			}
+			notifyProgress();
+			onChapterSaved(job.index, job.content);
+		}
+		catch(Throwable ex) {
+			Log.e(TAG, "onChapterSaved failed: " + job.page.getPage(), ex);
+		}
+		finally{
+			remaining.countDown();
+		}
+	}
+
+	private void fail(Job job, Throwable t) {
+		// only count the first error of the chapter
+		if(!job.done.compareAndSet(false, true)) return;
+		Exception ex = t instanceof Exception ? (Exception) t : new Exception(t);
+		try{
+			Log.e(TAG, "Failed to download: " + job.page.getPage(), ex);
+			synchronized (this) {
+				if(error == null) error = ex;
+			}
+			onChapterFailed(job.index, ex);
+		}
+		catch(Throwable hookEx) {
+			Log.e(TAG, "onChapterFailed failed: " + job.page.getPage(), hookEx);
+		}
+		finally{
+			remaining.countDown();
+		}
+	}
+
+	/**
+	 * Called from the save thread after the chapter is saved to db.
+	 * @param index position in the downloaded list
+	 * @param content saved content
+	 */
+	protected void onChapterSaved(int index, NovelContentModel content) {
+	}
+
+	/**
+	 * Called once for each failed chapter, from the failing thread.
+	 * @param index position in the downloaded list
+	 * @param ex the error
+	 */
+	protected void onChapterFailed(int index, Exception ex) {
+	}
+
+	private void notifyProgress() {
+		if(notifier == null) return;
+		String message;
+		synchronized (this) {
+			message = "Downloading: " + chapterDone + " of " + chapterCount + " chapters";
+			if(imageCount > 0) message += ", " + imageDone + " of " + imageCount + " images";
+		}
+		notifier.onCallback(new CallbackEventData(message));
+	}
+}
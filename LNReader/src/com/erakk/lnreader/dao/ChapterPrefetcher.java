@@ -0,0 +1,239 @@
+package com.erakk.lnreader.dao;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.LNReaderApplication;
+import com.erakk.lnreader.model.NovelCollectionModel;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Load the next chapters while the current one is read: the content and images are saved to db
+ * (downloaded if needed) and the html is rendered, so opening the next chapter skips the loading.
+ * Download only happens if allowed by PREF_PREFETCH_METERED, saved chapters are always loaded.
+ * Keep the hit rate and the time to first paint, see getHitRate() and getAverageFirstPaint().
+ */
+public class ChapterPrefetcher {
+	private static final String TAG = ChapterPrefetcher.class.toString();
+
+	public static class Entry {
+		private final NovelContentModel content;
+		private final String html;
+		private final String css;
+
+		private Entry(NovelContentModel content, String html, String css) {
+			this.content = content;
+			this.html = html;
+			this.css = css;
+		}
+
+		public NovelContentModel getContent() {
+			return content;
+		}
+		/**
+		 * @return rendered html, see buildHtml()
+		 */
+		public String getHtml() {
+			return html;
+		}
+	}
+
+	// rendered chapters, guarded by itself
+	private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(8, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > Constants.PREFETCH_CHAPTERS;
+		}
+	};
+	// pages being loaded, guarded by cache
+	private static final HashSet<String> loading = new HashSet<String>();
+	// one chapter at a time, the opened chapter has priority on the connections
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	// guarded by cache
+	private static long hits = 0;
+	private static long misses = 0;
+	private static long firstPaintHitTotal = 0;
+	private static long firstPaintHitCount = 0;
+	private static long firstPaintMissTotal = 0;
+	private static long firstPaintMissCount = 0;
+
+	/**
+	 * Html shown by the reader, the same for the prefetched and the opened chapter.
+	 */
+	public static String buildHtml(String css, NovelContentModel content) {
+		return "<html><head><style type=\"text/css\">" + css + "</style></head><body>" + content.getContent() + "</body></html>";
+	}
+
+	/**
+	 * Start loading the chapters after the given page in background.
+	 * @param novelDetails chapter list of the novel
+	 * @param page currently opened chapter
+	 * @param css style used by the reader
+	 */
+	public static void prefetch(NovelCollectionModel novelDetails, String page, final String css) {
+		if(novelDetails == null || !isEnabled()) return;
+		final NovelsDao dao = NovelsDao.getInstance();
+		PageModel next = novelDetails.getNext(page);
+		for(int i = 0; i < Constants.PREFETCH_CHAPTERS && next != null; ++i) {
+			final PageModel chapter = next;
+			next = novelDetails.getNext(chapter.getPage());
+			synchronized (cache) {
+				Entry entry = cache.get(chapter.getPage());
+				if(entry != null && entry.css.equals(css)) continue;
+				if(!loading.add(chapter.getPage())) continue;
+			}
+			executor.execute(new Runnable() {
+				public void run() {
+					load(dao, chapter, css);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Take the prefetched chapter, counted as hit or miss.
+	 * If the chapter is still being loaded, wait for it up to PREFETCH_WAIT_TIMEOUT instead of loading it again.
+	 * Don't call from the UI thread.
+	 * @return null if not prefetched with the same css
+	 */
+	public static Entry take(String page, String css) {
+		synchronized (cache) {
+			long deadline = System.currentTimeMillis() + Constants.PREFETCH_WAIT_TIMEOUT;
+			while(loading.contains(page)) {
+				long wait = deadline - System.currentTimeMillis();
+				if(wait <= 0) {
+					Log.w(TAG, "Timeout waiting for prefetch: " + page);
+					break;
+				}
+				try {
+					cache.wait(wait);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			Entry entry = cache.remove(page);
+			if(entry != null && entry.css.equals(css)) {
+				++hits;
+				return entry;
+			}
+			++misses;
+			return null;
+		}
+	}
+
+	/**
+	 * Drop the prefetched chapter, e.g. after the content is refreshed.
+	 */
+	public static void invalidate(String page) {
+		synchronized (cache) {
+			cache.remove(page);
+		}
+	}
+
+	/**
+	 * Time from opening the chapter to the first drawing of the content.
+	 * @param millis
+	 * @param prefetched true if the content was from take()
+	 */
+	public static void recordFirstPaint(long millis, boolean prefetched) {
+		synchronized (cache) {
+			if(prefetched) {
+				firstPaintHitTotal += millis;
+				++firstPaintHitCount;
+			}
+			else {
+				firstPaintMissTotal += millis;
+				++firstPaintMissCount;
+			}
+		}
+		Log.d(TAG, "First paint: " + millis + " ms" + (prefetched ? " (prefetched)" : "")
+				+ ", average prefetched: " + getAverageFirstPaint(true) + " ms, not prefetched: " + getAverageFirstPaint(false)
+				+ " ms, hit rate: " + (int) (getHitRate() * 100) + "%");
+	}
+
+	public static long getHits() {
+		synchronized (cache) {
+			return hits;
+		}
+	}
+
+	public static long getMisses() {
+		synchronized (cache) {
+			return misses;
+		}
+	}
+
+	/**
+	 * @return 0-1, 0 if nothing opened yet
+	 */
+	public static double getHitRate() {
+		synchronized (cache) {
+			if(hits + misses == 0) return 0;
+			return (double) hits / (hits + misses);
+		}
+	}
+
+	/**
+	 * @param prefetched average of the prefetched or not prefetched chapters
+	 * @return in ms
+	 */
+	public static long getAverageFirstPaint(boolean prefetched) {
+		synchronized (cache) {
+			if(prefetched) return firstPaintHitCount == 0 ? 0 : firstPaintHitTotal / firstPaintHitCount;
+			return firstPaintMissCount == 0 ? 0 : firstPaintMissTotal / firstPaintMissCount;
+		}
+	}
+
+	private static boolean isEnabled() {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(LNReaderApplication.getInstance());
+		return prefs.getBoolean(Constants.PREF_PREFETCH, true);
+	}
+
+	private static boolean isDownloadAllowed() {
+		LNReaderApplication app = LNReaderApplication.getInstance();
+		if(!app.isOnline()) return false;
+		if(!app.isMetered()) return true;
+		return PreferenceManager.getDefaultSharedPreferences(app).getBoolean(Constants.PREF_PREFETCH_METERED, false);
+	}
+
+	private static void load(NovelsDao dao, PageModel chapter, String css) {
+		try{
+			NovelContentModel content = dao.getSavedNovelContent(chapter);
+			if(content == null) {
+				if(!isDownloadAllowed()) {
+					Log.d(TAG, "Not downloaded on metered network: " + chapter.getPage());
+					return;
+				}
+				// images are downloaded together with the content
+				content = dao.getNovelContentFromInternet(chapter, null);
+			}
+			Entry entry = new Entry(content, buildHtml(css, content), css);
+			synchronized (cache) {
+				cache.put(chapter.getPage(), entry);
+			}
+			Log.d(TAG, "Prefetched: " + chapter.getPage());
+		}
+		catch(Exception ex) {
+			// will be loaded normally when opened
+			Log.w(TAG, "Failed to prefetch: " + chapter.getPage(), ex);
+		}
+		finally{
+			synchronized (cache) {
+				loading.remove(chapter.getPage());
+				// wake up take() waiting for this chapter
+				cache.notifyAll();
+			}
+		}
+	}
+}
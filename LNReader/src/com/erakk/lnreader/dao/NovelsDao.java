@@ -3,32 +3,47 @@
  */
 package com.erakk.lnreader.dao;
 
-import java.io.EOFException;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
-
-import org.jsoup.Connection.Response;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
 import android.util.Log;
 
 import com.erakk.lnreader.Constants;
 import com.erakk.lnreader.LNReaderApplication;
 import com.erakk.lnreader.callback.CallbackEventData;
 import com.erakk.lnreader.callback.ICallbackNotifier;
+import com.erakk.lnreader.callback.RefreshCallbackEventData;
+import com.erakk.lnreader.helper.BakaTsukiFetcher;
+import com.erakk.lnreader.helper.ChapterFileStore;
 import com.erakk.lnreader.helper.DBHelper;
-import com.erakk.lnreader.helper.DownloadFileTask;
+import com.erakk.lnreader.helper.RevalidationPolicy;
 import com.erakk.lnreader.model.BookModel;
+import com.erakk.lnreader.model.DownloadJobModel;
+import com.erakk.lnreader.model.HttpValidatorModel;
 import com.erakk.lnreader.model.ImageModel;
 import com.erakk.lnreader.model.NovelCollectionModel;
 import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageFlagModel;
 import com.erakk.lnreader.model.PageModel;
-import com.erakk.lnreader.parser.BakaTsukiParser;
+import com.erakk.lnreader.model.PageScheduleModel;
+import com.erakk.lnreader.model.SearchResultModel;
 
 /**
  * @author Nandaka
@@ -37,6 +52,38 @@ import com.erakk.lnreader.parser.BakaTsukiParser;
 public class NovelsDao {
 	private static final String TAG = NovelsDao.class.toString();
 	private static DBHelper dbh;
+	private static SQLiteDatabase database;
+	// reads may run in parallel, writes are serialized.
+	// never hold this lock while doing network I/O.
+	private static final ReentrantReadWriteLock dbLock = new ReentrantReadWriteLock();
+	
+	// write-behind queue for watched/finished read flags, one entry per page.
+	// guarded by itself, flushingFlags is the batch being written.
+	private static final LinkedHashMap<String, PageFlagModel> pendingFlags = new LinkedHashMap<String, PageFlagModel>();
+	private static HashMap<String, PageFlagModel> flushingFlags = null;
+	private static final Object flushLock = new Object();
+	private static final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor();
+	private static ScheduledFuture<?> scheduledFlush = null;
+	
+	// stale-while-revalidate: the saved novel list/details are returned at once and refreshed here,
+	// one page at a time. revalidating is guarded by itself.
+	private static final ExecutorService revalidateExecutor = Executors.newSingleThreadExecutor();
+	private static final HashSet<String> revalidating = new HashSet<String>();
+	private static volatile ICallbackNotifier refreshListener = null;
+	// wait a bit so repeated clicks are coalesced into one transaction
+	private static final long FLUSH_DELAY = 2000;
+	
+	// see getCachedPageModel(), guarded by itself
+	private static final int PAGE_CACHE_SIZE = 500;
+	private static final LinkedHashMap<String, PageModel> pageCache = new LinkedHashMap<String, PageModel>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<String, PageModel> eldest) {
+			return size() > PAGE_CACHE_SIZE;
+		}
+	};
+	private static long pageCacheGeneration = 0;
+	private static long pageCacheHits = 0;
+	private static long pageCacheMisses = 0;
 
 	private static NovelsDao instance;
 	private static Object lock = new Object();
@@ -64,64 +111,158 @@ public class NovelsDao {
 		}
 	}
 
-	public void deleteDB() {
-		synchronized (dbh) {
-			SQLiteDatabase db = dbh.getWritableDatabase();
-			try{
-				dbh.deletePagesDB(db);
-			}finally{
-				db.close();
+	/**
+	 * Single connection shared by the whole application, opened once and
+	 * never closed by the DAO. Reopening the database for every call is
+	 * expensive and discards the page cache.
+	 */
+	private SQLiteDatabase getDatabase() {
+		synchronized (lock) {
+			if(database == null || !database.isOpen()) {
+				database = dbh.getWritableDatabase();
 			}
+			return database;
+		}
+	}
+
+	/**
+	 * Use another db, so the tests can run on their own file instead of the application data.
+	 * The queued flags are written to the current db before switching.
+	 * @param helper
+	 * @return the previous helper, to be restored afterward
+	 */
+	public DBHelper setDBHelper(DBHelper helper) {
+		flushPendingFlags(true);
+		dbLock.writeLock().lock();
+		try{
+			synchronized (lock) {
+				DBHelper previous = dbh;
+				dbh = helper;
+				// the previous connection is still owned by the previous helper
+				database = null;
+				invalidatePageCache();
+				return previous;
+			}
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	public void deleteDB() {
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache();
+			SQLiteDatabase db = getDatabase();
+			dbh.deletePagesDB(db);
+		}
+		finally{
+			dbLock.writeLock().unlock();
 		}
 	}
 
+	/**
+	 * Get the saved novel list, if expired the list is refreshed in background
+	 * and the changes are sent to the refresh listener, see setRefreshListener().
+	 * Only wait for the download if nothing is saved yet.
+	 */
 	public ArrayList<PageModel> getNovels(ICallbackNotifier notifier) throws Exception {
 		ArrayList<PageModel> list = null;
+		boolean expired = isNovelListExpired();
+
+		if (expired && getNovelCount() == 0) {
+			// get updated main page and novel list from internet
+			list = getNovelsFromInternet(notifier);
+			Log.d(TAG, "Updated Novel List");
+		} else {
+			// get from db
+			list = getSavedNovels();
+			Log.d(TAG, "Found: " + list.size());
+			if(expired) revalidateNovelList();
+		}
+
+		return applyPendingFlags(list);
+	}
+
+	private ArrayList<PageModel> getSavedNovels() {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.getAllNovels(db);//dbh.selectAllByColumn(db, DBHelper.COLUMN_TYPE, PageModel.TYPE_NOVEL);
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get the novel list as cursor for the list screen, the rows are only loaded when needed.
+	 * If the saved list is expired it is refreshed in background, see getNovels().
+	 * Use DBHelper.cursorToNovelListItem() to read the row, caller must close the cursor.
+	 * @param onlyWatched only return watched novels
+	 * @param notifier
+	 * @return novel list cursor
+	 * @throws Exception
+	 */
+	public Cursor getNovelListCursor(boolean onlyWatched, ICallbackNotifier notifier) throws Exception {
+		if (!onlyWatched && isNovelListExpired()) {
+			if(getNovelCount() == 0) {
+				getNovelsFromInternet(notifier);
+				Log.d(TAG, "Updated Novel List");
+			}
+			else {
+				revalidateNovelList();
+			}
+		}
+		return getNovelListCursor(onlyWatched);
+	}
+
+	/**
+	 * Get the saved novel list as cursor, without checking for update.
+	 * The queued flags are written first, don't call from the UI thread.
+	 * @param onlyWatched only return watched novels
+	 * @return novel list cursor
+	 */
+	public Cursor getNovelListCursor(boolean onlyWatched) {
+		// the cursor cannot be overlaid with the queued flags
+		flushPendingFlags(true);
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			Cursor cursor = dbh.getNovelListCursor(db, onlyWatched);
+			// execute the query here instead of on the UI thread
+			Log.d(TAG, "Found: " + cursor.getCount());
+			return cursor;
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+	}
+
+	private boolean isNovelListExpired() {
 		boolean refresh = false;
 		PageModel page = null;
-		SQLiteDatabase db = null;
-		
+
 		// check if main page exist
-		synchronized (dbh) {
-			try{
-				db = dbh.getReadableDatabase();
-				page = dbh.getMainPage(db);
-			}finally{
-				db.close();
-			}
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			page = dbh.getMainPage(db);
+		}
+		finally{
+			dbLock.readLock().unlock();
 		}
 		if (page == null) {
 			refresh = true;
 			Log.d(TAG, "No Main_Page data!");
 		} else {
 			Log.d(TAG, "Found Main_Page (" + page.getLastUpdate().toString() + "), last check: " + page.getLastCheck().toString());
-			// compare if less than 7 day
-			Date today = new Date();
-			long diff = today.getTime() - page.getLastCheck().getTime();
-			if (diff > (Constants.CHECK_INTERVAL * 24 * 3600 * 1000) && LNReaderApplication.getInstance().isOnline()) {
+			if (isDueForCheck(page.getPage(), page.getLastCheck()) && LNReaderApplication.getInstance().isOnline()) {
 				refresh = true;
-				Log.d(TAG, "Last check is over 7 days, checking online status");
+				Log.d(TAG, "Novel list is due for check, checking online status");
 			}
 		}
-
-		if (refresh) {
-			// get updated main page and novel list from internet
-			list = getNovelsFromInternet(notifier);
-			Log.d(TAG, "Updated Novel List");
-		} else {
-			// get from db
-			synchronized (dbh) {
-				try{
-					db = dbh.getReadableDatabase();
-					list = dbh.getAllNovels(db);//dbh.selectAllByColumn(db, DBHelper.COLUMN_TYPE, PageModel.TYPE_NOVEL);
-				}finally{
-					db.close();
-				}
-			}
-			Log.d(TAG, "Found: " + list.size());
-		}
-
-		return list;
+		return refresh;
 	}
 
 	public ArrayList<PageModel> getNovelsFromInternet(ICallbackNotifier notifier) throws Exception {
@@ -133,170 +274,540 @@ public class NovelsDao {
 		
 		PageModel mainPage = new PageModel();
 		mainPage.setPage("Main_Page");
-		mainPage = getPageModel(mainPage, notifier);
+		// the saved one is shared by the page cache
+		mainPage = getPageModel(mainPage, notifier).copy();
 		mainPage.setType(PageModel.TYPE_OTHER);
 		mainPage.setParent("");
 		mainPage.setLastCheck(new Date());
 
 		ArrayList<PageModel> list = null;
-		synchronized (dbh) {
-			SQLiteDatabase db = dbh.getWritableDatabase();
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache(mainPage.getPage());
+			SQLiteDatabase db = getDatabase();
+			mainPage = dbh.insertOrUpdatePageModel(db, mainPage);
+			Log.d(TAG, "Updated Main_Page");
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+
+		// now get the novel list, no lock is held while downloading
+		HttpValidatorModel validator = getHttpValidator(BakaTsukiFetcher.getNovelListUrl());
+		list = BakaTsukiFetcher.fetchNovelList(validator, notifier);
+		recordPageCheck(mainPage.getPage(), getNovelListLastUpdate(list, validator));
+		if(list == null && getNovelCount() == 0) {
+			// not modified, but the saved list is gone
+			validator.clear();
+			list = BakaTsukiFetcher.fetchNovelList(validator, notifier);
+		}
+		if(list != null) {
+			list = mergeNovelList(list, notifier);
+		}
+
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache();
+			SQLiteDatabase db = getDatabase();
+			// saved to db in one transaction
 			try{
-				//db.beginTransaction();
-				mainPage = dbh.insertOrUpdatePageModel(db, mainPage);
-				Log.d(TAG, "Updated Main_Page");
-	
-				// now get the novel list
-				list = new ArrayList<PageModel>();
-				String url = Constants.BASE_URL + "/project";
-				int retry = 0;
-				while(retry < Constants.PAGE_DOWNLOAD_RETRY) {
-					try{
-						Response response = Jsoup.connect(url).timeout(Constants.TIMEOUT).execute();
-						Document doc = response.parse();
-			
-						list = BakaTsukiParser.ParseNovelList(doc);
-						Log.d(TAG, "Found from internet: " + list.size() + " Novels");
+				db.beginTransaction();
+				if(list != null) {
+					list = dbh.insertAllNovel(db, list);
+				}
+				dbh.insertOrUpdateHttpValidator(db, validator);
+				db.setTransactionSuccessful();
+			}
+			finally{
+				db.endTransaction();
+			}
 			
-						// saved to db and get saved value
-						list = dbh.insertAllNovel(db, list);
-						
-						// now get the saved value
-						list = dbh.getAllNovels(db);
-						//db.setTransactionSuccessful();
-						
-						if (notifier != null) {
-							notifier.onCallback(new CallbackEventData("Found: " + list.size() + " novels."));
-						}
-						break;
-					}catch(EOFException eof) {
-						++retry;
-						if(notifier != null) {
-							notifier.onCallback(new CallbackEventData("Retrying: Main_Page (" + retry + " of " + Constants.PAGE_DOWNLOAD_RETRY + ")"));
-						}
-						if(retry > Constants.PAGE_DOWNLOAD_RETRY) throw eof;
-					}
-					catch(IOException eof) {
-						++retry;
-						String message = "Retrying: Main_Page (" + retry + " of " + Constants.PAGE_DOWNLOAD_RETRY + ")";
-						if(notifier != null) {
-							notifier.onCallback(new CallbackEventData(message));
-						}
-						Log.d(TAG, message, eof);
-						if(retry > Constants.PAGE_DOWNLOAD_RETRY) throw eof;
-					}
+			// now get the saved value
+			list = dbh.getAllNovels(db);
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+		
+		if (notifier != null) {
+			notifier.onCallback(new CallbackEventData("Found: " + list.size() + " novels."));
+		}
+		return list;
+	}
+
+	/*
+	 * Update time of the downloaded novel list for the check schedule, null if not modified.
+	 * Use the Last-Modified sent by the server, if not sent the list is only counted as updated
+	 * when the novels are not the same as the saved ones.
+	 */
+	private Date getNovelListLastUpdate(ArrayList<PageModel> list, HttpValidatorModel validator) {
+		if(list == null) return null;
+		Date lastModified = validator.getLastModifiedDate();
+		if(lastModified != null) return lastModified;
+
+		HashSet<String> saved = new HashSet<String>();
+		for(Iterator<PageModel> i = getSavedNovels().iterator(); i.hasNext();) {
+			PageModel novel = i.next();
+			saved.add(novel.getPage() + Constants.NOVEL_BOOK_DIVIDER + novel.getTitle());
+		}
+		HashSet<String> downloaded = new HashSet<String>();
+		for(Iterator<PageModel> i = list.iterator(); i.hasNext();) {
+			PageModel novel = i.next();
+			downloaded.add(novel.getPage() + Constants.NOVEL_BOOK_DIVIDER + novel.getTitle());
+		}
+		return saved.equals(downloaded) ? null : new Date();
+	}
+
+	/*
+	 * Keep the flags and last update of the saved novels, the last update of the new novels
+	 * is taken from the api in batches.
+	 */
+	private ArrayList<PageModel> mergeNovelList(ArrayList<PageModel> list, ICallbackNotifier notifier) {
+		// the saved flags are written back, so the queued changes must be in the db first
+		flushPendingFlags(true);
+		HashMap<String, PageModel> saved = new HashMap<String, PageModel>();
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			for(Iterator<PageModel> i = dbh.getAllNovels(db).iterator(); i.hasNext();) {
+				PageModel page = i.next();
+				saved.put(page.getPage(), page);
+			}
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+
+		ArrayList<PageModel> newNovels = new ArrayList<PageModel>();
+		for(Iterator<PageModel> i = list.iterator(); i.hasNext();) {
+			PageModel page = i.next();
+			PageModel old = saved.get(page.getPage());
+			if(old == null) {
+				newNovels.add(page);
+				continue;
+			}
+			page.setWatched(old.isWatched());
+			page.setFinishedRead(old.isFinishedRead());
+			page.setDownloaded(old.isDownloaded());
+			page.setLastUpdate(old.getLastUpdate());
+		}
+		Log.d(TAG, "Saved novels: " + saved.size() + ", new novels: " + newNovels.size());
+
+		if(!newNovels.isEmpty()) {
+			try {
+				ArrayList<PageModel> infos = fetchPageInfos(newNovels, notifier);
+				for(int i = 0; i < newNovels.size(); ++i) {
+					if(infos.get(i) != null) newNovels.get(i).setLastUpdate(infos.get(i).getLastUpdate());
 				}
-			}finally{
-				//db.endTransaction();
-				db.close();
+			} catch (Exception e) {
+				// keep the min value, same as never opened
+				Log.e(TAG, "Error when getting last update of new novels", e);
 			}
 		}
 		return list;
 	}
 
+	private int getNovelCount() {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.getNovelCount(db);
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+	}
+
 	public ArrayList<PageModel> getWatchedNovel() {
 		ArrayList<PageModel> watchedNovel = null;
-		synchronized (dbh) {
-			SQLiteDatabase db = dbh.getReadableDatabase();
-			try{
-				watchedNovel = dbh.selectAllByColumn(db, DBHelper.COLUMN_IS_WATCHED + " = ? and " + DBHelper.COLUMN_PARENT + " = ?", new String[] {"1", "Main_Page"});
-			}finally{
-				db.close();
-			}			
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			watchedNovel = dbh.selectAllByColumn(db, DBHelper.COLUMN_IS_WATCHED + " = ? and " + DBHelper.COLUMN_PARENT + " = ?", new String[] {"1", "Main_Page"});
+		}
+		finally{
+			dbLock.readLock().unlock();
 		}
 		return watchedNovel;
 	}
 
 	public PageModel getPageModel(PageModel page, ICallbackNotifier notifier) throws Exception {
-		PageModel pageModel = null;
-		synchronized (dbh) {
-			SQLiteDatabase db = dbh.getReadableDatabase();
+		PageModel pageModel = getCachedPageModel(page.getPage());
+		if(pageModel == null) {
+			long generation = getPageCacheGeneration();
+			dbLock.readLock().lock();
 			try{
+				SQLiteDatabase db = getDatabase();
 				pageModel = dbh.getPageModel(db, page.getPage());
-			}finally{
-				db.close();
 			}
+			finally{
+				dbLock.readLock().unlock();
+			}
+			putCachedPageModel(page.getPage(), pageModel, generation);
 		}
+		pageModel = copyWithPendingFlags(pageModel);
 		if (pageModel == null) {
 			pageModel = getPageModelFromInternet(page, notifier);
 		}
 		return pageModel;
 	}
 
+	/*
+	 * Identity map for getPageModel(), the same instance is returned until the page is written through the DAO,
+	 * or a copy if the page has queued flags.
+	 * The generation is increased on every invalidation, so a value read before the write is not cached.
+	 */
+	
+	private PageModel getCachedPageModel(String page) {
+		synchronized (pageCache) {
+			PageModel pageModel = pageCache.get(page);
+			if(pageModel != null) ++pageCacheHits;
+			else ++pageCacheMisses;
+			return pageModel;
+		}
+	}
+	
+	private long getPageCacheGeneration() {
+		synchronized (pageCache) {
+			return pageCacheGeneration;
+		}
+	}
+	
+	private void putCachedPageModel(String page, PageModel pageModel, long generation) {
+		if(pageModel == null) return;
+		synchronized (pageCache) {
+			if(generation != pageCacheGeneration) return;
+			pageCache.put(page, pageModel);
+			if(!page.equals(pageModel.getPage())) {
+				pageCache.put(pageModel.getPage(), pageModel);
+			}
+		}
+	}
+	
+	private void invalidatePageCache(String page) {
+		synchronized (pageCache) {
+			++pageCacheGeneration;
+			pageCache.remove(page);
+			// also remove the entries cached using other case
+			for(Iterator<PageModel> i = pageCache.values().iterator(); i.hasNext();) {
+				if(i.next().getPage().equals(page)) i.remove();
+			}
+		}
+	}
+	
+	private void invalidatePageCache() {
+		synchronized (pageCache) {
+			++pageCacheGeneration;
+			pageCache.clear();
+		}
+	}
+	
+	public long getPageCacheHits() {
+		synchronized (pageCache) {
+			return pageCacheHits;
+		}
+	}
+	
+	public long getPageCacheMisses() {
+		synchronized (pageCache) {
+			return pageCacheMisses;
+		}
+	}
+	
 	public PageModel getPageModelFromInternet(PageModel page, ICallbackNotifier notifier) throws Exception {
 		if(!LNReaderApplication.getInstance().isOnline()) throw new Exception("No Network Connectifity");
-		Log.d(TAG, "PageModel = " + page.getPage());
+		PageModel pageModel = BakaTsukiFetcher.fetchPageInfo(page, notifier);
+		recordPageCheck(pageModel.getPage(), pageModel.getLastUpdate());
+		pageModel.setFinishedRead(page.isFinishedRead());
+		pageModel.setWatched(page.isWatched());
 		
-		int retry = 0;
-		while(retry < Constants.PAGE_DOWNLOAD_RETRY) {
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache(pageModel.getPage());
+			// save to db and get saved value
+			SQLiteDatabase db = getDatabase();
+			pageModel = dbh.insertOrUpdatePageModel(db, pageModel);
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+		return pageModel;
+	}
+
+	/**
+	 * Batched getPageModelFromInternet(), only the last update time is refreshed.
+	 * Up to Constants.API_TITLE_BATCH_SIZE pages are checked per request,
+	 * and all the results are saved in one transaction.
+	 * @param pages
+	 * @param notifier
+	 * @return updated pages in the same order, null if the page is not found in the wiki
+	 * @throws Exception
+	 */
+	public ArrayList<PageModel> getPageModelsFromInternet(List<PageModel> pages, ICallbackNotifier notifier) throws Exception {
+		if(!LNReaderApplication.getInstance().isOnline()) throw new Exception("No Network Connectifity");
+		// no lock is held while downloading
+		ArrayList<PageModel> result = fetchPageInfos(pages, notifier);
+
+		ArrayList<PageModel> found = new ArrayList<PageModel>();
+		Date now = new Date();
+		for(Iterator<PageModel> i = result.iterator(); i.hasNext();) {
+			PageModel page = i.next();
+			if(page == null) continue;
+			page.setLastCheck(now);
+			found.add(page);
+		}
+
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache();
+			SQLiteDatabase db = getDatabase();
 			try{
-				Response response = Jsoup.connect("http://www.baka-tsuki.org/project/api.php?action=query&prop=info&format=xml&titles=" + page.getPage()).timeout(Constants.TIMEOUT).execute();
-				PageModel pageModel = BakaTsukiParser.parsePageAPI(page, response.parse());
-				pageModel.setFinishedRead(page.isFinishedRead());
-				pageModel.setWatched(page.isWatched());
-				
-				synchronized (dbh) {
-					// save to db and get saved value
-					SQLiteDatabase db = dbh.getWritableDatabase();
-					try{
-						pageModel = dbh.insertOrUpdatePageModel(db, pageModel);
-					}finally{
-						db.close();
-					}
-				}
-				return pageModel;
-			}catch(EOFException eof) {
-				++retry;
-				if(notifier != null) {
-					notifier.onCallback(new CallbackEventData("Retrying: " + page + " (" + retry + " of " + Constants.PAGE_DOWNLOAD_RETRY + ")"));
-				}
-				if(retry > Constants.PAGE_DOWNLOAD_RETRY) throw eof;
+				db.beginTransaction();
+				dbh.updatePageLastUpdate(db, found);
+				db.setTransactionSuccessful();
 			}
-			catch(IOException eof) {
-				++retry;
-				String message = "Retrying: " + page + " (" + retry + " of " + Constants.PAGE_DOWNLOAD_RETRY + ")";
-				if(notifier != null) {
-					notifier.onCallback(new CallbackEventData(message));
-				}
-				Log.d(TAG, message, eof);
-				if(retry > Constants.PAGE_DOWNLOAD_RETRY) throw eof;
+			finally{
+				db.endTransaction();
 			}
+
+			// get the saved value, page not in db yet is returned as is
+			for(int i = 0; i < result.size(); ++i) {
+				if(result.get(i) == null) continue;
+				PageModel saved = dbh.getPageModel(db, result.get(i).getPage());
+				if(saved != null) result.set(i, saved);
+			}
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+		return applyPendingFlags(result);
+	}
+
+	/*
+	 * Page info from the api in batches of API_TITLE_BATCH_SIZE, only the update schedule is saved.
+	 */
+	ArrayList<PageModel> fetchPageInfos(List<PageModel> pages, ICallbackNotifier notifier) throws Exception {
+		ArrayList<PageModel> result = new ArrayList<PageModel>();
+		for(int i = 0; i < pages.size(); i += Constants.API_TITLE_BATCH_SIZE) {
+			List<PageModel> batch = pages.subList(i, Math.min(i + Constants.API_TITLE_BATCH_SIZE, pages.size()));
+			if(notifier != null) {
+				notifier.onCallback(new CallbackEventData("Checking page info: " + (i + batch.size()) + " of " + pages.size()));
+			}
+			result.addAll(BakaTsukiFetcher.fetchPageInfo(batch, notifier));
 		}
-		return null;
+		recordPageChecks(result);
+		return result;
 	}
 
 	public PageModel updatePageModel(PageModel page) {
 		PageModel pageModel = null;
-		synchronized (dbh) {
-			SQLiteDatabase db = dbh.getWritableDatabase();
+		// queued flags are newer than the ones in the model
+		applyPendingFlags(page);
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache(page.getPage());
+			SQLiteDatabase db = getDatabase();
+			pageModel = dbh.insertOrUpdatePageModel(db, page);
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+		return pageModel;
+	}
+	
+	/*
+	 * Write-behind for the small flag changes from the UI.
+	 * The flag is set on the model right away, the db is updated later
+	 * in one transaction on the background thread.
+	 */
+	
+	public void setWatched(PageModel page, boolean isWatched) {
+		page.setWatched(isWatched);
+		PageFlagModel change = new PageFlagModel(page.getPage());
+		change.setWatched(isWatched);
+		queuePageFlags(change);
+	}
+	
+	public void setFinishedRead(PageModel page, boolean isFinishedRead) {
+		page.setFinishedRead(isFinishedRead);
+		PageFlagModel change = new PageFlagModel(page.getPage());
+		change.setFinishedRead(isFinishedRead);
+		queuePageFlags(change);
+	}
+	
+	private void queuePageFlags(PageFlagModel change) {
+		synchronized (pendingFlags) {
+			PageFlagModel pending = pendingFlags.get(change.getPage());
+			if(pending == null) {
+				pendingFlags.put(change.getPage(), change);
+			}
+			else {
+				pending.merge(change);
+			}
+			if(scheduledFlush == null) {
+				scheduledFlush = flushExecutor.schedule(new Runnable() {
+					public void run() {
+						flushPendingFlags(true);
+					}
+				}, FLUSH_DELAY, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	/**
+	 * Save the queued flag changes, for Activity.onPause().
+	 * Before Honeycomb the process can be killed right after onPause(),
+	 * so the changes are written before returning.
+	 */
+	public void flushPendingFlags() {
+		flushPendingFlags(Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB);
+	}
+	
+	/**
+	 * Save the queued flag changes.
+	 * Must be called from onPause() and when the process is about to be trimmed.
+	 * @param wait true to write in the calling thread, false to write on the background thread
+	 */
+	public void flushPendingFlags(boolean wait) {
+		if(!wait) {
+			flushExecutor.execute(new Runnable() {
+				public void run() {
+					flushPendingFlags(true);
+				}
+			});
+			return;
+		}
+		
+		synchronized (flushLock) {
+			HashMap<String, PageFlagModel> changes = null;
+			synchronized (pendingFlags) {
+				if(scheduledFlush != null) {
+					scheduledFlush.cancel(false);
+					scheduledFlush = null;
+				}
+				if(pendingFlags.isEmpty()) return;
+				// keep it visible to the readers until it is committed
+				changes = new HashMap<String, PageFlagModel>(pendingFlags);
+				flushingFlags = changes;
+				pendingFlags.clear();
+			}
+			
+			boolean success = false;
+			dbLock.writeLock().lock();
 			try{
-				pageModel = dbh.insertOrUpdatePageModel(db, page);
+				// the cached pages don't have the queued flags, see copyWithPendingFlags()
+				invalidatePageCache();
+				SQLiteDatabase db = getDatabase();
+				try{
+					db.beginTransaction();
+					dbh.updatePageFlags(db, changes.values());
+					db.setTransactionSuccessful();
+					success = true;
+				}
+				finally{
+					db.endTransaction();
+				}
+			}
+			catch(Exception ex) {
+				Log.e(TAG, "Failed to save page flags: " + changes.size(), ex);
 			}
 			finally{
-				db.close();
+				dbLock.writeLock().unlock();
+				synchronized (pendingFlags) {
+					flushingFlags = null;
+					if(!success) {
+						// put back, changes queued in the meantime are newer
+						for(Iterator<PageFlagModel> i = changes.values().iterator(); i.hasNext();) {
+							PageFlagModel change = i.next();
+							PageFlagModel newer = pendingFlags.get(change.getPage());
+							if(newer != null) change.merge(newer);
+							pendingFlags.put(change.getPage(), change);
+						}
+					}
+				}
 			}
 		}
-		return pageModel;
+	}
+	
+	/**
+	 * Overlay the queued flag changes not written to db yet,
+	 * e.g. on a row read from getNovelListCursor().
+	 * @param page
+	 * @return the same page
+	 */
+	public PageModel applyPendingFlags(PageModel page) {
+		if(page == null) return null;
+		synchronized (pendingFlags) {
+			if(flushingFlags != null) {
+				PageFlagModel change = flushingFlags.get(page.getPage());
+				if(change != null) change.applyTo(page);
+			}
+			PageFlagModel change = pendingFlags.get(page.getPage());
+			if(change != null) change.applyTo(page);
+		}
+		return page;
+	}
+	
+	/*
+	 * Same as applyPendingFlags(), but the changes are applied to a copy,
+	 * for the instance shared through the page cache.
+	 */
+	private PageModel copyWithPendingFlags(PageModel page) {
+		if(page == null) return null;
+		synchronized (pendingFlags) {
+			PageFlagModel flushing = flushingFlags != null ? flushingFlags.get(page.getPage()) : null;
+			PageFlagModel change = pendingFlags.get(page.getPage());
+			if(flushing == null && change == null) return page;
+			page = page.copy();
+			if(flushing != null) flushing.applyTo(page);
+			if(change != null) change.applyTo(page);
+		}
+		return page;
+	}
+	
+	private ArrayList<PageModel> applyPendingFlags(ArrayList<PageModel> pages) {
+		if(pages == null) return null;
+		synchronized (pendingFlags) {
+			if(pendingFlags.isEmpty() && flushingFlags == null) return pages;
+		}
+		for(Iterator<PageModel> i = pages.iterator(); i.hasNext();) {
+			applyPendingFlags(i.next());
+		}
+		return pages;
+	}
+	
+	private void applyPendingFlags(NovelCollectionModel novel) {
+		try {
+			// already loaded by getNovelDetails()
+			applyPendingFlags(novel.getPageModel());
+		} catch (Exception e) {
+			Log.w(TAG, "Failed to get novel page: " + novel.getPage(), e);
+		}
+		if(novel.getBookCollections() == null) return;
+		for(Iterator<BookModel> i = novel.getBookCollections().iterator(); i.hasNext();) {
+			BookModel book = i.next();
+			// chapters are already loaded by the join, don't trigger lazy loading
+			applyPendingFlags(book.getLoadedChapterCollection());
+		}
 	}
 	
 	/*
 	 * NovelCollectionModel
 	 */
 
+	/**
+	 * Get the saved novel details, if expired the details are refreshed in background
+	 * and sent to the refresh listener, see setRefreshListener().
+	 * Only wait for the download if nothing is saved yet.
+	 */
 	public NovelCollectionModel getNovelDetails(PageModel page, ICallbackNotifier notifier) throws Exception {
 		boolean refresh = false;
-		NovelCollectionModel novel = null;
-		synchronized (dbh) {
-			SQLiteDatabase db = dbh.getReadableDatabase();
-			try{
-				novel = dbh.getNovelDetails(db, page.getPage());
-			}
-			finally{
-				db.close();
-			}
-		}
+		NovelCollectionModel novel = getSavedNovelDetails(page.getPage());
 		if (novel != null) {
-			// TODO: add check to refresh
+			applyPendingFlags(novel);
+			if(isNovelDetailsExpired(novel)) {
+				revalidateNovelDetails(page);
+			}
 		} else {
 			refresh = true;
 		}
@@ -308,134 +819,247 @@ public class NovelsDao {
 		return novel;
 	}
 
+	private NovelCollectionModel getSavedNovelDetails(String page) {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.getNovelDetails(db, page);
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+	}
+
+	private boolean isNovelDetailsExpired(NovelCollectionModel novel) {
+		if(!LNReaderApplication.getInstance().isOnline()) return false;
+		return isDueForCheck(novel.getPage(), novel.getLastCheck());
+	}
+
 	public NovelCollectionModel getNovelDetailsFromInternet(PageModel page, ICallbackNotifier notifier) throws Exception {
 		if(!LNReaderApplication.getInstance().isOnline()) throw new Exception("No Network Connectifity");
-		Log.d(TAG, "Getting Novel Details from internet: " + page.getPage());
-		NovelCollectionModel novel = null;
+		// the caller's page might be the cached instance, don't change it
+		page = page.copy();
+		HttpValidatorModel validator = getHttpValidator(BakaTsukiFetcher.getNovelDetailsUrl(page));
+		NovelCollectionModel novel = BakaTsukiFetcher.fetchNovelDetails(page, validator, notifier);
+		boolean notModified = novel == null;
+		if(notModified) {
+			novel = getSavedNovelDetails(page.getPage());
+			if(novel != null) {
+				applyPendingFlags(novel);
+			}
+			else {
+				// the saved copy is gone, get the full page
+				validator.clear();
+				novel = BakaTsukiFetcher.fetchNovelDetails(page, validator, notifier);
+				notModified = false;
+			}
+		}
 		
-		int retry = 0;
-		while(retry < Constants.PAGE_DOWNLOAD_RETRY) {
+		// Novel details' Page Model
+		page.setParent("Main_Page"); // insurance
+		// get the last update time from internet
+		PageModel novelPageTemp = getPageModelFromInternet(page, notifier);
+		if(novelPageTemp != null) {
+			page.setLastUpdate(novelPageTemp.getLastUpdate());
+			page.setLastCheck(new Date());
+			novel.setLastUpdate(novelPageTemp.getLastUpdate());
+			novel.setLastCheck(new Date());
+		}
+		else {
+			page.setLastUpdate(new Date(0));
+			page.setLastCheck(new Date());
+			novel.setLastUpdate(new Date(0));
+			novel.setLastCheck(new Date());
+		}
+		// save the changes
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache(page.getPage());
+			SQLiteDatabase db = getDatabase();
+			page = dbh.insertOrUpdatePageModel(db, page);
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache();
+			// insert to DB and get saved value
+			SQLiteDatabase db = getDatabase();
 			try{
-				Response response = Jsoup.connect(Constants.BASE_URL + "/project/index.php?title=" + page.getPage()).timeout(Constants.TIMEOUT).execute();
-				Document doc = response.parse();
-				novel = BakaTsukiParser.ParseNovelDetails(doc, page);
-			}catch(EOFException eof) {
-				++retry;
-				if(notifier != null) {
-					notifier.onCallback(new CallbackEventData("Retrying: " + page.getPage() + " (" + retry + " of " + Constants.PAGE_DOWNLOAD_RETRY + ")"));
+				db.beginTransaction();
+				// nothing changed on the page, only the check time and the validator is updated
+				if(notModified) {
+					dbh.updateNovelDetailsLastCheck(db, page.getPage(), novel.getLastCheck());
 				}
-				if(retry > Constants.PAGE_DOWNLOAD_RETRY) throw eof;
-			}
-			catch(IOException eof) {
-				++retry;
-				String message = "Retrying: " + page.getPage() + " (" + retry + " of " + Constants.PAGE_DOWNLOAD_RETRY + ")";
-				if(notifier != null) {
-					notifier.onCallback(new CallbackEventData(message));
+				else {
+					novel = dbh.insertNovelDetails(db, novel);
 				}
-				Log.d(TAG, message, eof);
-				if(retry > Constants.PAGE_DOWNLOAD_RETRY) throw eof;
+				dbh.insertOrUpdateHttpValidator(db, validator);
+				db.setTransactionSuccessful();
 			}
-			
-			// Novel details' Page Model
-			if(novel != null){
-				page.setParent("Main_Page"); // insurance
-				// get the last update time from internet
-				PageModel novelPageTemp = getPageModelFromInternet(page, notifier);
-				if(novelPageTemp != null) {
-					page.setLastUpdate(novelPageTemp.getLastUpdate());
-					page.setLastCheck(new Date());
-					novel.setLastUpdate(novelPageTemp.getLastUpdate());
-					novel.setLastCheck(new Date());
-				}
-				else {
-					page.setLastUpdate(new Date(0));
-					page.setLastCheck(new Date());
-					novel.setLastUpdate(new Date(0));
-					novel.setLastCheck(new Date());
+			finally{
+				db.endTransaction();
+			}
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+		Log.d(TAG, "Complete getting Novel Details from internet: " + page.getPage());
+		return novel;
+	}
+
+	/*
+	 * Background refresh
+	 */
+
+	/**
+	 * Receive a RefreshCallbackEventData when the background refresh of the novel list
+	 * or novel details is saved. Called from the background thread, set to null when the activity is paused.
+	 */
+	public void setRefreshListener(ICallbackNotifier listener) {
+		refreshListener = listener;
+	}
+
+	private void revalidateNovelList() {
+		revalidate("Main_Page", new Callable<RefreshCallbackEventData>() {
+			public RefreshCallbackEventData call() throws Exception {
+				// might be refreshed in the mean time
+				if(!isNovelListExpired()) return null;
+				ArrayList<PageModel> oldList = getSavedNovels();
+				ArrayList<PageModel> newList = getNovelsFromInternet(null);
+				RefreshCallbackEventData event = new RefreshCallbackEventData("Main_Page");
+				diffPages(oldList, newList, event);
+				return event;
+			}
+		});
+	}
+
+	private void revalidateNovelDetails(final PageModel page) {
+		revalidate(page.getPage(), new Callable<RefreshCallbackEventData>() {
+			public RefreshCallbackEventData call() throws Exception {
+				NovelCollectionModel oldNovel = getSavedNovelDetails(page.getPage());
+				// might be refreshed in the mean time, e.g. by UpdateService
+				if(oldNovel == null || !isNovelDetailsExpired(oldNovel)) return null;
+				// use own copy, the caller's page is not touched from this thread
+				PageModel novelPage = oldNovel.getPageModel() != null ? oldNovel.getPageModel() : page;
+				NovelCollectionModel newNovel = getNovelDetailsFromInternet(novelPage, null);
+				applyPendingFlags(newNovel);
+				RefreshCallbackEventData event = new RefreshCallbackEventData(page.getPage());
+				event.setNovelDetails(newNovel);
+				diffPages(oldNovel.getFlattedChapterList(), newNovel.getFlattedChapterList(), event);
+				return event;
+			}
+		});
+	}
+
+	/*
+	 * Run the refresh once per page, the result is sent to the refresh listener.
+	 */
+	private void revalidate(final String page, final Callable<RefreshCallbackEventData> refresh) {
+		synchronized (revalidating) {
+			if(!revalidating.add(page)) return;
+		}
+		Log.d(TAG, "Refreshing in background: " + page);
+		revalidateExecutor.execute(new Runnable() {
+			public void run() {
+				try{
+					RefreshCallbackEventData event = refresh.call();
+					if(event == null) return;
+					Log.d(TAG, "Refreshed " + page + ": " + event.getMessage());
+					ICallbackNotifier listener = refreshListener;
+					if(listener != null) listener.onCallback(event);
 				}
-				// save the changes
-				synchronized (dbh) {
-					SQLiteDatabase db = dbh.getWritableDatabase();
-					try{
-						page = dbh.insertOrUpdatePageModel(db, page);
-					}
-					finally{
-						db.close();
-					}
+				catch(Exception ex) {
+					// the saved copy is still shown, try again on the next load
+					Log.e(TAG, "Background refresh failed: " + page, ex);
 				}
-
-				synchronized (dbh) {
-					// insert to DB and get saved value
-					SQLiteDatabase db = dbh.getWritableDatabase();
-					try{
-						db.beginTransaction();
-						novel = dbh.insertNovelDetails(db, novel);
-						db.setTransactionSuccessful();
-					}
-					finally{
-						db.endTransaction();
-						db.close();
+				finally{
+					synchronized (revalidating) {
+						revalidating.remove(page);
 					}
 				}
-				// download cover image
-				if (novel.getCoverUrl() != null) {
-					DownloadFileTask task = new DownloadFileTask(notifier);
-					ImageModel image = task.downloadImage(novel.getCoverUrl());
-					// TODO: need to save to db?
-					Log.d("Image", image.toString());
-				}
+			}
+		});
+	}
 
-				Log.d(TAG, "Complete getting Novel Details from internet: " + page.getPage());
-				break;
+	private static void diffPages(List<PageModel> oldPages, List<PageModel> newPages, RefreshCallbackEventData event) {
+		HashMap<String, PageModel> old = new HashMap<String, PageModel>();
+		for(Iterator<PageModel> i = oldPages.iterator(); i.hasNext();) {
+			PageModel page = i.next();
+			old.put(page.getPage(), page);
+		}
+		for(Iterator<PageModel> i = newPages.iterator(); i.hasNext();) {
+			PageModel page = i.next();
+			PageModel oldPage = old.remove(page.getPage());
+			if(oldPage == null) {
+				event.getAdded().add(page);
+			}
+			else if(page.getLastUpdate() != null && !page.getLastUpdate().equals(oldPage.getLastUpdate())) {
+				event.getUpdated().add(page);
 			}
 		}
-		return novel;
+		event.getRemoved().addAll(old.values());
 	}
 
 
 	public void deleteBooks(BookModel bookDel) {
-		synchronized (dbh) {
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache();
 			// get from db
-			SQLiteDatabase db = dbh.getReadableDatabase();
-			try{
-				BookModel tempBook = dbh.getBookModel(db, bookDel.getId());
-				if(tempBook != null) {
-					dbh.deleteBookModel(db, tempBook);
-				}
-			}
-			finally{
-				db.close();
+			SQLiteDatabase db = getDatabase();
+			BookModel tempBook = dbh.getBookModel(db, bookDel.getId());
+			if(tempBook != null) {
+				dbh.deleteBookModel(db, tempBook);
 			}
 		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
 	}
 	
 
 	public void deletePage(PageModel page) {
-		synchronized (dbh) {
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache();
 			// get from db
-			SQLiteDatabase db = dbh.getReadableDatabase();
-			try{
-				PageModel tempPage = dbh.getPageModel(db, page.getId());
-				if(tempPage != null) {
-					dbh.deletePageModel(db, tempPage);
-				}
-			}
-			finally{
-				db.close();
+			SQLiteDatabase db = getDatabase();
+			PageModel tempPage = dbh.getPageModel(db, page.getId());
+			if(tempPage != null) {
+				dbh.deletePageModel(db, tempPage);
 			}
 		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
 	}
 	
 	public ArrayList<PageModel> getChapterCollection(String page, String title, BookModel book) {
-		synchronized (dbh) {
+		dbLock.readLock().lock();
+		try{
 			// get from db
-			SQLiteDatabase db = dbh.getReadableDatabase();
-			try{
-				return dbh.getChapterCollection(db, page + Constants.NOVEL_BOOK_DIVIDER + title, book);
-			}
-			finally{
-				db.close();
+			SQLiteDatabase db = getDatabase();
+			if(book != null && book.getId() > 0) {
+				return applyPendingFlags(dbh.getChapterCollection(db, book.getId(), book));
 			}
+			return applyPendingFlags(dbh.getChapterCollection(db, page + Constants.NOVEL_BOOK_DIVIDER + title, book));
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+	}
+	
+	public PageModel getNovelPageByBookId(int bookId) {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.getNovelPageByBookId(db, bookId);
+		}
+		finally{
+			dbLock.readLock().unlock();
 		}
 	}
 	
@@ -446,15 +1070,14 @@ public class NovelsDao {
 	public NovelContentModel getNovelContent(PageModel page, ICallbackNotifier notifier) throws Exception {
 		NovelContentModel content = null;
 
-		synchronized (dbh) {
+		dbLock.readLock().lock();
+		try{
 			// get from db
-			SQLiteDatabase db = dbh.getReadableDatabase();
-			try{
-				content = dbh.getNovelContent(db, page.getPage());
-			}
-			finally{
-				db.close();
-			}
+			SQLiteDatabase db = getDatabase();
+			content = dbh.getNovelContent(db, page.getPage());
+		}
+		finally{
+			dbLock.readLock().unlock();
 		}
 		// get from Internet;
 		if (content == null) {
@@ -466,90 +1089,116 @@ public class NovelsDao {
 	}
 
 	public NovelContentModel getNovelContentFromInternet(PageModel page, ICallbackNotifier notifier) throws Exception {
+		ArrayList<PageModel> pages = new ArrayList<PageModel>();
+		pages.add(page);
+		return getNovelContentsFromInternet(pages, notifier)[0];
+	}
+
+	/**
+	 * Download the chapters and the images in parallel, see ChapterDownloader.
+	 * @param pages
+	 * @param notifier receive the aggregated progress
+	 * @return saved content in the same order
+	 * @throws Exception first error, the other chapters are still saved
+	 */
+	public NovelContentModel[] getNovelContentsFromInternet(List<PageModel> pages, ICallbackNotifier notifier) throws Exception {
 		if(!LNReaderApplication.getInstance().isOnline()) throw new Exception("No Network Connectifity");
-		
-		String oldTitle = page.getTitle();
-		
-		NovelContentModel content = new NovelContentModel();
-		int retry = 0;
-		while(retry < Constants.PAGE_DOWNLOAD_RETRY) {
-			try{
-				Response response = Jsoup.connect(Constants.BASE_URL + "/project/api.php?action=parse&format=xml&prop=text|images&page=" + page.getPage()).timeout(Constants.TIMEOUT).execute();
-				Document doc = response.parse();
-
-				content = BakaTsukiParser.ParseNovelContent(doc, page);
-				break;
-			}catch(EOFException eof) {
-				++retry;
-				if(notifier != null) {
-					notifier.onCallback(new CallbackEventData("Retrying: " + page.getPage() + " (" + retry + " of " + Constants.PAGE_DOWNLOAD_RETRY + ")"));
-				}
-				if(retry > Constants.PAGE_DOWNLOAD_RETRY) throw eof;
-			}
-			catch(IOException eof) {
-				++retry;
-				String message = "Retrying: " + page.getPage() + " (" + retry + " of " + Constants.PAGE_DOWNLOAD_RETRY + ")";
-				if(notifier != null) {
-					notifier.onCallback(new CallbackEventData(message));
-				}
-				Log.d(TAG, message, eof);
-				if(retry > Constants.PAGE_DOWNLOAD_RETRY) throw eof;
-			}
+		ChapterDownloader downloader = new ChapterDownloader(this, notifier, Constants.DOWNLOAD_THREADS);
+		return downloader.download(pages);
+	}
+
+	NovelContentModel getSavedNovelContent(PageModel page) {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.getNovelContent(db, page.getPage());
 		}
-		// download all attached images
-		DownloadFileTask task = new DownloadFileTask(notifier);
-		for (Iterator<ImageModel> i = content.getImages().iterator(); i.hasNext();) {
-			ImageModel image = i.next();
-			
-			if(notifier != null) {
-				notifier.onCallback(new CallbackEventData("Start downloading: " + image.getUrl()));
-			}
-			image = task.downloadImage(image.getUrl());
-			// TODO: need to save image to db? mostly thumbnail only
+		finally{
+			dbLock.readLock().unlock();
 		}
-		
-		// get last updated info
-		
-		PageModel contentPageModelTemp = getPageModelFromInternet(content.getPageModel(), notifier);
-		if(contentPageModelTemp != null) {
-			// overwrite the old title
-			content.getPageModel().setTitle(oldTitle);
-			//syncronize the date
-			content.getPageModel().setLastUpdate(contentPageModelTemp.getLastUpdate());
-			content.getPageModel().setLastCheck(new Date());
-			content.setLastUpdate(contentPageModelTemp.getLastUpdate());
-			content.setLastCheck(new Date());
-		}		
-		// page model will be also saved in insertNovelContent()
-		
-		synchronized (dbh) {
+	}
+
+	/*
+	 * Save the downloaded content with its validator, used by ChapterDownloader.
+	 * The page model will be also saved in insertNovelContent().
+	 * The content file replaced by a big chapter is deleted only after the commit,
+	 * so the saved row always points to an existing file.
+	 */
+	NovelContentModel saveNovelContent(NovelContentModel content, HttpValidatorModel validator, boolean notModified) throws Exception {
+		dbLock.writeLock().lock();
+		try{
+			invalidatePageCache(content.getPage());
 			// save to DB, and get the saved value
-			SQLiteDatabase db = dbh.getWritableDatabase();
+			SQLiteDatabase db = getDatabase();
+			String oldPath = null;
+			NovelContentModel saved = null;
+			boolean committed = false;
 			try{
-				// TODO: somehow using transaction cause problem...
 				db.beginTransaction();
-				content = dbh.insertNovelContent(db, content);
-				db.setTransactionSuccessful();
+				try{
+					if(notModified) {
+						// keep the saved content, only update the check time
+						dbh.insertOrUpdatePageModel(db, content.getPageModel());
+					}
+					else {
+						oldPath = dbh.getNovelContentPath(db, content.getPage());
+						saved = dbh.insertNovelContent(db, content);
+						content = saved;
+					}
+					if(validator != null) dbh.insertOrUpdateHttpValidator(db, validator);
+					db.setTransactionSuccessful();
+				}
+				finally{
+					db.endTransaction();
+				}
+				committed = true;
 			}
 			finally{
-				db.endTransaction();
-				db.close();
+				String newPath = saved != null ? saved.getContentPath() : null;
+				if(committed) {
+					if(oldPath != null && !oldPath.equals(newPath)) ChapterFileStore.delete(oldPath);
+				}
+				else if(newPath != null && !newPath.equals(oldPath)) {
+					ChapterFileStore.delete(newPath);
+				}
 			}
 		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
 		return content;
 	}
 
 	public NovelContentModel updateNovelContent(NovelContentModel content) throws Exception {
-		synchronized (dbh) {
-			SQLiteDatabase db = dbh.getWritableDatabase();
-			try{
-				content = dbh.insertNovelContent(db, content);
-			}
-			finally{
-				db.close();
-			}
+		return saveNovelContent(content, null, false);
+	}
+
+	public void updateReadingPosition(NovelContentModel content) {
+		dbLock.writeLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			dbh.updateReadingPosition(db, content);
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Search the downloaded chapters.
+	 * @param query search words, using sqlite full text MATCH syntax
+	 * @param limit max result
+	 * @return matched chapters with snippet and offset
+	 */
+	public ArrayList<SearchResultModel> searchNovelContent(String query, int limit) {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.searchNovelContent(db, query, limit);
+		}
+		finally{
+			dbLock.readLock().unlock();
 		}
-		return content;
 	}
 
 	/*
@@ -560,20 +1209,19 @@ public class NovelsDao {
 		
 		
 		ImageModel image = null;
-		synchronized (dbh) {
-			SQLiteDatabase db = dbh.getReadableDatabase();
-			try{
-				image = dbh.getImage(db, page);
-	
-				if (image == null) {
-					Log.d(TAG, "Image not found, might need to check by referer: " + page);
-					image = dbh.getImageByReferer(db, page);
-				}
-			}
-			finally{
-				db.close();
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			image = dbh.getImage(db, page);
+
+			if (image == null) {
+				Log.d(TAG, "Image not found, might need to check by referer: " + page);
+				image = dbh.getImageByReferer(db, page);
 			}
 		}
+		finally{
+			dbLock.readLock().unlock();
+		}
 		if (image == null) {
 			Log.d(TAG, "Image not found, getting data from internet: " + page);
 			image = getImageModelFromInternet(page, notifier);
@@ -583,57 +1231,262 @@ public class NovelsDao {
 
 	public ImageModel getImageModelFromInternet(String page, ICallbackNotifier notifier) throws Exception {
 		if(!LNReaderApplication.getInstance().isOnline()) throw new Exception("No Network Connectifity");
-		ImageModel image = null;
-		String url = page;
-		if (!url.startsWith("http"))
-			url = Constants.BASE_URL + url;
-		
-		if(notifier != null) {
-			notifier.onCallback(new CallbackEventData("Parsing File Page: " + url));
+		ImageModel image = BakaTsukiFetcher.fetchImage(page, notifier);
+
+		dbLock.writeLock().lock();
+		try{
+			// save to db and get the saved value
+			SQLiteDatabase db = getDatabase();
+			image = dbh.insertImage(db, image);
 		}
-		
-		int retry = 0;
-		while(retry < Constants.IMAGE_DOWNLOAD_RETRY) {
+		finally{
+			dbLock.writeLock().unlock();
+		}
+		return image;
+	}
+
+	/*
+	 * HttpValidatorModel
+	 */
+
+	HttpValidatorModel getHttpValidator(String url) {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.getHttpValidator(db, url);
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return total bytes not downloaded because the page was not modified
+	 */
+	public long getHttpBytesSaved() {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.getHttpBytesSaved(db);
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * PageScheduleModel
+	 */
+
+	/**
+	 * @return null if the page is never checked
+	 */
+	public PageScheduleModel getPageSchedule(String page) {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.getPageSchedule(db, page);
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if the page is likely updated since the last check, from its update history.
+	 * @param page
+	 * @return true if should be checked now
+	 */
+	public boolean isDueForCheck(PageModel page) {
+		return isDueForCheck(page.getPage(), page.getLastCheck());
+	}
+
+	/**
+	 * Filter the pages to check now, e.g. the watched novels in UpdateService.
+	 * @param pages
+	 * @return pages due for check, in the same order
+	 */
+	public ArrayList<PageModel> getPagesDueForCheck(List<PageModel> pages) {
+		ArrayList<PageModel> due = new ArrayList<PageModel>();
+		Date now = new Date();
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			for(Iterator<PageModel> i = pages.iterator(); i.hasNext();) {
+				PageModel page = i.next();
+				PageScheduleModel schedule = dbh.getPageSchedule(db, page.getPage());
+				if(schedule == null || schedule.isDue(now)) due.add(page);
+			}
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+		Log.d(TAG, "Due for check: " + due.size() + " of " + pages.size());
+		return due;
+	}
+
+	/*
+	 * Page without update history uses the fixed CHECK_INTERVAL from the last check.
+	 */
+	private boolean isDueForCheck(String page, Date lastCheck) {
+		PageScheduleModel schedule = getPageSchedule(page);
+		if(schedule != null) return schedule.isDue(new Date());
+		if(lastCheck == null) return true;
+		long diff = new Date().getTime() - lastCheck.getTime();
+		return diff > (Constants.CHECK_INTERVAL * 24 * 3600 * 1000L);
+	}
+
+	private void recordPageCheck(String page, Date lastUpdate) {
+		PageModel pageModel = new PageModel();
+		pageModel.setPage(page);
+		pageModel.setLastUpdate(lastUpdate);
+		ArrayList<PageModel> pages = new ArrayList<PageModel>();
+		pages.add(pageModel);
+		recordPageChecks(pages);
+	}
+
+	/*
+	 * Update the schedule of the checked pages, null entries (not found) are skipped.
+	 */
+	private void recordPageChecks(List<PageModel> pages) {
+		Date now = new Date();
+		dbLock.writeLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
 			try{
-				Response response = Jsoup.connect(url).timeout(Constants.TIMEOUT).execute();
-				Document doc = response.parse();
-				
-				// only return the full  image url
-				image = BakaTsukiParser.parseImagePage(doc);
-				
-				DownloadFileTask downloader = new DownloadFileTask(notifier);
-				image = downloader.downloadImage(image.getUrl());
-				image.setReferer(page);
-
-				synchronized (dbh) {
-					// save to db and get the saved value
-					SQLiteDatabase db = dbh.getWritableDatabase();
-					try{
-						image = dbh.insertImage(db, image);
-					}
-					finally{
-						db.close();
-					}
-				}
-				break;
-			}catch(EOFException eof) {
-				if(notifier != null) {
-					notifier.onCallback(new CallbackEventData("Retrying: " + url + " (" + retry + " of "+ Constants.IMAGE_DOWNLOAD_RETRY + ")"));
+				db.beginTransaction();
+				for(Iterator<PageModel> i = pages.iterator(); i.hasNext();) {
+					PageModel page = i.next();
+					if(page == null) continue;
+					PageScheduleModel schedule = dbh.getPageSchedule(db, page.getPage());
+					if(schedule == null) schedule = new PageScheduleModel(page.getPage());
+					RevalidationPolicy.onChecked(schedule, page.getLastUpdate(), now);
+					dbh.insertOrUpdatePageSchedule(db, schedule);
 				}
-				++retry;
-				if(retry > Constants.IMAGE_DOWNLOAD_RETRY) throw eof;
-			}
-			catch(IOException eof) {
-				++retry;
-				String message = "Retrying: " + url + " (" + retry + " of " + Constants.PAGE_DOWNLOAD_RETRY + ")";
-				if(notifier != null) {
-					notifier.onCallback(new CallbackEventData(message));
+				db.setTransactionSuccessful();
+			}
+			finally{
+				db.endTransaction();
+			}
+		}
+		catch(Exception ex) {
+			// the page is still checked, only the schedule is not updated
+			Log.e(TAG, "Failed to save the page schedule", ex);
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * DownloadJobModel
+	 */
+
+	/**
+	 * Add to the persistent download queue, the queue is run by DownloadService.
+	 * @param pages chapters or File: pages
+	 * @param type DownloadJobModel.TYPE_CHAPTER or TYPE_IMAGE
+	 */
+	public void addDownloads(List<PageModel> pages, String type) {
+		ArrayList<DownloadJobModel> jobs = new ArrayList<DownloadJobModel>();
+		for(Iterator<PageModel> i = pages.iterator(); i.hasNext();) {
+			DownloadJobModel job = new DownloadJobModel();
+			job.setPage(i.next().getPage());
+			job.setType(type);
+			jobs.add(job);
+		}
+		dbLock.writeLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			try{
+				db.beginTransaction();
+				dbh.insertDownloadJobs(db, jobs);
+				db.setTransactionSuccessful();
+			}
+			finally{
+				db.endTransaction();
+			}
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Take the oldest pending items and mark them as running.
+	 * @param limit
+	 * @return empty list if nothing is pending
+	 */
+	public ArrayList<DownloadJobModel> takeDownloads(int limit) {
+		dbLock.writeLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			try{
+				db.beginTransaction();
+				ArrayList<DownloadJobModel> jobs = dbh.getDownloadJobs(db, DownloadJobModel.STATE_PENDING, limit);
+				for(Iterator<DownloadJobModel> i = jobs.iterator(); i.hasNext();) {
+					DownloadJobModel job = i.next();
+					job.setState(DownloadJobModel.STATE_RUNNING);
+					dbh.updateDownloadJob(db, job);
 				}
-				Log.d(TAG, message, eof);
-				if(retry > Constants.PAGE_DOWNLOAD_RETRY) throw eof;
-			}	
-		}		
-		return image;
+				db.setTransactionSuccessful();
+				return jobs;
+			}
+			finally{
+				db.endTransaction();
+			}
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	public void updateDownload(DownloadJobModel job) {
+		dbLock.writeLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			dbh.updateDownloadJob(db, job);
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Set the items left running by a killed process back to pending.
+	 * @return number of items
+	 */
+	public int resetRunningDownloads() {
+		dbLock.writeLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.updateDownloadJobState(db, DownloadJobModel.STATE_RUNNING, DownloadJobModel.STATE_PENDING);
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
+	}
+
+	public int getDownloadCount(int state) {
+		dbLock.readLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.getDownloadJobCount(db, state);
+		}
+		finally{
+			dbLock.readLock().unlock();
+		}
+	}
+
+	public int clearFinishedDownloads() {
+		dbLock.writeLock().lock();
+		try{
+			SQLiteDatabase db = getDatabase();
+			return dbh.deleteDownloadJobs(db, DownloadJobModel.STATE_DONE);
+		}
+		finally{
+			dbLock.writeLock().unlock();
+		}
 	}
 
 }
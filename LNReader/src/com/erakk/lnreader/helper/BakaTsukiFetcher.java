@@ -0,0 +1,205 @@
+package com.erakk.lnreader.helper;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.jsoup.Connection;
+import org.jsoup.Connection.Response;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import android.util.Log;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.callback.CallbackEventData;
+import com.erakk.lnreader.callback.ICallbackNotifier;
+import com.erakk.lnreader.model.HttpValidatorModel;
+import com.erakk.lnreader.model.ImageModel;
+import com.erakk.lnreader.model.NovelCollectionModel;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+import com.erakk.lnreader.parser.BakaTsukiParser;
+
+/**
+ * All the http request to Baka-Tsuki, handle the timeout and retry and return the parsed result.
+ * Nothing is saved to db, this is done by NovelsDao, including the HttpValidatorModel
+ * for the conditional request.
+ */
+public class BakaTsukiFetcher {
+	private static final String TAG = BakaTsukiFetcher.class.toString();
+	private static String baseUrl = Constants.BASE_URL;
+	private static int timeout = Constants.TIMEOUT;
+
+	/**
+	 * Change the server, e.g. to a local test server.
+	 * @param url without trailing slash
+	 */
+	public static void setBaseUrl(String url) {
+		baseUrl = url;
+	}
+
+	public static String getBaseUrl() {
+		return baseUrl;
+	}
+
+	public static void setTimeout(int millis) {
+		timeout = millis;
+	}
+
+	/**
+	 * Page info from the api, used for the last update time.
+	 */
+	public static PageModel fetchPageInfo(PageModel page, ICallbackNotifier notifier) throws Exception {
+		Log.d(TAG, "PageModel = " + page.getPage());
+		Document doc = fetchDocument(baseUrl + "/project/api.php?action=query&prop=info&format=xml&titles=" + page.getPage(), page.getPage(), RetryPolicy.forPage(), null, notifier);
+		return BakaTsukiParser.parsePageAPI(page, doc);
+	}
+
+	/**
+	 * Page info of many pages in one request.
+	 * @param pages up to Constants.API_TITLE_BATCH_SIZE pages
+	 * @return see BakaTsukiParser.parsePageAPI(List, Document)
+	 */
+	public static ArrayList<PageModel> fetchPageInfo(List<PageModel> pages, ICallbackNotifier notifier) throws Exception {
+		StringBuilder titles = new StringBuilder();
+		for(Iterator<PageModel> i = pages.iterator(); i.hasNext();) {
+			if(titles.length() > 0) titles.append("|");
+			titles.append(i.next().getPage());
+		}
+		Log.d(TAG, "PageModel batch = " + pages.size());
+		Document doc = fetchDocument(baseUrl + "/project/api.php?action=query&prop=info&format=xml&titles=" + titles.toString(), pages.size() + " pages info", RetryPolicy.forPage(), null, notifier);
+		return BakaTsukiParser.parsePageAPI(pages, doc);
+	}
+
+	public static String getNovelListUrl() {
+		return baseUrl + "/project";
+	}
+
+	public static String getNovelDetailsUrl(PageModel page) {
+		return baseUrl + "/project/index.php?title=" + page.getPage();
+	}
+
+	public static String getNovelContentUrl(PageModel page) {
+		return baseUrl + "/project/api.php?action=parse&format=xml&prop=text|images&page=" + page.getPage();
+	}
+
+	/**
+	 * @param validator from getNovelListUrl(), updated with the new response
+	 * @return null if not modified
+	 */
+	public static ArrayList<PageModel> fetchNovelList(HttpValidatorModel validator, ICallbackNotifier notifier) throws Exception {
+		Document doc = fetchDocument(getNovelListUrl(), "Main_Page", RetryPolicy.forPage(), validator, notifier);
+		if(doc == null) return null;
+		ArrayList<PageModel> list = BakaTsukiParser.ParseNovelList(doc);
+		Log.d(TAG, "Found from internet: " + list.size() + " Novels");
+		return list;
+	}
+
+	/**
+	 * @param validator from getNovelDetailsUrl(), updated with the new response
+	 * @return null if not modified
+	 */
+	public static NovelCollectionModel fetchNovelDetails(PageModel page, HttpValidatorModel validator, ICallbackNotifier notifier) throws Exception {
+		Log.d(TAG, "Getting Novel Details from internet: " + page.getPage());
+		Document doc = fetchDocument(getNovelDetailsUrl(page), page.getPage(), RetryPolicy.forPage(), validator, notifier);
+		if(doc == null) return null;
+		NovelCollectionModel novel = BakaTsukiParser.ParseNovelDetails(doc, page);
+
+		// download cover image
+		if (novel.getCoverUrl() != null) {
+			DownloadFileTask task = new DownloadFileTask(notifier);
+			ImageModel image = task.downloadImage(novel.getCoverUrl());
+			// TODO: need to save to db?
+			Log.d("Image", image.toString());
+		}
+		return novel;
+	}
+
+	/**
+	 * Chapter content, the attached images are not downloaded, see ChapterDownloader.
+	 * @param validator from getNovelContentUrl(), updated with the new response
+	 * @return null if not modified
+	 */
+	public static NovelContentModel fetchNovelContent(PageModel page, HttpValidatorModel validator, ICallbackNotifier notifier) throws Exception {
+		Document doc = fetchDocument(getNovelContentUrl(page), page.getPage(), RetryPolicy.forPage(), validator, notifier);
+		if(doc == null) return null;
+		return BakaTsukiParser.ParseNovelContent(doc, page);
+	}
+
+	/**
+	 * Parse the File: page and download the full image.
+	 * @param page File: page url, relative to the base url or absolute
+	 */
+	public static ImageModel fetchImage(String page, ICallbackNotifier notifier) throws Exception {
+		String url = page;
+		if (!url.startsWith("http"))
+			url = baseUrl + url;
+
+		if(notifier != null) {
+			notifier.onCallback(new CallbackEventData("Parsing File Page: " + url));
+		}
+		Document doc = fetchDocument(url, url, RetryPolicy.forPage(), null, notifier);
+
+		// only return the full  image url
+		ImageModel image = BakaTsukiParser.parseImagePage(doc);
+
+		DownloadFileTask downloader = new DownloadFileTask(notifier);
+		image = downloader.downloadImage(image.getUrl());
+		image.setReferer(page);
+		return image;
+	}
+
+	/**
+	 * Get and parse the page, retried according to the policy.
+	 * If the validator is given, send conditional request and update it from the response.
+	 * @param url
+	 * @param name shown in the retry message
+	 * @param policy
+	 * @param validator null for normal request
+	 * @param notifier
+	 * @return parsed document, null if not modified
+	 * @throws Exception the last error after all attempts failed
+	 */
+	private static Document fetchDocument(final String url, String name, RetryPolicy policy, final HttpValidatorModel validator, ICallbackNotifier notifier) throws Exception {
+		return policy.execute(new Callable<Document>() {
+			public Document call() throws Exception {
+				Connection connection = Jsoup.connect(url).timeout(timeout).ignoreHttpErrors(true);
+				if(validator != null) {
+					if(validator.getEtag() != null)
+						connection.header("If-None-Match", validator.getEtag());
+					if(validator.getLastModified() != null)
+						connection.header("If-Modified-Since", validator.getLastModified());
+				}
+				Response response = null;
+				HostLimiter.acquire(url);
+				try{
+					response = connection.execute();
+				}
+				finally{
+					HostLimiter.release(url);
+				}
+
+				int status = response.statusCode();
+				if(status == 304 && validator != null && validator.hasValidator()) {
+					Log.d(TAG, "Not modified: " + url + ", saved " + validator.getSize() + " bytes");
+					validator.setBytesSaved(validator.getBytesSaved() + validator.getSize());
+					validator.setLastCheck(new Date());
+					return null;
+				}
+				// redirect is already followed by jsoup
+				if(status >= 300) throw RetryPolicy.httpError(status, url);
+
+				if(validator != null) {
+					validator.setEtag(response.header("ETag"));
+					validator.setLastModified(response.header("Last-Modified"));
+					validator.setSize(response.bodyAsBytes().length);
+					validator.setLastCheck(new Date());
+				}
+				return response.parse();
+			}
+		}, name, notifier);
+	}
+}
@@ -0,0 +1,124 @@
+package com.erakk.lnreader.helper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+import com.erakk.lnreader.Constants;
+
+/**
+ * Chapter content too big to be kept in the db row, see Constants.CONTENT_FILE_THRESHOLD.
+ * The file holds the same compressed data as the content column,
+ * the row only keep the file name, size and CRC32 checksum.
+ */
+public class ChapterFileStore {
+	private static final String TAG = ChapterFileStore.class.toString();
+
+	/**
+	 * Save the compressed content to a new file, the old file of the page is kept.
+	 * The row points to the old file until the transaction is committed,
+	 * delete it only after the commit, or the new one if rolled back.
+	 * @param page chapter page name, used as file name
+	 * @param data compressed content from ContentCompressor
+	 * @return file name relative to CHAPTER_ROOT
+	 * @throws IOException
+	 */
+	public static String write(String page, byte[] data) throws IOException {
+		File dir = new File(Constants.CHAPTER_ROOT);
+		dir.mkdirs();
+		String prefix = toFileName(page);
+		long stamp = System.currentTimeMillis();
+		File file = null;
+		do {
+			file = new File(dir, prefix + "." + stamp++ + ".lnz");
+		} while(!file.createNewFile());
+		boolean written = false;
+		try{
+			FileOutputStream out = new FileOutputStream(file);
+			try{
+				out.write(data);
+				out.getFD().sync();
+			}
+			finally{
+				out.close();
+			}
+			written = true;
+		}
+		finally{
+			if(!written) file.delete();
+		}
+		Log.d(TAG, "Saved: " + file.getAbsolutePath() + " (" + data.length + " bytes)");
+		return file.getName();
+	}
+
+	/**
+	 * Read and decompress the content, the file is streamed to the inflater.
+	 * @param name file name from write()
+	 * @param size expected size
+	 * @param checksum expected CRC32
+	 * @return html, null if the file is missing or corrupted
+	 */
+	public static String read(String name, long size, long checksum) {
+		File file = new File(Constants.CHAPTER_ROOT, name);
+		if(!file.exists() || file.length() != size) {
+			Log.w(TAG, "Missing or invalid file: " + file.getAbsolutePath());
+			return null;
+		}
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try{
+				CRC32 crc = new CRC32();
+				String content = ContentCompressor.decompress(in.getChannel(), crc);
+				if(crc.getValue() != checksum) {
+					Log.w(TAG, "Checksum mismatch: " + file.getAbsolutePath());
+					return null;
+				}
+				return content;
+			}
+			finally{
+				in.close();
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Failed to read: " + file.getAbsolutePath(), e);
+			return null;
+		}
+	}
+
+	public static long getChecksum(byte[] data) {
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		return crc.getValue();
+	}
+
+	public static void delete(String name) {
+		if(name == null) return;
+		File file = new File(Constants.CHAPTER_ROOT, name);
+		if(file.exists() && !file.delete()) {
+			Log.w(TAG, "Failed to delete: " + file.getAbsolutePath());
+		}
+	}
+
+	public static void deleteAll() {
+		File[] files = new File(Constants.CHAPTER_ROOT).listFiles();
+		if(files == null) return;
+		for(int i = 0; i < files.length; ++i) {
+			files[i].delete();
+		}
+		Log.w(TAG, "Deleted chapter files: " + files.length);
+	}
+
+	private static String toFileName(String page) {
+		try {
+			return URLEncoder.encode(page, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new RuntimeException(e);
+		}
+	}
+}
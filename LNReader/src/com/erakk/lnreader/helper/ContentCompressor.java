@@ -0,0 +1,198 @@
+package com.erakk.lnreader.helper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.util.Log;
+
+/**
+ * Compress the chapter html before saving to db.
+ * Stored format: MAGIC + deflate stream using PRESET_DICTIONARY.
+ * Data without the magic header is old uncompressed text, returned as is.
+ */
+public class ContentCompressor {
+	private static final String TAG = ContentCompressor.class.toString();
+	private static final String CHARSET = "UTF-8";
+	private static final byte[] MAGIC = new byte[] {'L', 'N', 'Z', 1};
+	private static final int BUFFER_SIZE = 8192;
+
+	// Common Baka-Tsuki/MediaWiki markup from the parse api output.
+	// Deflate favours the end of the dictionary, so the most frequent strings are put last.
+	// NEVER change this, existing rows can only be decoded with the same dictionary.
+	private static final byte[] PRESET_DICTIONARY = toBytes(
+			"<table id=\"toc\" class=\"toc\"><tr><td><div id=\"toctitle\"><h2>Contents</h2></div>"
+			+ "<li class=\"toclevel-1 tocsection-1\"><a href=\"#\"><span class=\"tocnumber\">1</span> <span class=\"toctext\">"
+			+ "</span></a></li></ul></td></tr></table>"
+			+ "<span class=\"editsection\">[<a href=\"/project/index.php?title=&amp;action=edit&amp;section=1\" title=\"Edit section: \">edit</a>]</span> "
+			+ "<div class=\"thumb tright\"><div class=\"thumbinner\" style=\"width:302px;\">"
+			+ "<a href=\"/project/index.php?title=File:\" class=\"image\">"
+			+ "<img alt=\"\" src=\"file:///Android/data/com.erakk.lnreader/files/project/images/thumb/\" width=\"300\" height=\"\" class=\"thumbimage\" /></a>"
+			+ "<div class=\"thumbcaption\"><div class=\"magnify\"><a href=\"/project/index.php?title=File:\" class=\"internal\" title=\"Enlarge\">"
+			+ "</a></div></div></div></div>"
+			+ "<a href=\"/project/index.php?title=\" title=\"\">Back to</a> <a href=\"/project/index.php?title=\" title=\"\">Forward to</a> Main Page"
+			+ "<h2><span class=\"mw-headline\" id=\"Chapter_\">Chapter </span></h2>"
+			+ "<h3><span class=\"mw-headline\" id=\"\"></span></h3>"
+			+ "<hr /><p><br /></p><center>* * *</center>"
+			+ " the &#160;&quot;&#8212;&#8230;&#8220;&#8221;&#8217;&#8216;"
+			+ "</p>\n<p>&#8220;</p>\n<p>");
+
+	/**
+	 * Compress the html into the stored format.
+	 * @param content html
+	 * @return compressed bytes, null if content is null
+	 */
+	public static byte[] compress(String content) {
+		if(content == null) return null;
+		byte[] input = toBytes(content);
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+		try {
+			deflater.setDictionary(PRESET_DICTIONARY);
+			deflater.setInput(input);
+			deflater.finish();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4 + MAGIC.length);
+			out.write(MAGIC, 0, MAGIC.length);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while(!deflater.finished()) {
+				int count = deflater.deflate(buffer);
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		}
+		finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decode the stored data, handle both compressed and old plain text data.
+	 * @param data stored bytes
+	 * @return html
+	 */
+	public static String decompress(byte[] data) {
+		if(data == null) return null;
+		if(!isCompressed(data)) {
+			return toString(data, 0, data.length);
+		}
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data, MAGIC.length, data.length - MAGIC.length);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while(!inflater.finished()) {
+				int count = inflater.inflate(buffer);
+				if(count == 0) {
+					if(inflater.needsDictionary()) {
+						inflater.setDictionary(PRESET_DICTIONARY);
+					}
+					else if(inflater.needsInput()) {
+						Log.w(TAG, "Truncated content, got: " + out.size() + " bytes");
+						break;
+					}
+				}
+				out.write(buffer, 0, count);
+			}
+			byte[] result = out.toByteArray();
+			return toString(result, 0, result.length);
+		} catch (DataFormatException e) {
+			Log.e(TAG, "Failed to decompress content.", e);
+			return null;
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Decode compressed data read from the channel in small chunks,
+	 * so only the decompressed html is kept in memory.
+	 * @param channel data written by compress()
+	 * @param checksum updated with every byte read from the channel
+	 * @return html
+	 * @throws IOException when the data is not in the compressed format or cannot be decoded
+	 */
+	public static String decompress(ReadableByteChannel channel, Checksum checksum) throws IOException {
+		ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+		byte[] input = readBuffer.array();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE * 4);
+		boolean headerChecked = false;
+
+		Inflater inflater = new Inflater();
+		try {
+			while(!inflater.finished()) {
+				if(inflater.needsInput()) {
+					readBuffer.clear();
+					int read = channel.read(readBuffer);
+					if(read < 0) {
+						Log.w(TAG, "Truncated content, got: " + out.size() + " bytes");
+						break;
+					}
+					checksum.update(input, 0, read);
+					int offset = 0;
+					if(!headerChecked) {
+						if(read < MAGIC.length || !isCompressed(input)) {
+							throw new IOException("Not compressed content.");
+						}
+						offset = MAGIC.length;
+						headerChecked = true;
+					}
+					inflater.setInput(input, offset, read - offset);
+				}
+				int count = inflater.inflate(buffer);
+				if(count == 0 && inflater.needsDictionary()) {
+					inflater.setDictionary(PRESET_DICTIONARY);
+				}
+				out.write(buffer, 0, count);
+			}
+			// the rest is only for the checksum
+			readBuffer.clear();
+			int read = 0;
+			while((read = channel.read(readBuffer)) >= 0) {
+				checksum.update(input, 0, read);
+				readBuffer.clear();
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("Failed to decompress content: " + e.getMessage());
+		}
+		finally {
+			inflater.end();
+		}
+		byte[] result = out.toByteArray();
+		return toString(result, 0, result.length);
+	}
+
+	public static boolean isCompressed(byte[] data) {
+		if(data == null || data.length < MAGIC.length) return false;
+		for(int i = 0; i < MAGIC.length; ++i) {
+			if(data[i] != MAGIC[i]) return false;
+		}
+		return true;
+	}
+
+	private static byte[] toBytes(String value) {
+		try {
+			return value.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always supported
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String toString(byte[] data, int offset, int length) {
+		try {
+			return new String(data, offset, length, CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
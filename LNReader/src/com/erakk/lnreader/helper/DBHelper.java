@@ -1,24 +1,38 @@
 //package com.nandaka.bakareaderclone.helper;
 package com.erakk.lnreader.helper;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Locale;
+
+import org.jsoup.Jsoup;
 
 import com.erakk.lnreader.Constants;
 import com.erakk.lnreader.model.BookModel;
+import com.erakk.lnreader.model.DownloadJobModel;
+import com.erakk.lnreader.model.HttpValidatorModel;
 import com.erakk.lnreader.model.ImageModel;
 import com.erakk.lnreader.model.NovelCollectionModel;
 import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageFlagModel;
 import com.erakk.lnreader.model.PageModel;
+import com.erakk.lnreader.model.PageScheduleModel;
+import com.erakk.lnreader.model.SearchResultModel;
 
+import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.CursorWrapper;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
 public class DBHelper extends SQLiteOpenHelper {
@@ -35,6 +49,7 @@ public class DBHelper extends SQLiteOpenHelper {
 	public static final String COLUMN_IS_FINISHED_READ = "is_finished_read";
 	public static final String COLUMN_IS_DOWNLOADED = "is_downloaded";
 	public static final String COLUMN_ORDER = "_index";
+	public static final String COLUMN_PAGE_KEY = "page_key";
 	
 	public static final String TABLE_IMAGE = "images";
 	public static final String COLUMN_IMAGE = "name";
@@ -52,9 +67,39 @@ public class DBHelper extends SQLiteOpenHelper {
 	public static final String COLUMN_LAST_X = "lastXScroll";
 	public static final String COLUMN_LAST_Y = "lastYScroll";
 	public static final String COLUMN_ZOOM = "lastZoom";
+	
+	public static final String TABLE_READING_POSITION = "reading_position";
+	
+	public static final String TABLE_CONTENT_SEARCH = "novel_content_search";
+	public static final String COLUMN_BODY = "body";
+	
+	public static final String COLUMN_CONTENT_PATH = "content_path";
+	public static final String COLUMN_CONTENT_SIZE = "content_size";
+	public static final String COLUMN_CONTENT_CHECKSUM = "content_checksum";
+	
+	public static final String COLUMN_BOOK_ID = "book_id";
+	public static final String COLUMN_NOVEL_ID = "novel_id";
+	
+	public static final String TABLE_HTTP_VALIDATOR = "http_validators";
+	public static final String COLUMN_ETAG = "etag";
+	public static final String COLUMN_LAST_MODIFIED = "last_modified";
+	public static final String COLUMN_SIZE = "size";
+	public static final String COLUMN_BYTES_SAVED = "bytes_saved";
+	
+	public static final String TABLE_DOWNLOAD_QUEUE = "download_queue";
+	public static final String COLUMN_STATE = "state";
+	public static final String COLUMN_ATTEMPTS = "attempts";
+	public static final String COLUMN_LAST_ERROR = "last_error";
+	
+	public static final String TABLE_PAGE_SCHEDULE = "page_schedule";
+	public static final String COLUMN_UPDATE_INTERVAL = "update_interval";
+	public static final String COLUMN_UPDATE_COUNT = "update_count";
+	public static final String COLUMN_NEXT_CHECK = "next_check";
 
 	private static final String DATABASE_NAME = "pages.db";
-	private static final int DATABASE_VERSION = 18;
+	private static final int DATABASE_VERSION = 27;
+	// older database than this cannot be migrated and will be recreated.
+	private static final int OLDEST_MIGRATABLE_VERSION = 18;
 
 	// Database creation SQL statement
 	private static final String DATABASE_CREATE_PAGES = "create table "
@@ -68,7 +113,10 @@ public class DBHelper extends SQLiteOpenHelper {
 			  				 + COLUMN_IS_WATCHED + " boolean, "						// 7
 			  				 + COLUMN_IS_FINISHED_READ + " boolean, "				// 8
 			  				 + COLUMN_IS_DOWNLOADED + " boolean, "					// 9
-			  				 + COLUMN_ORDER + " integer );";						// 10
+			  				 + COLUMN_ORDER + " integer, "							// 10
+			  				 + COLUMN_PAGE_KEY + " text, "							// 11
+			  				 + COLUMN_BOOK_ID + " integer );";						// 12, novel_books._id for chapter
+	private static final int PAGE_COLUMN_COUNT = 13;
 	
 	private static final String DATABASE_CREATE_IMAGES = "create table "
 		      + TABLE_IMAGE + "(" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
@@ -86,6 +134,7 @@ public class DBHelper extends SQLiteOpenHelper {
 				  				  + COLUMN_IMAGE + " text not null, "
 				  				  + COLUMN_LAST_UPDATE + " integer, "
 				  				  + COLUMN_LAST_CHECK + " integer);";
+	private static final int NOVEL_DETAILS_COLUMN_COUNT = 6;
 
 	// COLUMN_PAGE is not unique because being used for reference to the novel page. 
 	private static final String DATABASE_CREATE_NOVEL_BOOKS = "create table "
@@ -94,17 +143,87 @@ public class DBHelper extends SQLiteOpenHelper {
 				  				  + COLUMN_TITLE + " text not null, "						// 2
 				  				  + COLUMN_LAST_UPDATE + " integer, "						// 3
 				  				  + COLUMN_LAST_CHECK + " integer, "						// 4
-				  				  + COLUMN_ORDER + " integer);";							// 5
+				  				  + COLUMN_ORDER + " integer, "								// 5
+				  				  + COLUMN_NOVEL_ID + " integer);";							// 6, pages._id of the novel
+	private static final int NOVEL_BOOK_COLUMN_COUNT = 7;
 
 	private static final String DATABASE_CREATE_NOVEL_CONTENT = "create table "
 		      + TABLE_NOVEL_CONTENT + "(" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "	// 0
-				 				    + COLUMN_CONTENT + " text not null, "						// 1
+				 				    + COLUMN_CONTENT + " blob not null, "						// 1, compressed, see ContentCompressor
 		      						+ COLUMN_PAGE + " text unique not null, "					// 2
 				  				    + COLUMN_LAST_X + " integer, "								// 3
 				  				    + COLUMN_LAST_Y + " integer, "								// 4
 				  				    + COLUMN_ZOOM + " double, "									// 5
 				  				    + COLUMN_LAST_UPDATE + " integer, "							// 6
-				  				    + COLUMN_LAST_CHECK + " integer);";							// 7
+				  				    + COLUMN_LAST_CHECK + " integer, "							// 7
+				  				    + COLUMN_CONTENT_PATH + " text, "							// 8, see ChapterFileStore, content is empty if set
+				  				    + COLUMN_CONTENT_SIZE + " integer, "						// 9
+				  				    + COLUMN_CONTENT_CHECKSUM + " integer);";					// 10
+	
+	// reading position is saved often, keep it out of the content row.
+	private static final String DATABASE_CREATE_READING_POSITION = "create table "
+		      + TABLE_READING_POSITION + "(" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "	// 0
+		      						+ COLUMN_PAGE + " text unique not null, "						// 1
+				  				    + COLUMN_LAST_X + " integer, "									// 2
+				  				    + COLUMN_LAST_Y + " integer, "									// 3
+				  				    + COLUMN_ZOOM + " double, "										// 4
+				  				    + COLUMN_LAST_UPDATE + " integer);";							// 5
+	
+	// full text index of the downloaded chapters, docid = novel_books_content._id
+	private static final String DATABASE_CREATE_CONTENT_SEARCH = "create virtual table "
+			  + TABLE_CONTENT_SEARCH + " using fts3(" + COLUMN_PAGE + ", "	// 0
+			  						 + COLUMN_TITLE + ", "					// 1
+			  						 + COLUMN_BODY + ");";					// 2, plain text
+	
+	// ETag / Last-Modified for conditional request, see BakaTsukiFetcher
+	private static final String DATABASE_CREATE_HTTP_VALIDATOR = "create table "
+			  + TABLE_HTTP_VALIDATOR + "(" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "	// 0
+			  						 + COLUMN_URL + " text unique not null, "					// 1
+			  						 + COLUMN_ETAG + " text, "									// 2
+			  						 + COLUMN_LAST_MODIFIED + " text, "							// 3, http date as sent by the server
+			  						 + COLUMN_SIZE + " integer, "								// 4, last full response in bytes
+			  						 + COLUMN_BYTES_SAVED + " integer, "						// 5
+			  						 + COLUMN_LAST_CHECK + " integer);";						// 6
+	
+	// persistent download queue, see DownloadService
+	private static final String DATABASE_CREATE_DOWNLOAD_QUEUE = "create table "
+			  + TABLE_DOWNLOAD_QUEUE + "(" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "	// 0
+			  						 + COLUMN_PAGE + " text unique not null, "					// 1
+			  						 + COLUMN_TYPE + " text not null, "							// 2, see DownloadJobModel.TYPE_*
+			  						 + COLUMN_STATE + " integer, "								// 3, see DownloadJobModel.STATE_*
+			  						 + COLUMN_ATTEMPTS + " integer, "							// 4
+			  						 + COLUMN_LAST_ERROR + " text, "							// 5
+			  						 + COLUMN_LAST_UPDATE + " integer);";						// 6
+	private static final String DATABASE_CREATE_INDEX_DOWNLOAD_QUEUE_STATE = "create index " + TABLE_DOWNLOAD_QUEUE + "_state_idx on " + TABLE_DOWNLOAD_QUEUE + "(" + COLUMN_STATE + ", " + COLUMN_ID + ");";
+	
+	// update history and next check time per page, see RevalidationPolicy
+	private static final String DATABASE_CREATE_PAGE_SCHEDULE = "create table "
+			  + TABLE_PAGE_SCHEDULE + "(" + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "	// 0
+			  						 + COLUMN_PAGE + " text unique not null, "					// 1
+			  						 + COLUMN_UPDATE_INTERVAL + " integer, "					// 2, average in seconds
+			  						 + COLUMN_UPDATE_COUNT + " integer, "						// 3
+			  						 + COLUMN_LAST_UPDATE + " integer, "						// 4
+			  						 + COLUMN_LAST_CHECK + " integer, "							// 5
+			  						 + COLUMN_NEXT_CHECK + " integer);";						// 6
+	
+	// indexes for the hot queries: chapter list, novel list, case insensitive page lookup,
+	// image by referer, book by page + title, and the integer book/chapter relations.
+	private static final String DATABASE_CREATE_INDEX_PAGE_PARENT_ORDER = "create index " + TABLE_PAGE + "_parent_order_idx on " + TABLE_PAGE + "(" + COLUMN_PARENT + ", " + COLUMN_ORDER + ");";
+	private static final String DATABASE_CREATE_INDEX_PAGE_PARENT_WATCHED = "create index " + TABLE_PAGE + "_parent_watched_idx on " + TABLE_PAGE + "(" + COLUMN_PARENT + ", " + COLUMN_IS_WATCHED + " DESC, " + COLUMN_TITLE + ");";
+	private static final String DATABASE_CREATE_INDEX_PAGE_KEY = "create index " + TABLE_PAGE + "_page_key_idx on " + TABLE_PAGE + "(" + COLUMN_PAGE_KEY + ");";
+	private static final String DATABASE_CREATE_INDEX_IMAGE_REFERER = "create index " + TABLE_IMAGE + "_referer_idx on " + TABLE_IMAGE + "(" + COLUMN_REFERER + ");";
+	private static final String DATABASE_CREATE_INDEX_BOOK_PAGE_TITLE = "create unique index " + TABLE_NOVEL_BOOK + "_page_title_idx on " + TABLE_NOVEL_BOOK + "(" + COLUMN_PAGE + ", " + COLUMN_TITLE + ");";
+	private static final String DATABASE_CREATE_INDEX_PAGE_BOOK_ORDER = "create index " + TABLE_PAGE + "_book_order_idx on " + TABLE_PAGE + "(" + COLUMN_BOOK_ID + ", " + COLUMN_ORDER + ");";
+	private static final String DATABASE_CREATE_INDEX_BOOK_NOVEL_ORDER = "create index " + TABLE_NOVEL_BOOK + "_novel_order_idx on " + TABLE_NOVEL_BOOK + "(" + COLUMN_NOVEL_ID + ", " + COLUMN_ORDER + ");";
+	private static final String[] DATABASE_CREATE_INDEXES = {
+		DATABASE_CREATE_INDEX_PAGE_PARENT_ORDER,
+		DATABASE_CREATE_INDEX_PAGE_PARENT_WATCHED,
+		DATABASE_CREATE_INDEX_PAGE_KEY,
+		DATABASE_CREATE_INDEX_IMAGE_REFERER,
+		DATABASE_CREATE_INDEX_BOOK_PAGE_TITLE,
+		DATABASE_CREATE_INDEX_PAGE_BOOK_ORDER,
+		DATABASE_CREATE_INDEX_BOOK_NOVEL_ORDER
+	};
 	
 	public DBHelper(Context context) {
 	    super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -117,34 +236,311 @@ public class DBHelper extends SQLiteOpenHelper {
 		 db.execSQL(DATABASE_CREATE_NOVEL_DETAILS);
 		 db.execSQL(DATABASE_CREATE_NOVEL_BOOKS);
 		 db.execSQL(DATABASE_CREATE_NOVEL_CONTENT);
+		 db.execSQL(DATABASE_CREATE_READING_POSITION);
+		 db.execSQL(DATABASE_CREATE_CONTENT_SEARCH);
+		 db.execSQL(DATABASE_CREATE_HTTP_VALIDATOR);
+		 db.execSQL(DATABASE_CREATE_DOWNLOAD_QUEUE);
+		 db.execSQL(DATABASE_CREATE_INDEX_DOWNLOAD_QUEUE_STATE);
+		 db.execSQL(DATABASE_CREATE_PAGE_SCHEDULE);
+		 for(int i = 0; i < DATABASE_CREATE_INDEXES.length; ++i) {
+			 db.execSQL(DATABASE_CREATE_INDEXES[i]);
+		 }
 	}
 
 	@Override
 	public void onDowngrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		onUpgrade(db, oldVersion, newVersion);
+		// the newer schema is unknown, start from scratch
+		Log.w(TAG, "Downgrading db from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
+		recreateTables(db);
+	}
+	
+	@SuppressLint("NewApi")
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		super.onOpen(db);
+		// WAL lets readers run while a chapter is being written, API 11+ only
+		if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB && !db.isReadOnly()) {
+			db.enableWriteAheadLogging();
+		}
 	}
 	
+	/*
+	 * Migrate the data step by step, each step only knows how to move from version - 1 to version.
+	 * Everything is run inside the transaction opened by SQLiteOpenHelper, so a failed step
+	 * is rethrown to roll back to the old version instead of dropping the user data.
+	 */
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-		Log.w(DBHelper.class.getName(),
-		        "Upgrading db from version " + oldVersion + " to "
-		            + newVersion + ", which will destroy all old data");
+		if(oldVersion < OLDEST_MIGRATABLE_VERSION) {
+			Log.w(TAG, "Upgrading db from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
+			recreateTables(db);
+			return;
+		}
+		
+		// chapter files written by the migration, they are not rolled back with the transaction
+		ArrayList<String> writtenFiles = new ArrayList<String>();
+		try{
+			for(int version = oldVersion + 1; version <= newVersion; ++version) {
+				Log.w(TAG, "Migrating db to version " + version);
+				migrateTo(db, version, writtenFiles);
+			}
+			Log.i(TAG, "Upgraded db from version " + oldVersion + " to " + newVersion);
+		}
+		catch(RuntimeException ex) {
+			Log.e(TAG, "Failed to migrate db from version " + oldVersion + " to " + newVersion + ", keeping version " + oldVersion, ex);
+			for(Iterator<String> i = writtenFiles.iterator(); i.hasNext();) {
+				ChapterFileStore.delete(i.next());
+			}
+			throw ex;
+		}
+	}
+	
+	private void migrateTo(SQLiteDatabase db, int version, ArrayList<String> writtenFiles) {
+		switch(version) {
+			case 19:
+				migratePageKeyAndIndexes(db);
+				break;
+			case 20:
+				compressNovelContent(db);
+				break;
+			case 21:
+				createReadingPosition(db);
+				break;
+			case 22:
+				createContentSearch(db);
+				break;
+			case 23:
+				createBookRelations(db);
+				break;
+			case 24:
+				moveLargeContentToFile(db, writtenFiles);
+				break;
+			case 25:
+				db.execSQL(DATABASE_CREATE_HTTP_VALIDATOR);
+				break;
+			case 26:
+				db.execSQL(DATABASE_CREATE_DOWNLOAD_QUEUE);
+				db.execSQL(DATABASE_CREATE_INDEX_DOWNLOAD_QUEUE_STATE);
+				break;
+			case 27:
+				db.execSQL(DATABASE_CREATE_PAGE_SCHEDULE);
+				break;
+			default:
+				throw new IllegalStateException("No migration to db version " + version);
+		}
+	}
+	
+	/*
+	 * Drop everything, including the chapter files referenced by the content table.
+	 */
+	private void recreateTables(SQLiteDatabase db) {
 	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_PAGE);
 	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_IMAGE);
 	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_NOVEL_DETAILS);
 	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_NOVEL_BOOK);
 	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_NOVEL_CONTENT);
+	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_READING_POSITION);
+	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_CONTENT_SEARCH);
+	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_HTTP_VALIDATOR);
+	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_DOWNLOAD_QUEUE);
+	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_PAGE_SCHEDULE);
 	    onCreate(db);
+	    ChapterFileStore.deleteAll();
+	}
+	
+	/*
+	 * Version 19: case folded page key and indexes.
+	 */
+	private void migratePageKeyAndIndexes(SQLiteDatabase db) {
+		db.execSQL("alter table " + TABLE_PAGE + " add column " + COLUMN_PAGE_KEY + " text");
+		
+		// page key is folded in java, sqlite lower() only handle ascii
+		ArrayList<String> pages = new ArrayList<String>();
+		Cursor cursor = db.rawQuery("select " + COLUMN_PAGE + " from " + TABLE_PAGE, null);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			pages.add(cursor.getString(0));
+			cursor.moveToNext();
+		}
+		cursor.close();
+		SQLiteStatement updateStmt = db.compileStatement("update " + TABLE_PAGE + " set " + COLUMN_PAGE_KEY + " = ? where " + COLUMN_PAGE + " = ?");
+		try{
+			for(Iterator<String> i = pages.iterator(); i.hasNext();) {
+				String page = i.next();
+				bindString(updateStmt, 1, toPageKey(page));
+				bindString(updateStmt, 2, page);
+				updateStmt.execute();
+			}
+		}
+		finally{
+			updateStmt.close();
+		}
+		
+		// remove duplicated books before adding the unique index
+		db.execSQL("delete from " + TABLE_NOVEL_BOOK + " where " + COLUMN_ID + " not in (select min(" + COLUMN_ID + ") from " + TABLE_NOVEL_BOOK
+				+ " group by " + COLUMN_PAGE + ", " + COLUMN_TITLE + ")");
+		db.execSQL(DATABASE_CREATE_INDEX_PAGE_PARENT_ORDER);
+		db.execSQL(DATABASE_CREATE_INDEX_PAGE_PARENT_WATCHED);
+		db.execSQL(DATABASE_CREATE_INDEX_PAGE_KEY);
+		db.execSQL(DATABASE_CREATE_INDEX_IMAGE_REFERER);
+		db.execSQL(DATABASE_CREATE_INDEX_BOOK_PAGE_TITLE);
+	}
+	
+	/*
+	 * Version 20: novel content is stored compressed.
+	 * Rows are converted one by one to avoid loading all the content at once.
+	 */
+	private void compressNovelContent(SQLiteDatabase db) {
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		Cursor cursor = db.rawQuery("select " + COLUMN_ID + " from " + TABLE_NOVEL_CONTENT, null);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			ids.add(cursor.getInt(0));
+			cursor.moveToNext();
+		}
+		cursor.close();
+		
+		SQLiteStatement updateStmt = db.compileStatement("update " + TABLE_NOVEL_CONTENT + " set " + COLUMN_CONTENT + " = ? where " + COLUMN_ID + " = ?");
+		try{
+			int count = 0;
+			for(Iterator<Integer> i = ids.iterator(); i.hasNext();) {
+				int id = i.next();
+				cursor = db.rawQuery("select " + COLUMN_CONTENT + " from " + TABLE_NOVEL_CONTENT + " where " + COLUMN_ID + " = ?", new String[] {"" + id});
+				byte[] data = null;
+				if(cursor.moveToFirst()) {
+					data = cursor.getBlob(0);
+				}
+				cursor.close();
+				if(data == null || ContentCompressor.isCompressed(data)) continue;
+				
+				updateStmt.bindBlob(1, ContentCompressor.compress(ContentCompressor.decompress(data)));
+				updateStmt.bindLong(2, id);
+				updateStmt.execute();
+				++count;
+			}
+			Log.i(TAG, "Compressed Novel Content: " + count);
+		}
+		finally{
+			updateStmt.close();
+		}
+	}
+	
+	/*
+	 * Version 21: reading position moved to its own table.
+	 */
+	private void createReadingPosition(SQLiteDatabase db) {
+		db.execSQL(DATABASE_CREATE_READING_POSITION);
+		db.execSQL("insert or replace into " + TABLE_READING_POSITION + " ("
+				+ COLUMN_PAGE + ", " + COLUMN_LAST_X + ", " + COLUMN_LAST_Y + ", " + COLUMN_ZOOM + ", " + COLUMN_LAST_UPDATE + ") "
+				+ "select " + COLUMN_PAGE + ", " + COLUMN_LAST_X + ", " + COLUMN_LAST_Y + ", " + COLUMN_ZOOM + ", " + COLUMN_LAST_CHECK
+				+ " from " + TABLE_NOVEL_CONTENT);
+	}
+	
+	/*
+	 * Version 22: full text search over the downloaded chapters.
+	 */
+	private void createContentSearch(SQLiteDatabase db) {
+		db.execSQL(DATABASE_CREATE_CONTENT_SEARCH);
+		
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		Cursor cursor = db.rawQuery("select " + COLUMN_ID + " from " + TABLE_NOVEL_CONTENT, null);
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			ids.add(cursor.getInt(0));
+			cursor.moveToNext();
+		}
+		cursor.close();
+		
+		for(Iterator<Integer> i = ids.iterator(); i.hasNext();) {
+			int id = i.next();
+			cursor = db.rawQuery("select c." + COLUMN_PAGE + ", p." + COLUMN_TITLE + ", c." + COLUMN_CONTENT + " from " + TABLE_NOVEL_CONTENT + " c "
+								+ " left join " + TABLE_PAGE + " p on p." + COLUMN_PAGE + " = c." + COLUMN_PAGE
+								+ " where c." + COLUMN_ID + " = ?", new String[] {"" + id});
+			if(cursor.moveToFirst()) {
+				indexNovelContent(db, id, cursor.getString(0), cursor.getString(1), ContentCompressor.decompress(cursor.getBlob(2)));
+			}
+			cursor.close();
+		}
+		Log.i(TAG, "Indexed Novel Content: " + ids.size());
+	}
+	
+	/*
+	 * Version 23: integer book_id/novel_id relations, the parent string is kept as is.
+	 * Chapters are linked per book using the parent index.
+	 */
+	private void createBookRelations(SQLiteDatabase db) {
+		db.execSQL("alter table " + TABLE_PAGE + " add column " + COLUMN_BOOK_ID + " integer");
+		db.execSQL("alter table " + TABLE_NOVEL_BOOK + " add column " + COLUMN_NOVEL_ID + " integer");
+		db.execSQL("update " + TABLE_NOVEL_BOOK + " set " + COLUMN_NOVEL_ID + " = (select p." + COLUMN_ID + " from " + TABLE_PAGE + " p where p." + COLUMN_PAGE + " = " + TABLE_NOVEL_BOOK + "." + COLUMN_PAGE + ")");
+		
+		SQLiteStatement updateStmt = db.compileStatement("update " + TABLE_PAGE + " set " + COLUMN_BOOK_ID + " = ? where " + COLUMN_PARENT + " = ?");
+		Cursor cursor = db.rawQuery("select " + COLUMN_ID + ", " + COLUMN_PAGE + ", " + COLUMN_TITLE + " from " + TABLE_NOVEL_BOOK, null);
+		try{
+			cursor.moveToFirst();
+			while (!cursor.isAfterLast()) {
+				updateStmt.bindLong(1, cursor.getInt(0));
+				bindString(updateStmt, 2, cursor.getString(1) + Constants.NOVEL_BOOK_DIVIDER + cursor.getString(2));
+				updateStmt.execute();
+				cursor.moveToNext();
+			}
+		}
+		finally{
+			cursor.close();
+			updateStmt.close();
+		}
+		db.execSQL(DATABASE_CREATE_INDEX_PAGE_BOOK_ORDER);
+		db.execSQL(DATABASE_CREATE_INDEX_BOOK_NOVEL_ORDER);
+	}
+	
+	/*
+	 * Version 24: big chapters are moved to ChapterFileStore.
+	 */
+	private void moveLargeContentToFile(SQLiteDatabase db, ArrayList<String> writtenFiles) {
+		db.execSQL("alter table " + TABLE_NOVEL_CONTENT + " add column " + COLUMN_CONTENT_PATH + " text");
+		db.execSQL("alter table " + TABLE_NOVEL_CONTENT + " add column " + COLUMN_CONTENT_SIZE + " integer");
+		db.execSQL("alter table " + TABLE_NOVEL_CONTENT + " add column " + COLUMN_CONTENT_CHECKSUM + " integer");
+		
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		Cursor cursor = db.rawQuery("select " + COLUMN_ID + " from " + TABLE_NOVEL_CONTENT + " where length(" + COLUMN_CONTENT + ") > ?", new String[] {"" + Constants.CONTENT_FILE_THRESHOLD});
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			ids.add(cursor.getInt(0));
+			cursor.moveToNext();
+		}
+		cursor.close();
+		
+		int count = 0;
+		for(Iterator<Integer> i = ids.iterator(); i.hasNext();) {
+			int id = i.next();
+			cursor = db.rawQuery("select " + COLUMN_PAGE + ", " + COLUMN_CONTENT + " from " + TABLE_NOVEL_CONTENT + " where " + COLUMN_ID + " = ?", new String[] {"" + id});
+			String page = null;
+			byte[] data = null;
+			if(cursor.moveToFirst()) {
+				page = cursor.getString(0);
+				data = cursor.getBlob(1);
+			}
+			cursor.close();
+			if(data == null) continue;
+			if(!ContentCompressor.isCompressed(data)) {
+				data = ContentCompressor.compress(ContentCompressor.decompress(data));
+			}
+			try {
+				ContentValues cv = new ContentValues();
+				putContent(cv, page, data);
+				if(cv.getAsString(COLUMN_CONTENT_PATH) != null) writtenFiles.add(cv.getAsString(COLUMN_CONTENT_PATH));
+				db.update(TABLE_NOVEL_CONTENT, cv, COLUMN_ID + " = ?", new String[] {"" + id});
+				++count;
+			} catch (IOException e) {
+				// keep it in the db
+				Log.e(TAG, "Failed to move content to file: " + page, e);
+			}
+		}
+		Log.i(TAG, "Moved Novel Content to file: " + count);
 	}
 	
 	public void deletePagesDB(SQLiteDatabase db) {
 		// use drop because it is faster and can avoid free row fragmentation
-		db.execSQL("DROP TABLE IF EXISTS " + TABLE_PAGE);
-	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_IMAGE);
-	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_NOVEL_DETAILS);
-	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_NOVEL_BOOK);
-	    db.execSQL("DROP TABLE IF EXISTS " + TABLE_NOVEL_CONTENT);
-	    onCreate(db);
+		recreateTables(db);
 		Log.w(TAG,"Database Deleted.");
 	}
 	
@@ -154,13 +550,69 @@ public class DBHelper extends SQLiteOpenHelper {
 		return page;
 	}
 
+	/*
+	 * Bulk upsert of the novel list, should be called inside a transaction.
+	 * Same semantic as insertOrUpdatePageModel(), but using precompiled statements:
+	 * insert or ignore, then update when the row already exist.
+	 */
 	public ArrayList<PageModel> insertAllNovel(SQLiteDatabase db, ArrayList<PageModel> list) {
 		ArrayList<PageModel> updatedList = new ArrayList<PageModel>();
-		for(Iterator<PageModel> i = list.iterator(); i.hasNext();){
-			PageModel p = i.next();
-			p = insertOrUpdatePageModel(db, p);
-			updatedList.add(p);
+		if(!db.isOpen())
+			db = getWritableDatabase();
+		String insertSql = "insert or ignore into " + TABLE_PAGE + " ("
+									+ COLUMN_PAGE + ", " + COLUMN_PAGE_KEY + ", " + COLUMN_TITLE + ", " + COLUMN_TYPE + ", " + COLUMN_PARENT + ", "
+									+ COLUMN_ORDER + ", " + COLUMN_IS_WATCHED + ", " + COLUMN_IS_FINISHED_READ + ", " + COLUMN_IS_DOWNLOADED + ", "
+									+ COLUMN_LAST_UPDATE + ", " + COLUMN_LAST_CHECK + ") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+		SQLiteStatement insertStmt = db.compileStatement(insertSql);
+		String updateSql = "update " + TABLE_PAGE + " set "
+									+ COLUMN_PAGE_KEY + " = ?, " + COLUMN_TITLE + " = ?, " + COLUMN_TYPE + " = ?, " + COLUMN_PARENT + " = ?, "
+									+ COLUMN_ORDER + " = ?, " + COLUMN_IS_WATCHED + " = ?, " + COLUMN_IS_FINISHED_READ + " = ?, " + COLUMN_IS_DOWNLOADED + " = ?, "
+									+ COLUMN_LAST_UPDATE + " = coalesce(?, " + COLUMN_LAST_UPDATE + "), "
+									+ COLUMN_LAST_CHECK + " = coalesce(?, " + COLUMN_LAST_CHECK + ") where " + COLUMN_PAGE + " = ?";
+		SQLiteStatement updateStmt = db.compileStatement(updateSql);
+		try{
+			long now = new Date().getTime() / 1000;
+			for(Iterator<PageModel> i = list.iterator(); i.hasNext();){
+				PageModel p = i.next();
+				insertStmt.clearBindings();
+				bindString(insertStmt, 1, p.getPage());
+				bindString(insertStmt, 2, toPageKey(p.getPage()));
+				bindString(insertStmt, 3, p.getTitle());
+				bindString(insertStmt, 4, p.getType());
+				bindString(insertStmt, 5, p.getParent());
+				insertStmt.bindLong(6, p.getOrder());
+				insertStmt.bindLong(7, p.isWatched() ? 1 : 0);
+				insertStmt.bindLong(8, p.isFinishedRead() ? 1 : 0);
+				insertStmt.bindLong(9, p.isDownloaded() ? 1 : 0);
+				insertStmt.bindLong(10, p.getLastUpdate() == null ? 0 : p.getLastUpdate().getTime() / 1000);
+				insertStmt.bindLong(11, p.getLastCheck() == null ? now : p.getLastCheck().getTime() / 1000);
+				long id = executeInsert(insertStmt, insertSql);
+				if(id != -1) {
+					p.setId((int) id);
+				}
+				else {
+					updateStmt.clearBindings();
+					bindString(updateStmt, 1, toPageKey(p.getPage()));
+					bindString(updateStmt, 2, p.getTitle());
+					bindString(updateStmt, 3, p.getType());
+					bindString(updateStmt, 4, p.getParent());
+					updateStmt.bindLong(5, p.getOrder());
+					updateStmt.bindLong(6, p.isWatched() ? 1 : 0);
+					updateStmt.bindLong(7, p.isFinishedRead() ? 1 : 0);
+					updateStmt.bindLong(8, p.isDownloaded() ? 1 : 0);
+					bindDate(updateStmt, 9, p.getLastUpdate());
+					bindDate(updateStmt, 10, p.getLastCheck());
+					bindString(updateStmt, 11, p.getPage());
+					execute(updateStmt, updateSql);
+				}
+				updatedList.add(p);
+			}
+		}
+		finally{
+			insertStmt.close();
+			updateStmt.close();
 		}
+		Log.i(TAG, "Novel list saved: " + updatedList.size());
 		return updatedList;
 	}
 	
@@ -177,9 +629,9 @@ public class DBHelper extends SQLiteOpenHelper {
 	    }
 	    cursor.close();
 	    
-	    // check again for case insensitive	    
+	    // check again for case insensitive using the stored page key
 	    if(pageModel == null) {
-		    cursor = rawQuery(db, "select * from " + TABLE_PAGE + " where lower(" + COLUMN_PAGE + ") = lower(?) ", new String[] {page});
+		    cursor = rawQuery(db, "select * from " + TABLE_PAGE + " where " + COLUMN_PAGE_KEY + " = ? ", new String[] {toPageKey(page)});
 			cursor.moveToFirst();
 		    while (!cursor.isAfterLast()) {
 		    	pageModel = cursorTopage(cursor);
@@ -224,6 +676,47 @@ public class DBHelper extends SQLiteOpenHelper {
 		return pages;
 	}
 	
+	public int getNovelCount(SQLiteDatabase db) {
+		Cursor cursor = rawQuery(db, "select count(*) from " + TABLE_PAGE + " where " + COLUMN_PARENT + " = ? ", new String[] {"Main_Page"});
+		try{
+			cursor.moveToFirst();
+			return cursor.getInt(0);
+		}
+		finally{
+			cursor.close();
+		}
+	}
+	
+	/*
+	 * Novel list for cursor adapter, only the columns needed to draw the row.
+	 * Rows are loaded by the cursor window when scrolled, use cursorToNovelListItem() to read.
+	 */
+	public Cursor getNovelListCursor(SQLiteDatabase db, boolean onlyWatched) {
+		String sql = "select " + COLUMN_ID + ", " + COLUMN_PAGE + ", " + COLUMN_TITLE + ", " + COLUMN_LAST_UPDATE + ", " + COLUMN_LAST_CHECK + ", " + COLUMN_IS_WATCHED
+					+ " from " + TABLE_PAGE + " where " + COLUMN_PARENT + " = ? ";
+		if(onlyWatched) {
+			sql += " and " + COLUMN_IS_WATCHED + " = 1 ";
+		}
+		sql += " ORDER BY " + COLUMN_IS_WATCHED + " DESC, " + COLUMN_TITLE;
+		return rawQuery(db, sql, new String[] {"Main_Page"});
+	}
+	
+	/*
+	 * Partial PageModel from getNovelListCursor(), only id, page, title, dates and watched flag are filled.
+	 */
+	public static PageModel cursorToNovelListItem(Cursor cursor) {
+		PageModel page = new PageModel();
+		page.setId(cursor.getInt(0));
+		page.setPage(cursor.getString(1));
+		page.setTitle(cursor.getString(2));
+		page.setLastUpdate(new Date(cursor.getLong(3)*1000));
+		page.setLastCheck(new Date(cursor.getLong(4)*1000));
+		page.setWatched(cursor.getInt(5) == 1 ? true : false);
+		page.setParent("Main_Page");
+		page.setType(PageModel.TYPE_NOVEL);
+		return page;
+	}
+	
 	public ArrayList<PageModel> selectAllByColumn(SQLiteDatabase db, String whereQuery, String[] values) {
 		return selectAllByColumn(db, whereQuery, values, null);
 	}
@@ -269,6 +762,7 @@ public class DBHelper extends SQLiteOpenHelper {
 				
 		ContentValues cv = new ContentValues();
 		cv.put(COLUMN_PAGE, page.getPage());
+		cv.put(COLUMN_PAGE_KEY, toPageKey(page.getPage()));
 		cv.put(COLUMN_TITLE, page.getTitle());
 		cv.put(COLUMN_ORDER, page.getOrder());
 		cv.put(COLUMN_PARENT, page.getParent());
@@ -276,6 +770,9 @@ public class DBHelper extends SQLiteOpenHelper {
 		cv.put(COLUMN_IS_WATCHED, page.isWatched());
 		cv.put(COLUMN_IS_FINISHED_READ, page.isFinishedRead());
 		cv.put(COLUMN_IS_DOWNLOADED, page.isDownloaded());
+		// only set when known, so updating a chapter without its book keep the relation
+		if(page.getBookId() > 0)
+			cv.put(COLUMN_BOOK_ID, page.getBookId());
 		
 		if(temp == null) {
 			//Log.d(TAG, "Inserting: " + page.toString());
@@ -311,19 +808,105 @@ public class DBHelper extends SQLiteOpenHelper {
 		return page;
 	}
 	
+	/*
+	 * Batch update of the flags queued by NovelsDao, should be called inside a transaction.
+	 * Null flag keeps the saved value.
+	 */
+	public int updatePageFlags(SQLiteDatabase db, Collection<PageFlagModel> changes) {
+		String updateSql = "update " + TABLE_PAGE + " set "
+									+ COLUMN_IS_WATCHED + " = coalesce(?, " + COLUMN_IS_WATCHED + "), "
+									+ COLUMN_IS_FINISHED_READ + " = coalesce(?, " + COLUMN_IS_FINISHED_READ + ") where " + COLUMN_PAGE + " = ?";
+		SQLiteStatement updateStmt = db.compileStatement(updateSql);
+		int count = 0;
+		try{
+			for(Iterator<PageFlagModel> i = changes.iterator(); i.hasNext();) {
+				PageFlagModel change = i.next();
+				updateStmt.clearBindings();
+				bindBoolean(updateStmt, 1, change.isWatched());
+				bindBoolean(updateStmt, 2, change.isFinishedRead());
+				bindString(updateStmt, 3, change.getPage());
+				execute(updateStmt, updateSql);
+				++count;
+			}
+		}
+		finally{
+			updateStmt.close();
+		}
+		Log.i(TAG, "Page flags updated: " + count);
+		return count;
+	}
+	
+	/*
+	 * Update only the last update and check time, should be called inside a transaction.
+	 * Pages not in the db are ignored.
+	 */
+	public int updatePageLastUpdate(SQLiteDatabase db, Collection<PageModel> pages) {
+		String updateSql = "update " + TABLE_PAGE + " set "
+									+ COLUMN_LAST_UPDATE + " = ?, " + COLUMN_LAST_CHECK + " = ? where " + COLUMN_PAGE + " = ?";
+		SQLiteStatement updateStmt = db.compileStatement(updateSql);
+		int count = 0;
+		try{
+			for(Iterator<PageModel> i = pages.iterator(); i.hasNext();) {
+				PageModel page = i.next();
+				updateStmt.clearBindings();
+				bindDate(updateStmt, 1, page.getLastUpdate());
+				bindDate(updateStmt, 2, page.getLastCheck());
+				bindString(updateStmt, 3, page.getPage());
+				execute(updateStmt, updateSql);
+				++count;
+			}
+		}
+		finally{
+			updateStmt.close();
+		}
+		Log.i(TAG, "Page last update updated: " + count);
+		return count;
+	}
+	
+	/*
+	 * Case folded page name, used instead of lower(page) so the lookup can use an index.
+	 */
+	private static String toPageKey(String page) {
+		if(page == null) return null;
+		return page.toLowerCase(Locale.US);
+	}
+	
+	private static void bindString(SQLiteStatement stmt, int index, String value) {
+		if(value == null) stmt.bindNull(index);
+		else stmt.bindString(index, value);
+	}
+	
+	private static void bindBoolean(SQLiteStatement stmt, int index, Boolean value) {
+		if(value == null) stmt.bindNull(index);
+		else stmt.bindLong(index, value.booleanValue() ? 1 : 0);
+	}
+	
+	/*
+	 * Bind as unix time, null date is bound as null so coalesce() can keep the old value.
+	 */
+	private static void bindDate(SQLiteStatement stmt, int index, Date value) {
+		if(value == null) stmt.bindNull(index);
+		else stmt.bindLong(index, value.getTime() / 1000);
+	}
+	
 	private PageModel cursorTopage(Cursor cursor) {
+		return cursorTopage(cursor, 0);
+	}
+	
+	private PageModel cursorTopage(Cursor cursor, int offset) {
 		PageModel page = new PageModel();
-		page.setId(cursor.getInt(0));
-		page.setPage(cursor.getString(1));
-		page.setTitle(cursor.getString(2));
-		page.setType(cursor.getString(3));
-		page.setParent(cursor.getString(4));
-		page.setLastUpdate(new Date(cursor.getLong(5)*1000));
-		page.setLastCheck(new Date(cursor.getLong(6)*1000));
-		page.setWatched(cursor.getInt(7) == 1 ? true : false);
-		page.setFinishedRead(cursor.getInt(8) == 1 ? true : false);
-		page.setDownloaded(cursor.getInt(9) == 1 ? true : false);
-		page.setOrder(cursor.getInt(10));
+		page.setId(cursor.getInt(offset + 0));
+		page.setPage(cursor.getString(offset + 1));
+		page.setTitle(cursor.getString(offset + 2));
+		page.setType(cursor.getString(offset + 3));
+		page.setParent(cursor.getString(offset + 4));
+		page.setLastUpdate(new Date(cursor.getLong(offset + 5)*1000));
+		page.setLastCheck(new Date(cursor.getLong(offset + 6)*1000));
+		page.setWatched(cursor.getInt(offset + 7) == 1 ? true : false);
+		page.setFinishedRead(cursor.getInt(offset + 8) == 1 ? true : false);
+		page.setDownloaded(cursor.getInt(offset + 9) == 1 ? true : false);
+		page.setOrder(cursor.getInt(offset + 10));
+		page.setBookId(cursor.getInt(offset + 12));
 	    return page;
 	}
 	
@@ -334,83 +917,132 @@ public class DBHelper extends SQLiteOpenHelper {
 	 *   - ArrayList<PageModel>
 	 */	
 	public NovelCollectionModel insertNovelDetails(SQLiteDatabase db, NovelCollectionModel novelDetails){
-		ContentValues cv = new ContentValues();
-		cv.put(COLUMN_PAGE, novelDetails.getPage());
-		cv.put(COLUMN_SYNOPSIS, novelDetails.getSynopsis());
-		cv.put(COLUMN_IMAGE, novelDetails.getCover());
-		cv.put(COLUMN_LAST_CHECK, "" + (int) (new Date().getTime() / 1000));
+		if(!db.isOpen())
+			db = getWritableDatabase();
+		long now = new Date().getTime() / 1000;
+		long novelLastUpdate = novelDetails.getLastUpdate() == null ? 0 : novelDetails.getLastUpdate().getTime() / 1000;
 		
-		// check if exist
-		NovelCollectionModel temp = getNovelDetailsOnly(db, novelDetails.getPage());
-		if(temp == null) {
-			//Log.d(TAG, "Inserting Novel Details: " + novelDetails.getPage());
-			if(novelDetails.getLastUpdate() == null)
-				cv.put(COLUMN_LAST_UPDATE, 0);
-			else
-				cv.put(COLUMN_LAST_UPDATE, "" + (int) (novelDetails.getLastUpdate().getTime() / 1000));
-			insertOrThrow(db, TABLE_NOVEL_DETAILS, null, cv);
+		// last_update is only set on insert, existing value is kept on update
+		String insertSql = "insert or ignore into " + TABLE_NOVEL_DETAILS + " ("
+								+ COLUMN_PAGE + ", " + COLUMN_SYNOPSIS + ", " + COLUMN_IMAGE + ", " + COLUMN_LAST_UPDATE + ", " + COLUMN_LAST_CHECK
+								+ ") values (?, ?, ?, ?, ?)";
+		SQLiteStatement insertStmt = db.compileStatement(insertSql);
+		String updateSql = "update " + TABLE_NOVEL_DETAILS + " set "
+								+ COLUMN_SYNOPSIS + " = ?, " + COLUMN_IMAGE + " = ?, " + COLUMN_LAST_CHECK + " = ? where " + COLUMN_PAGE + " = ?";
+		SQLiteStatement updateStmt = db.compileStatement(updateSql);
+		try{
+			bindString(insertStmt, 1, novelDetails.getPage());
+			bindString(insertStmt, 2, novelDetails.getSynopsis());
+			bindString(insertStmt, 3, novelDetails.getCover());
+			insertStmt.bindLong(4, novelLastUpdate);
+			insertStmt.bindLong(5, now);
+			if(executeInsert(insertStmt, insertSql) == -1) {
+				bindString(updateStmt, 1, novelDetails.getSynopsis());
+				bindString(updateStmt, 2, novelDetails.getCover());
+				updateStmt.bindLong(3, now);
+				bindString(updateStmt, 4, novelDetails.getPage());
+				execute(updateStmt, updateSql);
+			}
 		}
-		else {
-			//Log.d(TAG, "Updating Novel Details: " + novelDetails.getPage() + " id: " + temp.getId());
-			cv.put(COLUMN_LAST_UPDATE, "" + (int) (temp.getLastUpdate().getTime() / 1000));
-			update(db, TABLE_NOVEL_DETAILS, cv, COLUMN_ID + " = ?", new String[] {"" + temp.getId()});
+		finally{
+			insertStmt.close();
+			updateStmt.close();
 		}
 
-		for(Iterator<BookModel> iBooks = novelDetails.getBookCollections().iterator(); iBooks.hasNext();){
-			BookModel book = iBooks.next();
-			ContentValues cv2 = new ContentValues();
-			cv2.put(COLUMN_PAGE, novelDetails.getPage());
-			cv2.put(COLUMN_TITLE , book.getTitle());
-			cv2.put(COLUMN_ORDER , book.getOrder());
-			cv2.put(COLUMN_LAST_CHECK, "" + (int) (new Date().getTime() / 1000));
-			
-			BookModel tempBook = getBookModel(db, book.getId());
-			if(tempBook == null) tempBook = getBookModel(db, novelDetails.getPage(), book.getTitle());
-			if(tempBook == null) {
-				//Log.d(TAG, "Inserting Novel Book: " + novelDetails.getPage() + Constants.NOVEL_BOOK_DIVIDER + book.getTitle());
-				if(novelDetails.getLastUpdate() == null)
-					cv2.put(COLUMN_LAST_UPDATE, 0);
-				else
-					cv2.put(COLUMN_LAST_UPDATE, "" + (int) (novelDetails.getLastUpdate().getTime() / 1000));
-				insertOrThrow(db, TABLE_NOVEL_BOOK, null, cv2);
-			}
-			else {
-				//Log.d(TAG, "Updating Novel Book: " + tempBook.getPage() + Constants.NOVEL_BOOK_DIVIDER + tempBook.getTitle() + " id: " + tempBook.getId());
-				cv2.put(COLUMN_LAST_UPDATE, "" + (int) (tempBook.getLastUpdate().getTime() / 1000));
-				update(db, TABLE_NOVEL_BOOK, cv2, COLUMN_ID + " = ?", new String[] {"" + tempBook.getId()});
+		// novel page is saved before the details, used as the book's novel_id
+		long novelId = 0;
+		PageModel novelPage = getPageModel(db, novelDetails.getPage());
+		if(novelPage != null) novelId = novelPage.getId();
+		
+		// books, unique by page + title, the id is needed to link the chapters.
+		String insertBookSql = "insert or ignore into " + TABLE_NOVEL_BOOK + " ("
+									+ COLUMN_PAGE + ", " + COLUMN_TITLE + ", " + COLUMN_ORDER + ", " + COLUMN_LAST_UPDATE + ", " + COLUMN_LAST_CHECK + ", " + COLUMN_NOVEL_ID
+									+ ") values (?, ?, ?, ?, ?, ?)";
+		SQLiteStatement insertBookStmt = db.compileStatement(insertBookSql);
+		String updateBookSql = "update " + TABLE_NOVEL_BOOK + " set "
+									+ COLUMN_ORDER + " = ?, " + COLUMN_LAST_CHECK + " = ?, " + COLUMN_NOVEL_ID + " = ? where " + COLUMN_PAGE + " = ? and " + COLUMN_TITLE + " = ?";
+		SQLiteStatement updateBookStmt = db.compileStatement(updateBookSql);
+		String selectBookIdSql = "select " + COLUMN_ID + " from " + TABLE_NOVEL_BOOK + " where " + COLUMN_PAGE + " = ? and " + COLUMN_TITLE + " = ?";
+		SQLiteStatement selectBookIdStmt = db.compileStatement(selectBookIdSql);
+		try{
+			for(Iterator<BookModel> iBooks = novelDetails.getBookCollections().iterator(); iBooks.hasNext();){
+				BookModel book = iBooks.next();
+				insertBookStmt.clearBindings();
+				bindString(insertBookStmt, 1, novelDetails.getPage());
+				bindString(insertBookStmt, 2, book.getTitle());
+				insertBookStmt.bindLong(3, book.getOrder());
+				insertBookStmt.bindLong(4, novelLastUpdate);
+				insertBookStmt.bindLong(5, now);
+				insertBookStmt.bindLong(6, novelId);
+				long bookId = executeInsert(insertBookStmt, insertBookSql);
+				if(bookId == -1) {
+					updateBookStmt.clearBindings();
+					updateBookStmt.bindLong(1, book.getOrder());
+					updateBookStmt.bindLong(2, now);
+					updateBookStmt.bindLong(3, novelId);
+					bindString(updateBookStmt, 4, novelDetails.getPage());
+					bindString(updateBookStmt, 5, book.getTitle());
+					execute(updateBookStmt, updateBookSql);
+					
+					bindString(selectBookIdStmt, 1, novelDetails.getPage());
+					bindString(selectBookIdStmt, 2, book.getTitle());
+					bookId = simpleQueryForLong(selectBookIdStmt, selectBookIdSql);
+				}
+				book.setId((int) bookId);
+				book.setNovelId((int) novelId);
 			}
 		}
+		finally{
+			insertBookStmt.close();
+			updateBookStmt.close();
+			selectBookIdStmt.close();
+		}
 		
-		for(Iterator<BookModel> iBooks = novelDetails.getBookCollections().iterator(); iBooks.hasNext();){
-			BookModel book = iBooks.next();
-			for(Iterator<PageModel> iPage = book.getChapterCollection().iterator(); iPage.hasNext();) {
-				PageModel page = iPage.next();
-				ContentValues cv3 = new ContentValues();
-				cv3.put(COLUMN_PAGE, page.getPage());
-				cv3.put(COLUMN_TITLE, page.getTitle());
-				cv3.put(COLUMN_TYPE, page.getType());
-				cv3.put(COLUMN_PARENT, page.getParent());
-				cv3.put(COLUMN_ORDER, page.getOrder());
-				
-				cv3.put(COLUMN_LAST_CHECK, "" + (int) (new Date().getTime() / 1000));
-				cv3.put(COLUMN_IS_WATCHED, false);
-				
-				PageModel tempPage = getPageModel(db, page.getPage());
-				if(tempPage == null) {
-					//Log.d(TAG, "Inserting Novel Chapter: " + page.getPage());
-					if(page.getLastUpdate() == null)
-						cv3.put(COLUMN_LAST_UPDATE, 0);
-					else 
-						cv3.put(COLUMN_LAST_UPDATE, "" + (int) (page.getLastUpdate().getTime() / 1000));
-					insertOrThrow(db, TABLE_PAGE, null, cv3);
-				}
-				else {
-					cv3.put(COLUMN_LAST_UPDATE, "" + (int) (tempPage.getLastUpdate().getTime() / 1000));
-					//Log.d(TAG, "Updating Novel Chapter: " + page.getPage() + " id: " +tempPage.getId());
-					update(db, TABLE_PAGE, cv3, COLUMN_ID + " = ?", new String[] {"" + tempPage.getId()});
+		// chapters, watched flag is reset and last_update kept on update,
+		// read and downloaded flags are left untouched.
+		String insertPageSql = "insert or ignore into " + TABLE_PAGE + " ("
+									+ COLUMN_PAGE + ", " + COLUMN_PAGE_KEY + ", " + COLUMN_TITLE + ", " + COLUMN_TYPE + ", " + COLUMN_PARENT + ", "
+									+ COLUMN_ORDER + ", " + COLUMN_LAST_CHECK + ", " + COLUMN_IS_WATCHED + ", " + COLUMN_LAST_UPDATE + ", " + COLUMN_BOOK_ID
+									+ ") values (?, ?, ?, ?, ?, ?, ?, 0, ?, ?)";
+		SQLiteStatement insertPageStmt = db.compileStatement(insertPageSql);
+		String updatePageSql = "update " + TABLE_PAGE + " set "
+									+ COLUMN_PAGE_KEY + " = ?, " + COLUMN_TITLE + " = ?, " + COLUMN_TYPE + " = ?, " + COLUMN_PARENT + " = ?, "
+									+ COLUMN_ORDER + " = ?, " + COLUMN_LAST_CHECK + " = ?, " + COLUMN_IS_WATCHED + " = 0, " + COLUMN_BOOK_ID + " = ? where " + COLUMN_PAGE + " = ?";
+		SQLiteStatement updatePageStmt = db.compileStatement(updatePageSql);
+		try{
+			for(Iterator<BookModel> iBooks = novelDetails.getBookCollections().iterator(); iBooks.hasNext();){
+				BookModel book = iBooks.next();
+				for(Iterator<PageModel> iPage = book.getChapterCollection().iterator(); iPage.hasNext();) {
+					PageModel page = iPage.next();
+					insertPageStmt.clearBindings();
+					bindString(insertPageStmt, 1, page.getPage());
+					bindString(insertPageStmt, 2, toPageKey(page.getPage()));
+					bindString(insertPageStmt, 3, page.getTitle());
+					bindString(insertPageStmt, 4, page.getType());
+					bindString(insertPageStmt, 5, page.getParent());
+					insertPageStmt.bindLong(6, page.getOrder());
+					insertPageStmt.bindLong(7, now);
+					insertPageStmt.bindLong(8, page.getLastUpdate() == null ? 0 : page.getLastUpdate().getTime() / 1000);
+					insertPageStmt.bindLong(9, book.getId());
+					if(executeInsert(insertPageStmt, insertPageSql) == -1) {
+						updatePageStmt.clearBindings();
+						bindString(updatePageStmt, 1, toPageKey(page.getPage()));
+						bindString(updatePageStmt, 2, page.getTitle());
+						bindString(updatePageStmt, 3, page.getType());
+						bindString(updatePageStmt, 4, page.getParent());
+						updatePageStmt.bindLong(5, page.getOrder());
+						updatePageStmt.bindLong(6, now);
+						updatePageStmt.bindLong(7, book.getId());
+						bindString(updatePageStmt, 8, page.getPage());
+						execute(updatePageStmt, updatePageSql);
+					}
 				}
 			}
 		}
+		finally{
+			insertPageStmt.close();
+			updatePageStmt.close();
+		}
 
 		//Log.d(TAG, "Complete Insert Novel Details: " + novelDetails.toString());
 
@@ -419,17 +1051,13 @@ public class DBHelper extends SQLiteOpenHelper {
 		return novelDetails;
 	}
 	
-	private NovelCollectionModel getNovelDetailsOnly(SQLiteDatabase db, String page) {
-		NovelCollectionModel novelDetails = null;
-		Cursor cursor = rawQuery(db, "select * from " + TABLE_NOVEL_DETAILS + " where " + COLUMN_PAGE + " = ? ", new String[] {page});
-		cursor.moveToFirst();
-	    while (!cursor.isAfterLast()) {
-	    	novelDetails = cursorToNovelCollection(cursor);
-	    	//Log.d(TAG, "Found: " + novelDetails.toString());
-	    	break;
-	    }
-	    cursor.close();
-	    return novelDetails;
+	/*
+	 * Only the check time, when the saved novel details is still valid (http 304).
+	 */
+	public int updateNovelDetailsLastCheck(SQLiteDatabase db, String page, Date lastCheck) {
+		ContentValues cv = new ContentValues();
+		cv.put(COLUMN_LAST_CHECK, lastCheck.getTime() / 1000);
+		return update(db, TABLE_NOVEL_DETAILS, cv, COLUMN_PAGE + " = ?", new String[] {page});
 	}
 	
 	public BookModel getBookModel(SQLiteDatabase db, int id) {
@@ -488,6 +1116,35 @@ public class DBHelper extends SQLiteOpenHelper {
 		return bookCollection;
 	}
 	
+	public ArrayList<PageModel> getChapterCollection(SQLiteDatabase db, int bookId, BookModel book) {
+		ArrayList<PageModel> chapters = new ArrayList<PageModel>();
+		Cursor cursor = rawQuery(db, "select * from " + TABLE_PAGE + " where " + COLUMN_BOOK_ID + " = ? order by " + COLUMN_ORDER, new String[] {"" + bookId});
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			PageModel chapter = cursorTopage(cursor);
+			chapter.setBook(book);
+			chapters.add(chapter);
+	    	cursor.moveToNext();
+	    }
+	    cursor.close();
+		return chapters;
+	}
+	
+	/*
+	 * Novel page of the given book, using the integer relation.
+	 */
+	public PageModel getNovelPageByBookId(SQLiteDatabase db, int bookId) {
+		PageModel pageModel = null;
+		Cursor cursor = rawQuery(db, "select p.* from " + TABLE_NOVEL_BOOK + " b "
+				+ " join " + TABLE_PAGE + " p on p." + COLUMN_ID + " = b." + COLUMN_NOVEL_ID
+				+ " where b." + COLUMN_ID + " = ? ", new String[] {"" + bookId});
+		if(cursor.moveToFirst()) {
+			pageModel = cursorTopage(cursor);
+		}
+		cursor.close();
+		return pageModel;
+	}
+	
 	public ArrayList<PageModel> getChapterCollection(SQLiteDatabase db, String parent, BookModel book) {
 		ArrayList<PageModel> chapters = new ArrayList<PageModel>();
 		Cursor cursor = rawQuery(db, "select * from " + TABLE_PAGE + " where " + COLUMN_PARENT + " = ? order by " + COLUMN_ORDER, new String[] {parent});
@@ -503,39 +1160,79 @@ public class DBHelper extends SQLiteOpenHelper {
 		return chapters;
 	}
 	
+	/*
+	 * Load the whole novel details -> books -> chapters graph in one query,
+	 * the rows are ordered by book and chapter order, so the graph can be build in one pass.
+	 */
 	public NovelCollectionModel getNovelDetails(SQLiteDatabase db, String page) {
 		//Log.d(TAG, "Selecting Novel Details: " + page);
-		NovelCollectionModel novelDetails = getNovelDetailsOnly(db, page);
+		NovelCollectionModel novelDetails = null;
 		
-	    if(novelDetails != null) {
-	    	novelDetails.setPageModel(getPageModel(db, page));
-			
-		    // get the books
-		    ArrayList<BookModel> bookCollection = getBookCollectionOnly(db, page, novelDetails);	
-			// get the chapters
-			for(Iterator<BookModel> iBook = bookCollection.iterator(); iBook.hasNext();) {
-				BookModel book = iBook.next();
-				ArrayList<PageModel> chapters = getChapterCollection(db, novelDetails.getPage() + Constants.NOVEL_BOOK_DIVIDER + book.getTitle(), book);
-				book.setChapterCollection(chapters);
-			}		
+		final int pageOffset = NOVEL_DETAILS_COLUMN_COUNT;
+		final int bookOffset = pageOffset + PAGE_COLUMN_COUNT;
+		final int chapterOffset = bookOffset + NOVEL_BOOK_COLUMN_COUNT;
+		Cursor cursor = rawQuery(db, "select d.*, p.*, b.*, c.* from " + TABLE_NOVEL_DETAILS + " d "
+				+ " left join " + TABLE_PAGE + " p on p." + COLUMN_PAGE + " = d." + COLUMN_PAGE
+				+ " left join " + TABLE_NOVEL_BOOK + " b on b." + COLUMN_NOVEL_ID + " = p." + COLUMN_ID
+				+ " left join " + TABLE_PAGE + " c on c." + COLUMN_BOOK_ID + " = b." + COLUMN_ID
+				+ " where d." + COLUMN_PAGE + " = ? "
+				+ " order by b." + COLUMN_ORDER + ", b." + COLUMN_ID + ", c." + COLUMN_ORDER
+				, new String[] {page});
+		
+		ArrayList<BookModel> bookCollection = new ArrayList<BookModel>();
+		BookModel book = null;
+		ArrayList<PageModel> chapters = null;
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			if(novelDetails == null) {
+				novelDetails = cursorToNovelCollection(cursor);
+				if(!cursor.isNull(pageOffset)) {
+					novelDetails.setPageModel(cursorTopage(cursor, pageOffset));
+				}
+			}
+			if(!cursor.isNull(bookOffset)) {
+				int bookId = cursor.getInt(bookOffset);
+				if(book == null || book.getId() != bookId) {
+					book = cursorToBookModel(cursor, bookOffset);
+					book.setParent(novelDetails);
+					chapters = new ArrayList<PageModel>();
+					book.setChapterCollection(chapters);
+					bookCollection.add(book);
+				}
+				if(!cursor.isNull(chapterOffset)) {
+					PageModel chapter = cursorTopage(cursor, chapterOffset);
+					chapter.setBook(book);
+					chapters.add(chapter);
+				}
+			}
+			cursor.moveToNext();
+		}
+		cursor.close();
+		
+		if(novelDetails != null) {
 			novelDetails.setBookCollections(bookCollection);
-	    }
-	    else {
-	    	Log.w(TAG, "No Data for Novel Details: " + page);
-	    }
+		}
+		else {
+			Log.w(TAG, "No Data for Novel Details: " + page);
+		}
 		
 		//Log.d(TAG, "Complete Selecting Novel Details: " + page);
 		return novelDetails;
 	}
 	
 	private BookModel cursorToBookModel(Cursor cursor) {
+		return cursorToBookModel(cursor, 0);
+	}
+	
+	private BookModel cursorToBookModel(Cursor cursor, int offset) {
 		BookModel book = new BookModel();
-		book.setId(cursor.getInt(0));
-		book.setPage(cursor.getString(1));
-		book.setTitle(cursor.getString(2));
-		book.setLastUpdate(new Date(cursor.getInt(3)*1000));
-		book.setLastCheck(new Date(cursor.getInt(4)*1000));
-		book.setOrder(cursor.getInt(5));
+		book.setId(cursor.getInt(offset + 0));
+		book.setPage(cursor.getString(offset + 1));
+		book.setTitle(cursor.getString(offset + 2));
+		book.setLastUpdate(new Date(cursor.getInt(offset + 3)*1000));
+		book.setLastCheck(new Date(cursor.getInt(offset + 4)*1000));
+		book.setOrder(cursor.getInt(offset + 5));
+		book.setNovelId(cursor.getInt(offset + 6));
 		return book;
 	}
 
@@ -639,33 +1336,57 @@ public class DBHelper extends SQLiteOpenHelper {
 	/*
 	 * NovelContentModel
 	 * Nested object : PageModel, lazy loading via NovelsDao
+	 * The replaced content file is not deleted, it is still used by the row until the commit,
+	 * see getNovelContentPath() and NovelsDao.saveNovelContent().
 	 */	
 	public NovelContentModel insertNovelContent(SQLiteDatabase db, NovelContentModel content) throws Exception {
 		ContentValues cv = new ContentValues();
-		cv.put(COLUMN_CONTENT, content.getContent());
+		putContent(cv, content.getPage(), ContentCompressor.compress(content.getContent()));
+		try{
+			return insertNovelContent(db, content, cv);
+		}
+		catch(Exception ex) {
+			// not saved, the row still points to the old file
+			ChapterFileStore.delete(cv.getAsString(COLUMN_CONTENT_PATH));
+			throw ex;
+		}
+	}
+	
+	private NovelContentModel insertNovelContent(SQLiteDatabase db, NovelContentModel content, ContentValues cv) throws Exception {
+		long now = new Date().getTime() / 1000;
 		cv.put(COLUMN_PAGE, content.getPage());
 		cv.put(COLUMN_LAST_X, "" + content.getLastXScroll());
 		cv.put(COLUMN_LAST_Y, "" + content.getLastYScroll());
 		cv.put(COLUMN_ZOOM, "" + content.getLastZoom());
-		cv.put(COLUMN_LAST_CHECK, "" + (int) (new Date().getTime() / 1000));
+		cv.put(COLUMN_LAST_CHECK, "" + now);
+		
+		// only the id and last update of the saved row, the old content is not read
+		int contentId = 0;
+		long lastUpdate = 0;
+		Cursor cursor = rawQuery(db, "select " + COLUMN_ID + ", " + COLUMN_LAST_UPDATE + " from " + TABLE_NOVEL_CONTENT
+									+ " where " + COLUMN_PAGE + " = ? ", new String[] {content.getPage()});
+		try{
+			if(cursor.moveToFirst()) {
+				contentId = cursor.getInt(0);
+				lastUpdate = cursor.getLong(1);
+			}
+		}
+		finally{
+			cursor.close();
+		}
+		if(content.getLastUpdate() != null)
+			lastUpdate = content.getLastUpdate().getTime() / 1000;
+		cv.put(COLUMN_LAST_UPDATE, "" + lastUpdate);
 		
-		NovelContentModel temp = getNovelContent(db, content.getPage());
-		if(temp == null){
+		if(contentId == 0){
 			//Log.d(TAG, "Inserting Novel Content: " + content.getPage());
-			if(content.getLastUpdate() == null)
-				cv.put(COLUMN_LAST_UPDATE, 0);
-			else
-				cv.put(COLUMN_LAST_UPDATE, "" + (int) (content.getLastUpdate().getTime() / 1000));			
 			long id = insertOrThrow(db, TABLE_NOVEL_CONTENT, null, cv);
+			contentId = (int) id;
 			Log.i(TAG, "Novel Content Inserted, New id: "  + id);
 		}
 		else {
-			//Log.d(TAG, "Updating Novel Content: " + content.getPage() + " id: " + temp.getId());
-			if(content.getLastUpdate() == null)
-				cv.put(COLUMN_LAST_UPDATE, "" + (int) (temp.getLastUpdate().getTime() / 1000));
-			else
-				cv.put(COLUMN_LAST_UPDATE, "" + (int) (content.getLastUpdate().getTime() / 1000));		
-			int result = update(db, TABLE_NOVEL_CONTENT, cv, COLUMN_ID + " = ? ", new String[] {"" + temp.getId()});
+			//Log.d(TAG, "Updating Novel Content: " + content.getPage() + " id: " + contentId);
+			int result = update(db, TABLE_NOVEL_CONTENT, cv, COLUMN_ID + " = ? ", new String[] {"" + contentId});
 			Log.i(TAG, "Novel Content:" + content.getPage() + " Updated, Affected Row: "  + result);
 		}
 		
@@ -675,16 +1396,65 @@ public class DBHelper extends SQLiteOpenHelper {
 			pageModel.setDownloaded(true);
 			pageModel = insertOrUpdatePageModel(db, pageModel);
 		}
-				
-		content = getNovelContent(db, content.getPage());
-		return content;
+		
+		// update the search index
+		String title = pageModel != null ? pageModel.getTitle() : null;
+		indexNovelContent(db, contentId, content.getPage(), title, content.getContent());
+		
+		// same as getNovelContent(), without reading back the content just written
+		NovelContentModel saved = new NovelContentModel();
+		saved.setId(contentId);
+		saved.setPage(content.getPage());
+		saved.setContent(content.getContent());
+		saved.setContentPath(cv.getAsString(COLUMN_CONTENT_PATH));
+		saved.setPageModel(pageModel);
+		saved.setLastXScroll(content.getLastXScroll());
+		saved.setLastYScroll(content.getLastYScroll());
+		saved.setLastZoom(content.getLastZoom());
+		saved.setLastUpdate(new Date(lastUpdate * 1000));
+		saved.setLastCheck(new Date(now * 1000));
+		
+		cursor = rawQuery(db, "select " + COLUMN_LAST_X + ", " + COLUMN_LAST_Y + ", " + COLUMN_ZOOM + " from " + TABLE_READING_POSITION
+							+ " where " + COLUMN_PAGE + " = ? ", new String[] {content.getPage()});
+		try{
+			if(cursor.moveToFirst()) {
+				saved.setLastXScroll(cursor.getInt(0));
+				saved.setLastYScroll(cursor.getInt(1));
+				saved.setLastZoom(cursor.getDouble(2));
+			}
+		}
+		finally{
+			cursor.close();
+		}
+		return saved;
+	}
+	
+	/*
+	 * Content file of the saved chapter without reading the content, null if kept in the row.
+	 */
+	public String getNovelContentPath(SQLiteDatabase db, String page) {
+		String path = null;
+		Cursor cursor = rawQuery(db, "select " + COLUMN_CONTENT_PATH + " from " + TABLE_NOVEL_CONTENT + " where " + COLUMN_PAGE + " = ? ", new String[] {page});
+		if(cursor.moveToFirst()) {
+			path = cursor.getString(0);
+		}
+		cursor.close();
+		return path;
 	}
 	
 	public NovelContentModel getNovelContent(SQLiteDatabase db, String page) {
 		//Log.d(TAG, "Selecting Novel Content: " + page);
 		NovelContentModel content = null;
 		
-		Cursor cursor = rawQuery(db, "select * from " + TABLE_NOVEL_CONTENT + " where " + COLUMN_PAGE + " = ? ", new String[] {page});
+		// same column order as the content table, reading position is taken from its own table if exists.
+		Cursor cursor = rawQuery(db, "select c." + COLUMN_ID + ", c." + COLUMN_CONTENT + ", c." + COLUMN_PAGE
+									+ ", coalesce(r." + COLUMN_LAST_X + ", c." + COLUMN_LAST_X + ")"
+									+ ", coalesce(r." + COLUMN_LAST_Y + ", c." + COLUMN_LAST_Y + ")"
+									+ ", coalesce(r." + COLUMN_ZOOM + ", c." + COLUMN_ZOOM + ")"
+									+ ", c." + COLUMN_LAST_UPDATE + ", c." + COLUMN_LAST_CHECK
+									+ ", c." + COLUMN_CONTENT_PATH + ", c." + COLUMN_CONTENT_SIZE + ", c." + COLUMN_CONTENT_CHECKSUM
+									+ " from " + TABLE_NOVEL_CONTENT + " c left join " + TABLE_READING_POSITION + " r on r." + COLUMN_PAGE + " = c." + COLUMN_PAGE
+									+ " where c." + COLUMN_PAGE + " = ? ", new String[] {page});
 		cursor.moveToFirst();
 	    while (!cursor.isAfterLast()) {
 	    	content = cursorToNovelContent(cursor);
@@ -694,15 +1464,319 @@ public class DBHelper extends SQLiteOpenHelper {
 	    cursor.close();
 		if(content == null) {
 			Log.w(TAG, "Not Found Novel Content: " + page);
-		}		
+		}
+		else if(content.getContent() == null) {
+			// chapter file is missing or corrupted, or the row can't be decompressed: download it again
+			Log.w(TAG, "Unreadable Novel Content: " + page);
+			return null;
+		}
 		return content;
 	}
 
+	/*
+	 * Replace the search index entry for the content, only the plain text is indexed.
+	 */
+	private void indexNovelContent(SQLiteDatabase db, int contentId, String page, String title, String html) {
+		execSQL(db, "delete from " + TABLE_CONTENT_SEARCH + " where docid = ?", new Object[] {contentId});
+		if(html == null) return;
+		String text = Jsoup.parse(html).text();
+		execSQL(db, "insert into " + TABLE_CONTENT_SEARCH + " (docid, " + COLUMN_PAGE + ", " + COLUMN_TITLE + ", " + COLUMN_BODY + ") values (?, ?, ?, ?)",
+				   new Object[] {contentId, page, title, text});
+	}
+	
+	/*
+	 * Search the downloaded chapters, query use the sqlite FTS3 MATCH syntax.
+	 */
+	public ArrayList<SearchResultModel> searchNovelContent(SQLiteDatabase db, String query, int limit) {
+		ArrayList<SearchResultModel> results = new ArrayList<SearchResultModel>();
+		Cursor cursor = rawQuery(db, "select " + COLUMN_PAGE + ", " + COLUMN_TITLE
+									+ ", snippet(" + TABLE_CONTENT_SEARCH + ", '<b>', '</b>', '...')"
+									+ ", offsets(" + TABLE_CONTENT_SEARCH + ")"
+									+ " from " + TABLE_CONTENT_SEARCH + " where " + COLUMN_BODY + " match ? limit " + limit, new String[] {query});
+		cursor.moveToFirst();
+		while (!cursor.isAfterLast()) {
+			SearchResultModel result = new SearchResultModel();
+			result.setPage(cursor.getString(0));
+			result.setTitle(cursor.getString(1));
+			result.setSnippet(cursor.getString(2));
+			result.setOffset(getFirstMatchOffset(cursor.getString(3), 2));
+			results.add(result);
+			cursor.moveToNext();
+		}
+		cursor.close();
+		return results;
+	}
+	
+	/*
+	 * offsets() return space separated list of: column, term, byte offset, size.
+	 */
+	private static int getFirstMatchOffset(String offsets, int column) {
+		if(offsets == null) return -1;
+		String[] values = offsets.trim().split(" ");
+		for(int i = 0; i + 3 < values.length; i += 4) {
+			try {
+				if(Integer.parseInt(values[i]) == column) {
+					return Integer.parseInt(values[i + 2]);
+				}
+			} catch (NumberFormatException e) {
+				Log.w(TAG, "Invalid offsets: " + offsets);
+				break;
+			}
+		}
+		return -1;
+	}
+	
+	/*
+	 * Save only the reading position, the content row is not touched.
+	 */
+	public void updateReadingPosition(SQLiteDatabase db, NovelContentModel content) {
+		if(!db.isOpen())
+			db = getWritableDatabase();
+		String sql = "insert or replace into " + TABLE_READING_POSITION + " ("
+								+ COLUMN_PAGE + ", " + COLUMN_LAST_X + ", " + COLUMN_LAST_Y + ", " + COLUMN_ZOOM + ", " + COLUMN_LAST_UPDATE
+								+ ") values (?, ?, ?, ?, ?)";
+		SQLiteStatement stmt = db.compileStatement(sql);
+		try{
+			bindString(stmt, 1, content.getPage());
+			stmt.bindLong(2, content.getLastXScroll());
+			stmt.bindLong(3, content.getLastYScroll());
+			stmt.bindDouble(4, content.getLastZoom());
+			stmt.bindLong(5, new Date().getTime() / 1000);
+			execute(stmt, sql);
+		}
+		finally{
+			stmt.close();
+		}
+	}
+	
+	/*
+	 * Saved validator of the url, empty validator if not found.
+	 */
+	public HttpValidatorModel getHttpValidator(SQLiteDatabase db, String url) {
+		HttpValidatorModel validator = new HttpValidatorModel(url);
+		Cursor cursor = rawQuery(db, "select * from " + TABLE_HTTP_VALIDATOR + " where " + COLUMN_URL + " = ? ", new String[] {url});
+		try{
+			if(cursor.moveToFirst()) {
+				validator.setEtag(cursor.getString(2));
+				validator.setLastModified(cursor.getString(3));
+				validator.setSize(cursor.getLong(4));
+				validator.setBytesSaved(cursor.getLong(5));
+				validator.setLastCheck(new Date(cursor.getLong(6) * 1000));
+			}
+		}
+		finally{
+			cursor.close();
+		}
+		return validator;
+	}
+	
+	/*
+	 * Should be saved in the same transaction as the parsed page.
+	 */
+	public void insertOrUpdateHttpValidator(SQLiteDatabase db, HttpValidatorModel validator) {
+		if(!db.isOpen())
+			db = getWritableDatabase();
+		String sql = "insert or replace into " + TABLE_HTTP_VALIDATOR + " ("
+								+ COLUMN_URL + ", " + COLUMN_ETAG + ", " + COLUMN_LAST_MODIFIED + ", " + COLUMN_SIZE + ", "
+								+ COLUMN_BYTES_SAVED + ", " + COLUMN_LAST_CHECK + ") values (?, ?, ?, ?, ?, ?)";
+		SQLiteStatement stmt = db.compileStatement(sql);
+		try{
+			bindString(stmt, 1, validator.getUrl());
+			bindString(stmt, 2, validator.getEtag());
+			bindString(stmt, 3, validator.getLastModified());
+			stmt.bindLong(4, validator.getSize());
+			stmt.bindLong(5, validator.getBytesSaved());
+			bindDate(stmt, 6, validator.getLastCheck());
+			execute(stmt, sql);
+		}
+		finally{
+			stmt.close();
+		}
+	}
+	
+	/*
+	 * Total bytes not downloaded thanks to 304 response.
+	 */
+	public long getHttpBytesSaved(SQLiteDatabase db) {
+		Cursor cursor = rawQuery(db, "select sum(" + COLUMN_BYTES_SAVED + ") from " + TABLE_HTTP_VALIDATOR, null);
+		try{
+			if(cursor.moveToFirst()) return cursor.getLong(0);
+			return 0;
+		}
+		finally{
+			cursor.close();
+		}
+	}
+	
+	/*
+	 * Null if the page is never checked.
+	 */
+	public PageScheduleModel getPageSchedule(SQLiteDatabase db, String page) {
+		Cursor cursor = rawQuery(db, "select * from " + TABLE_PAGE_SCHEDULE + " where " + COLUMN_PAGE + " = ? ", new String[] {page});
+		try{
+			if(!cursor.moveToFirst()) return null;
+			PageScheduleModel schedule = new PageScheduleModel(cursor.getString(1));
+			schedule.setUpdateInterval(cursor.getLong(2) * 1000);
+			schedule.setUpdateCount(cursor.getInt(3));
+			if(!cursor.isNull(4)) schedule.setLastUpdate(new Date(cursor.getLong(4) * 1000));
+			if(!cursor.isNull(5)) schedule.setLastCheck(new Date(cursor.getLong(5) * 1000));
+			if(!cursor.isNull(6)) schedule.setNextCheck(new Date(cursor.getLong(6) * 1000));
+			return schedule;
+		}
+		finally{
+			cursor.close();
+		}
+	}
+	
+	public void insertOrUpdatePageSchedule(SQLiteDatabase db, PageScheduleModel schedule) {
+		String sql = "insert or replace into " + TABLE_PAGE_SCHEDULE + " ("
+								+ COLUMN_PAGE + ", " + COLUMN_UPDATE_INTERVAL + ", " + COLUMN_UPDATE_COUNT + ", "
+								+ COLUMN_LAST_UPDATE + ", " + COLUMN_LAST_CHECK + ", " + COLUMN_NEXT_CHECK + ") values (?, ?, ?, ?, ?, ?)";
+		SQLiteStatement stmt = db.compileStatement(sql);
+		try{
+			bindString(stmt, 1, schedule.getPage());
+			stmt.bindLong(2, schedule.getUpdateInterval() / 1000);
+			stmt.bindLong(3, schedule.getUpdateCount());
+			bindDate(stmt, 4, schedule.getLastUpdate());
+			bindDate(stmt, 5, schedule.getLastCheck());
+			bindDate(stmt, 6, schedule.getNextCheck());
+			execute(stmt, sql);
+		}
+		finally{
+			stmt.close();
+		}
+	}
+	
+	/*
+	 * Add to the download queue, should be called inside a transaction.
+	 * Finished or failed item is queued again, pending or running item is left as is.
+	 */
+	public int insertDownloadJobs(SQLiteDatabase db, Collection<DownloadJobModel> jobs) {
+		String insertSql = "insert or ignore into " + TABLE_DOWNLOAD_QUEUE + " ("
+									+ COLUMN_PAGE + ", " + COLUMN_TYPE + ", " + COLUMN_STATE + ", " + COLUMN_ATTEMPTS + ", " + COLUMN_LAST_UPDATE
+									+ ") values (?, ?, " + DownloadJobModel.STATE_PENDING + ", 0, ?)";
+		SQLiteStatement insertStmt = db.compileStatement(insertSql);
+		String updateSql = "update " + TABLE_DOWNLOAD_QUEUE + " set "
+									+ COLUMN_STATE + " = " + DownloadJobModel.STATE_PENDING + ", " + COLUMN_ATTEMPTS + " = 0, "
+									+ COLUMN_LAST_ERROR + " = null, " + COLUMN_LAST_UPDATE + " = ? where " + COLUMN_PAGE + " = ? and "
+									+ COLUMN_STATE + " in (" + DownloadJobModel.STATE_DONE + ", " + DownloadJobModel.STATE_FAILED + ")";
+		SQLiteStatement updateStmt = db.compileStatement(updateSql);
+		int count = 0;
+		try{
+			long now = new Date().getTime() / 1000;
+			for(Iterator<DownloadJobModel> i = jobs.iterator(); i.hasNext();) {
+				DownloadJobModel job = i.next();
+				insertStmt.clearBindings();
+				bindString(insertStmt, 1, job.getPage());
+				bindString(insertStmt, 2, job.getType());
+				insertStmt.bindLong(3, now);
+				if(executeInsert(insertStmt, insertSql) == -1) {
+					updateStmt.clearBindings();
+					updateStmt.bindLong(1, now);
+					bindString(updateStmt, 2, job.getPage());
+					execute(updateStmt, updateSql);
+				}
+				++count;
+			}
+		}
+		finally{
+			insertStmt.close();
+			updateStmt.close();
+		}
+		Log.i(TAG, "Download queued: " + count);
+		return count;
+	}
+	
+	/*
+	 * Oldest items in the given state.
+	 */
+	public ArrayList<DownloadJobModel> getDownloadJobs(SQLiteDatabase db, int state, int limit) {
+		ArrayList<DownloadJobModel> jobs = new ArrayList<DownloadJobModel>();
+		Cursor cursor = rawQuery(db, "select * from " + TABLE_DOWNLOAD_QUEUE + " where " + COLUMN_STATE + " = ? "
+								+ " order by " + COLUMN_ID + " limit " + limit, new String[] {"" + state});
+		try{
+			cursor.moveToFirst();
+			while (!cursor.isAfterLast()) {
+				DownloadJobModel job = new DownloadJobModel();
+				job.setId(cursor.getInt(0));
+				job.setPage(cursor.getString(1));
+				job.setType(cursor.getString(2));
+				job.setState(cursor.getInt(3));
+				job.setAttempts(cursor.getInt(4));
+				job.setLastError(cursor.getString(5));
+				job.setLastUpdate(new Date(cursor.getLong(6) * 1000));
+				jobs.add(job);
+				cursor.moveToNext();
+			}
+		}
+		finally{
+			cursor.close();
+		}
+		return jobs;
+	}
+	
+	public void updateDownloadJob(SQLiteDatabase db, DownloadJobModel job) {
+		ContentValues cv = new ContentValues();
+		cv.put(COLUMN_STATE, job.getState());
+		cv.put(COLUMN_ATTEMPTS, job.getAttempts());
+		cv.put(COLUMN_LAST_ERROR, job.getLastError());
+		cv.put(COLUMN_LAST_UPDATE, new Date().getTime() / 1000);
+		update(db, TABLE_DOWNLOAD_QUEUE, cv, COLUMN_ID + " = ?", new String[] {"" + job.getId()});
+	}
+	
+	/*
+	 * Move all items from a state to another, e.g. running items left by a killed process back to pending.
+	 */
+	public int updateDownloadJobState(SQLiteDatabase db, int fromState, int toState) {
+		ContentValues cv = new ContentValues();
+		cv.put(COLUMN_STATE, toState);
+		return update(db, TABLE_DOWNLOAD_QUEUE, cv, COLUMN_STATE + " = ?", new String[] {"" + fromState});
+	}
+	
+	public int getDownloadJobCount(SQLiteDatabase db, int state) {
+		Cursor cursor = rawQuery(db, "select count(*) from " + TABLE_DOWNLOAD_QUEUE + " where " + COLUMN_STATE + " = ? ", new String[] {"" + state});
+		try{
+			cursor.moveToFirst();
+			return cursor.getInt(0);
+		}
+		finally{
+			cursor.close();
+		}
+	}
+	
+	public int deleteDownloadJobs(SQLiteDatabase db, int state) {
+		return delete(db, TABLE_DOWNLOAD_QUEUE, COLUMN_STATE + " = ?", new String[] {"" + state});
+	}
+	
+	/*
+	 * Put the compressed content to the row, or to ChapterFileStore if too big for the cursor window.
+	 */
+	private static void putContent(ContentValues cv, String page, byte[] data) throws IOException {
+		if(data != null && data.length > Constants.CONTENT_FILE_THRESHOLD) {
+			cv.put(COLUMN_CONTENT, new byte[0]);
+			cv.put(COLUMN_CONTENT_PATH, ChapterFileStore.write(page, data));
+			cv.put(COLUMN_CONTENT_SIZE, data.length);
+			cv.put(COLUMN_CONTENT_CHECKSUM, ChapterFileStore.getChecksum(data));
+		}
+		else {
+			cv.put(COLUMN_CONTENT, data);
+			cv.putNull(COLUMN_CONTENT_PATH);
+			cv.putNull(COLUMN_CONTENT_SIZE);
+			cv.putNull(COLUMN_CONTENT_CHECKSUM);
+		}
+	}
+	
 	private NovelContentModel cursorToNovelContent(Cursor cursor) {
 		NovelContentModel content = new NovelContentModel();
 		content.setId(cursor.getInt(0));
-		content.setContent(cursor.getString(1));
 		content.setPage(cursor.getString(2));
+		if(cursor.isNull(8)) {
+			content.setContent(ContentCompressor.decompress(cursor.getBlob(1)));
+		}
+		else {
+			content.setContentPath(cursor.getString(8));
+			content.setContent(ChapterFileStore.read(cursor.getString(8), cursor.getLong(9), cursor.getLong(10)));
+		}
 		content.setLastXScroll(cursor.getInt(3));
 		content.setLastYScroll(cursor.getInt(4));
 		content.setLastZoom(cursor.getDouble(5));
@@ -712,29 +1786,131 @@ public class DBHelper extends SQLiteOpenHelper {
 	}
 	
 	/*
-	 * To avoid android.database.sqlite.SQLiteException: unable to close due to unfinalised statements
+	 * All the wrappers below are timed by QueryStats.
 	 */
 	private Cursor rawQuery(SQLiteDatabase db, String sql, String[] values){
 		if(!db.isOpen()) 
 			db = getReadableDatabase();	
-		return db.rawQuery(sql, values);
+		long start = QueryStats.start();
+		Cursor cursor = db.rawQuery(sql, values);
+		if(start == 0) return cursor;
+		return new TimedCursor(cursor, sql, System.nanoTime() - start);
+	}
+	
+	/*
+	 * The query is only run when the first window is filled, on the first move or getCount() by the caller.
+	 * Record it then instead of forcing it in rawQuery(), the time spent by the caller before is not counted.
+	 */
+	private static class TimedCursor extends CursorWrapper {
+		private final String sql;
+		private final long prepareNanos;
+		private boolean recorded = false;
+		
+		public TimedCursor(Cursor cursor, String sql, long prepareNanos) {
+			super(cursor);
+			this.sql = sql;
+			this.prepareNanos = prepareNanos;
+		}
+		
+		private void record() {
+			if(recorded) return;
+			recorded = true;
+			long start = System.nanoTime();
+			int count = super.getCount();
+			QueryStats.record(sql, start - prepareNanos, count);
+		}
+		
+		@Override
+		public int getCount() {
+			record();
+			return super.getCount();
+		}
+		@Override
+		public boolean move(int offset) {
+			record();
+			return super.move(offset);
+		}
+		@Override
+		public boolean moveToPosition(int position) {
+			record();
+			return super.moveToPosition(position);
+		}
+		@Override
+		public boolean moveToFirst() {
+			record();
+			return super.moveToFirst();
+		}
+		@Override
+		public boolean moveToLast() {
+			record();
+			return super.moveToLast();
+		}
+		@Override
+		public boolean moveToNext() {
+			record();
+			return super.moveToNext();
+		}
+		@Override
+		public boolean moveToPrevious() {
+			record();
+			return super.moveToPrevious();
+		}
 	}
 	
 	private int update(SQLiteDatabase db, String table, ContentValues cv, String whereClause, String[] whereParams){
 		if (!db.isOpen())
 			db = getWritableDatabase();
-		return db.update(table, cv, whereClause, whereParams);
+		long start = QueryStats.start();
+		int result = db.update(table, cv, whereClause, whereParams);
+		QueryStats.record("update " + table + " where " + whereClause, start, result);
+		return result;
 	}
 	
 	private long insertOrThrow(SQLiteDatabase db, String table, String nullColumnHack, ContentValues cv){
 		if (!db.isOpen())
 			db = getWritableDatabase();
-		return db.insertOrThrow(table, nullColumnHack, cv);
+		long start = QueryStats.start();
+		long id = db.insertOrThrow(table, nullColumnHack, cv);
+		QueryStats.record("insert into " + table, start, 1);
+		return id;
 	}
 	
 	private int delete(SQLiteDatabase db, String table, String whereClause, String[] whereParams) {
 		if (!db.isOpen())
 			db = getWritableDatabase();
-		return db.delete(table, whereClause, whereParams);
+		long start = QueryStats.start();
+		int result = db.delete(table, whereClause, whereParams);
+		QueryStats.record("delete from " + table + " where " + whereClause, start, result);
+		return result;
+	}
+	
+	/*
+	 * Precompiled statements don't return the sql, pass the string used to compile it.
+	 * The affected rows is not available before API 11, recorded as unknown.
+	 */
+	private static void execute(SQLiteStatement stmt, String sql) {
+		long start = QueryStats.start();
+		stmt.execute();
+		QueryStats.record(sql, start, -1);
+	}
+	
+	private static long executeInsert(SQLiteStatement stmt, String sql) {
+		long start = QueryStats.start();
+		long id = stmt.executeInsert();
+		QueryStats.record(sql, start, id == -1 ? 0 : 1);
+		return id;
+	}
+	
+	private static long simpleQueryForLong(SQLiteStatement stmt, String sql) {
+		long start = QueryStats.start();
+		long result = stmt.simpleQueryForLong();
+		QueryStats.record(sql, start, 1);
+		return result;
+	}
+	
+	private static void execSQL(SQLiteDatabase db, String sql, Object[] args) {
+		long start = QueryStats.start();
+		db.execSQL(sql, args);
+		QueryStats.record(sql, start, -1);
 	}
 }
@@ -1,20 +1,23 @@
 package com.erakk.lnreader.helper;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.util.Date;
+import java.util.concurrent.Callable;
 
 import android.os.AsyncTask;
 import android.util.Log;
 
 import com.erakk.lnreader.Constants;
-import com.erakk.lnreader.callback.CallbackEventData;
 import com.erakk.lnreader.callback.DownloadCallbackEventData;
 import com.erakk.lnreader.callback.ICallbackNotifier;
 import com.erakk.lnreader.model.ImageModel;
@@ -38,13 +41,11 @@ public class DownloadFileTask extends AsyncTask<URL, Integer, AsyncTaskResult<Im
 		}
 	}
 
-	public ImageModel downloadImage(URL url) throws Exception{
+	public ImageModel downloadImage(final URL url) throws Exception{
 		Log.d(TAG, "Start Downloading: " + url.toString());
-		InputStream input = null;
-		OutputStream output = null;
 		String filepath = Constants.IMAGE_ROOT + url.getFile();
 		@SuppressWarnings("deprecation")
-		String decodedUrl = URLDecoder.decode(filepath);
+		final String decodedUrl = URLDecoder.decode(filepath);
 		Log.d(TAG, "Saving to: " + decodedUrl);
 
 		// create dir if not exist
@@ -53,10 +54,30 @@ public class DownloadFileTask extends AsyncTask<URL, Integer, AsyncTaskResult<Im
 		cacheDir.mkdirs();
 		Log.d(TAG, "Path to: " + path);
 
-		File tempFilename = new File(decodedUrl + ".!tmp");
-		File decodedFile = new File(decodedUrl);
+		final File tempFilename = new File(decodedUrl + ".!tmp");
+		final File decodedFile = new File(decodedUrl);
 
+		RetryPolicy.forImage().execute(new Callable<Long>() {
+			public Long call() throws Exception {
+				return download(url, tempFilename, decodedFile, decodedUrl);
+			}
+		}, url.toString(), notifier);
+
+		ImageModel image = new ImageModel();
+		image.setName(url.getFile());
+		image.setUrl(url);
+		image.setPath(filepath);
+		image.setLastCheck(new Date());
+		image.setLastUpdate(new Date());        
+		Log.d(TAG, "Complete Downloading: " + url.toString());
+		return image;
+	}
 
+	/*
+	 * Single attempt, the retry is done by RetryPolicy.
+	 * Return the file size.
+	 */
+	private long download(URL url, File tempFilename, File decodedFile, String decodedUrl) throws IOException {
 		Log.d(TAG, "Start downloading image: " + url);
 
 		// remove temp file if exist
@@ -64,41 +85,48 @@ public class DownloadFileTask extends AsyncTask<URL, Integer, AsyncTaskResult<Im
 			tempFilename.delete();
 		}
 
-		URLConnection connection = url.openConnection();
-		connection.connect();
-
-		// this will be useful so that you can show a typical 0-100% progress bar
-		// I'm not using it AT them moment, but don't remove, might be useful for real.
-		int fileLength = connection.getContentLength();
+		HostLimiter.acquire(url.toString());
+		URLConnection connection = null;
+		try{
+			connection = url.openConnection();
+			connection.setConnectTimeout(Constants.TIMEOUT);
+			connection.setReadTimeout(Constants.TIMEOUT);
 
-		// check saved filesize if already downloaded
-		boolean download = true;
-		if(decodedFile.exists()) {
-			if(decodedFile.length() == fileLength) {
-				download = false;
-				Log.d(TAG, "File exists: " + decodedUrl + " Size: " + fileLength);
+			if(connection instanceof HttpURLConnection) {
+				int status = ((HttpURLConnection) connection).getResponseCode();
+				if(status >= 400) throw RetryPolicy.httpError(status, url.toString());
 			}
-			else {
-				decodedFile.delete();
-				Log.d(TAG, "File exists but different size: " + decodedUrl + " " + decodedFile.length() + "!=" + fileLength);
+
+			// this will be useful so that you can show a typical 0-100% progress bar
+			int fileLength = connection.getContentLength();
+
+			// check saved filesize if already downloaded
+			if(decodedFile.exists()) {
+				if(decodedFile.length() == fileLength) {
+					Log.d(TAG, "File exists: " + decodedUrl + " Size: " + fileLength);
+					return fileLength;
+				}
+				else {
+					decodedFile.delete();
+					Log.d(TAG, "File exists but different size: " + decodedUrl + " " + decodedFile.length() + "!=" + fileLength);
+				}
 			}
-		}
-		if(download) {
-			for(int i = 0 ; i < Constants.IMAGE_DOWNLOAD_RETRY; ++i) {
+
+			// download the file
+			long total = 0;
+			InputStream input = new BufferedInputStream(connection.getInputStream());
+			try{
+				OutputStream output = new FileOutputStream(tempFilename);
 				try{
-					// download the file
-					input = new BufferedInputStream(url.openStream());
-					output = new FileOutputStream(tempFilename);
-		
 					byte data[] = new byte[1024];
-					long total = 0;
 					int count;
 					while ((count = input.read(data)) != -1) {
 						total += count;
 						// publishing the progress....
-						int progress = (int) (total * 100 / fileLength);
-						publishProgress(progress);
-		
+						if(fileLength > 0) {
+							publishProgress((int) (total * 100 / fileLength));
+						}
+
 						//via notifier, C# style :)
 						if(notifier!=null) {
 							DownloadCallbackEventData message = new DownloadCallbackEventData();
@@ -106,42 +134,36 @@ public class DownloadFileTask extends AsyncTask<URL, Integer, AsyncTaskResult<Im
 							message.setTotalSize(fileLength);
 							message.setDownloadedSize(total);
 							message.setFilePath(decodedUrl);
-							notifier.onCallback(message);//"Downloading: " + url + "\nProgress: " + progress + "%");
+							notifier.onCallback(message);
 						}
-						//Log.d(TAG, "Downloading: " + url + " " + progress + "%");
 						output.write(data, 0, count);
 					}
-					Log.d(TAG, "Filesize: " + total);
-					if(total > 0) break;
-				} catch(Exception ex) {
-					if(i > Constants.IMAGE_DOWNLOAD_RETRY) throw ex;
-					else {
-						if(notifier!=null) {
-							notifier.onCallback(new CallbackEventData("Downloading: " + url + "\nRetry: " + i+ "x"));
-						}
-					}
-				}finally{	
-					if(output != null) {
-						output.flush();
-						output.close();
-					}
-					input.close();
+					output.flush();
 				}
+				finally{
+					output.close();
+				}
+			}
+			finally{
+				input.close();
+			}
+			Log.d(TAG, "Filesize: " + total);
+			if(total == 0 || (fileLength > 0 && total != fileLength)) {
+				throw new EOFException("Incomplete download: " + url + " " + total + " of " + fileLength + " bytes");
 			}
+
 			// Rename file
-			tempFilename.renameTo(decodedFile);
+			if(!tempFilename.renameTo(decodedFile)) {
+				throw new IOException("Failed to rename: " + tempFilename.getAbsolutePath());
+			}
 			Log.d(TAG, "Downloading image complete, saved to: " + decodedUrl);
+			return total;
+		}
+		finally{
+			if(connection instanceof HttpURLConnection) {
+				((HttpURLConnection) connection).disconnect();
+			}
+			HostLimiter.release(url.toString());
 		}
-
-		ImageModel image = new ImageModel();
-		image.setName(url.getFile());
-		image.setUrl(url);
-		image.setPath(filepath);
-		image.setLastCheck(new Date());
-		image.setLastUpdate(new Date());        
-		Log.d(TAG, "Complete Downloading: " + url.toString());
-		return image;
 	}
 }
-
-
@@ -0,0 +1,54 @@
+package com.erakk.lnreader.helper;
+
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+import com.erakk.lnreader.Constants;
+
+/**
+ * Limit the concurrent connections to the same host, shared by all the http requests
+ * so the parallel downloads don't flood the wiki.
+ */
+public class HostLimiter {
+	private static final HashMap<String, Semaphore> hosts = new HashMap<String, Semaphore>();
+
+	/**
+	 * Wait until a connection to the url host is available, must be followed by release().
+	 * @param url
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	public static void acquire(String url) throws InterruptedIOException {
+		try {
+			getSemaphore(url).acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for connection: " + url);
+		}
+	}
+
+	public static void release(String url) {
+		getSemaphore(url).release();
+	}
+
+	private static synchronized Semaphore getSemaphore(String url) {
+		String host = getHost(url);
+		Semaphore semaphore = hosts.get(host);
+		if(semaphore == null) {
+			semaphore = new Semaphore(Constants.MAX_CONNECTIONS_PER_HOST, true);
+			hosts.put(host, semaphore);
+		}
+		return semaphore;
+	}
+
+	private static String getHost(String url) {
+		try {
+			return new URL(url).getHost().toLowerCase(Locale.US);
+		} catch (MalformedURLException e) {
+			return "";
+		}
+	}
+}
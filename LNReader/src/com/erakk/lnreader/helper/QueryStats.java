@@ -0,0 +1,237 @@
+package com.erakk.lnreader.helper;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.util.Log;
+
+import com.erakk.lnreader.Constants;
+
+/**
+ * Timing of the sql executed through DBHelper, aggregated per sql shape
+ * (literal values replaced with ?).
+ * Only the last SAMPLE_SIZE timings of each shape are kept for the percentiles.
+ */
+public class QueryStats {
+	private static final String TAG = QueryStats.class.toString();
+	private static final int SAMPLE_SIZE = 256;
+	private static final int MAX_SHAPES = 200;
+
+	private static final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	// the sql strings are rebuilt on every call, cache the shape to skip the regex
+	private static final LinkedHashMap<String, String> shapeCache = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_SHAPES;
+		}
+	};
+	private static boolean enabled = true;
+	// in ms, negative to disable the slow query log
+	private static long slowQueryThreshold = Constants.SLOW_QUERY_THRESHOLD;
+
+	public static class Entry {
+		private final String shape;
+		private final long[] samples = new long[SAMPLE_SIZE];
+		private int sampleCount = 0;
+		private int next = 0;
+		private long count = 0;
+		private long rows = 0;
+		private long totalNanos = 0;
+		private long maxNanos = 0;
+
+		private Entry(String shape) {
+			this.shape = shape;
+		}
+
+		private void add(long nanos, long rowCount) {
+			samples[next] = nanos;
+			next = (next + 1) % SAMPLE_SIZE;
+			if(sampleCount < SAMPLE_SIZE) ++sampleCount;
+			++count;
+			if(rowCount > 0) rows += rowCount;
+			totalNanos += nanos;
+			if(nanos > maxNanos) maxNanos = nanos;
+		}
+
+		private Entry copy() {
+			Entry e = new Entry(shape);
+			System.arraycopy(samples, 0, e.samples, 0, SAMPLE_SIZE);
+			e.sampleCount = sampleCount;
+			e.next = next;
+			e.count = count;
+			e.rows = rows;
+			e.totalNanos = totalNanos;
+			e.maxNanos = maxNanos;
+			return e;
+		}
+
+		public String getShape() {
+			return shape;
+		}
+		public long getCount() {
+			return count;
+		}
+		public long getRows() {
+			return rows;
+		}
+		public double getTotalMillis() {
+			return totalNanos / 1000000.0;
+		}
+		public double getMaxMillis() {
+			return maxNanos / 1000000.0;
+		}
+		/**
+		 * Percentile of the recent samples
+		 * @param percent 0-100
+		 * @return time in ms
+		 */
+		public double getPercentileMillis(int percent) {
+			if(sampleCount == 0) return 0;
+			long[] sorted = new long[sampleCount];
+			System.arraycopy(samples, 0, sorted, 0, sampleCount);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percent / 100.0 * sampleCount) - 1;
+			if(index < 0) index = 0;
+			return sorted[index] / 1000000.0;
+		}
+
+		public String toString() {
+			return String.format("%8d %8d %9.2f %9.2f %9.2f %9.2f %10.1f  %s", count, rows,
+					getPercentileMillis(50), getPercentileMillis(95), getPercentileMillis(99), getMaxMillis(), getTotalMillis(), shape);
+		}
+	}
+
+	public static void setEnabled(boolean value) {
+		enabled = value;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param millis log statement slower than this, negative to disable
+	 */
+	public static void setSlowQueryThreshold(long millis) {
+		slowQueryThreshold = millis;
+	}
+
+	public static long getSlowQueryThreshold() {
+		return slowQueryThreshold;
+	}
+
+	/**
+	 * @return System.nanoTime() if enabled, 0 otherwise
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record a statement executed by DBHelper.
+	 * @param sql statement or table + operation
+	 * @param startNanos value from start()
+	 * @param rows selected or affected rows, -1 if unknown
+	 */
+	public static void record(String sql, long startNanos, long rows) {
+		if(!enabled || startNanos == 0) return;
+		long nanos = System.nanoTime() - startNanos;
+
+		String shape = null;
+		synchronized (entries) {
+			shape = shapeCache.get(sql);
+			if(shape == null) {
+				shape = toShape(sql);
+				shapeCache.put(sql, shape);
+			}
+			Entry entry = entries.get(shape);
+			if(entry == null) {
+				if(entries.size() >= MAX_SHAPES) {
+					Iterator<String> oldest = entries.keySet().iterator();
+					oldest.next();
+					oldest.remove();
+				}
+				entry = new Entry(shape);
+				entries.put(shape, entry);
+			}
+			entry.add(nanos, rows);
+		}
+
+		if(slowQueryThreshold >= 0 && nanos / 1000000 >= slowQueryThreshold) {
+			Log.w(TAG, "Slow query (" + (nanos / 1000000) + " ms, " + rows + " rows): " + shape);
+		}
+	}
+
+	/**
+	 * @return copy of the stats, slowest total time first
+	 */
+	public static ArrayList<Entry> getEntries() {
+		ArrayList<Entry> result = new ArrayList<Entry>();
+		synchronized (entries) {
+			for(Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+				result.add(i.next().copy());
+			}
+		}
+		Collections.sort(result, new Comparator<Entry>() {
+			public int compare(Entry lhs, Entry rhs) {
+				if(lhs.totalNanos == rhs.totalNanos) return 0;
+				return lhs.totalNanos > rhs.totalNanos ? -1 : 1;
+			}
+		});
+		return result;
+	}
+
+	public static void reset() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	/**
+	 * Write the stats to IMAGE_ROOT/query_stats.txt
+	 * @return the written file
+	 * @throws IOException
+	 */
+	public static File dump() throws IOException {
+		return dump(new File(Constants.IMAGE_ROOT, "query_stats.txt"));
+	}
+
+	public static File dump(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		FileWriter writer = new FileWriter(file);
+		try{
+			writer.write("Query stats " + new Date().toString() + "\n");
+			writer.write("   count     rows   p50(ms)   p95(ms)   p99(ms)   max(ms)  total(ms)  sql\n");
+			for(Iterator<Entry> i = getEntries().iterator(); i.hasNext();) {
+				writer.write(i.next().toString());
+				writer.write("\n");
+			}
+		}
+		finally{
+			writer.close();
+		}
+		Log.i(TAG, "Query stats saved to: " + file.getAbsolutePath());
+		return file;
+	}
+
+	/**
+	 * Collapse whitespace and replace literals so the same query is counted together.
+	 * @param sql statement
+	 * @return statement with the string and number literals replaced with ?
+	 */
+	public static String toShape(String sql) {
+		String shape = sql.replaceAll("'(?:[^']|'')*'", "?");
+		shape = shape.replaceAll("\\b\\d+\\b", "?");
+		shape = shape.replaceAll("\\s+", " ");
+		return shape.trim();
+	}
+}
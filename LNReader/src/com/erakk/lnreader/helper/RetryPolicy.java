@@ -0,0 +1,158 @@
+package com.erakk.lnreader.helper;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.CharacterCodingException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.util.Log;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.callback.CallbackEventData;
+import com.erakk.lnreader.callback.ICallbackNotifier;
+
+/**
+ * Retry for all the http requests, with exponential backoff and jitter.
+ * Only the errors which might succeed on the next attempt are retried, see isRetryable().
+ */
+public class RetryPolicy {
+	private static final String TAG = RetryPolicy.class.toString();
+	// jsoup 1.6.3 only report the http status in the message
+	private static final Pattern HTTP_STATUS = Pattern.compile("^(\\d{3}) error loading URL");
+	// jsoup errors for a response which can't be parsed, the same on every attempt
+	private static final String[] NOT_RETRYABLE_MESSAGES = { "Unhandled content type", "Too many redirects" };
+	private static final Random random = new Random();
+
+	private final int maxAttempts;
+	private final long initialDelay;
+	private final long maxDelay;
+	private final long deadline;
+
+	/**
+	 * @param maxAttempts number of attempts, including the first one
+	 * @param initialDelay delay before the first retry in ms, doubled for each retry
+	 * @param maxDelay upper limit of the delay in ms
+	 * @param deadline stop retrying after this in ms, counted from the first attempt, 0 for no limit
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay, long deadline) {
+		this.maxAttempts = maxAttempts;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.deadline = deadline;
+	}
+
+	public static RetryPolicy forPage() {
+		return new RetryPolicy(Constants.PAGE_DOWNLOAD_RETRY, Constants.RETRY_INITIAL_DELAY, Constants.RETRY_MAX_DELAY, Constants.RETRY_DEADLINE);
+	}
+
+	public static RetryPolicy forImage() {
+		return new RetryPolicy(Constants.IMAGE_DOWNLOAD_RETRY, Constants.RETRY_INITIAL_DELAY, Constants.RETRY_MAX_DELAY, Constants.RETRY_DEADLINE);
+	}
+
+	/**
+	 * Run the task until it succeed, a non retryable error is thrown,
+	 * or the attempts / deadline is used up.
+	 * @param task
+	 * @param name shown in the retry message
+	 * @param notifier
+	 * @return task result
+	 * @throws Exception the last error from the task
+	 */
+	public <T> T execute(Callable<T> task, String name, ICallbackNotifier notifier) throws Exception {
+		long start = System.currentTimeMillis();
+		int attempt = 0;
+		while(true) {
+			++attempt;
+			try{
+				return task.call();
+			}
+			catch(Exception ex) {
+				if(!isRetryable(ex)) {
+					Log.d(TAG, "Not retryable: " + name + " " + ex.getMessage());
+					throw ex;
+				}
+				if(attempt >= maxAttempts) {
+					Log.w(TAG, "Giving up after " + attempt + " attempts: " + name);
+					throw ex;
+				}
+				long delay = getDelay(attempt);
+				if(deadline > 0 && System.currentTimeMillis() - start + delay > deadline) {
+					Log.w(TAG, "Deadline reached after " + attempt + " attempts: " + name);
+					throw ex;
+				}
+
+				String message = "Retrying: " + name + " (" + attempt + " of " + maxAttempts + ") in " + (delay / 1000) + "s";
+				if(notifier != null) {
+					notifier.onCallback(new CallbackEventData(message));
+				}
+				Log.d(TAG, message, ex);
+				Thread.sleep(delay);
+			}
+		}
+	}
+
+	/**
+	 * Half of the delay is fixed and the other half is random,
+	 * so the clients failing at the same time don't retry together.
+	 * @param attempt failed attempts so far, start from 1
+	 * @return delay in ms
+	 */
+	public long getDelay(int attempt) {
+		long delay = initialDelay << Math.min(attempt - 1, 30);
+		if(delay <= 0 || delay > maxDelay) delay = maxDelay;
+		return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+	}
+
+	/**
+	 * Network errors, timeout, http 408, 429 and 5xx are retryable.
+	 * Other http status, malformed url, missing file and parsing errors are not.
+	 */
+	public static boolean isRetryable(Throwable ex) {
+		if(ex instanceof SocketTimeoutException) return true;
+		// thread interrupted
+		if(ex instanceof InterruptedIOException) return false;
+		if(ex instanceof MalformedURLException) return false;
+		// 404 from URLConnection
+		if(ex instanceof FileNotFoundException) return false;
+		// unknown or invalid charset of the response
+		if(ex instanceof CharacterCodingException) return false;
+		if(ex instanceof UnsupportedEncodingException) return false;
+		if(ex instanceof IOException) {
+			int status = getHttpStatus((IOException) ex);
+			if(status >= 0) return status == 408 || status == 429 || status >= 500;
+			String message = ex.getMessage();
+			if(message != null) {
+				for(int i = 0; i < NOT_RETRYABLE_MESSAGES.length; ++i) {
+					if(message.startsWith(NOT_RETRYABLE_MESSAGES[i])) return false;
+				}
+			}
+			// connection reset, unknown host, etc.
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return http status from the error message, -1 if not a http status error
+	 */
+	public static int getHttpStatus(IOException ex) {
+		if(ex.getMessage() == null) return -1;
+		Matcher m = HTTP_STATUS.matcher(ex.getMessage());
+		if(m.find()) return Integer.parseInt(m.group(1));
+		return -1;
+	}
+
+	/**
+	 * Error for http status, using the same message as jsoup.
+	 */
+	public static IOException httpError(int status, String url) {
+		return new IOException(status + " error loading URL " + url);
+	}
+}
@@ -0,0 +1,60 @@
+package com.erakk.lnreader.helper;
+
+import java.util.Date;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.model.PageScheduleModel;
+
+/**
+ * Per page check interval learned from the update history.
+ * The time between updates is averaged (EWMA), the next check is a fraction of it,
+ * so an active series is checked often. If the page is not updated for longer than
+ * the average, e.g. completed series, the time since the last update is used instead
+ * and the interval keeps growing up to REVALIDATE_MAX_TTL.
+ */
+public class RevalidationPolicy {
+
+	/**
+	 * Update the schedule after the page is checked.
+	 * @param schedule saved schedule, or new one for the first check
+	 * @param lastUpdate update time from the wiki, null if unknown
+	 * @param now check time
+	 */
+	public static void onChecked(PageScheduleModel schedule, Date lastUpdate, Date now) {
+		Date previous = schedule.getLastUpdate();
+		if(previous != null && lastUpdate != null && lastUpdate.after(previous)) {
+			long interval = lastUpdate.getTime() - previous.getTime();
+			if(schedule.getUpdateInterval() <= 0) {
+				schedule.setUpdateInterval(interval);
+			}
+			else {
+				schedule.setUpdateInterval((long) (Constants.REVALIDATE_EWMA_WEIGHT * interval
+						+ (1 - Constants.REVALIDATE_EWMA_WEIGHT) * schedule.getUpdateInterval()));
+			}
+			schedule.setUpdateCount(schedule.getUpdateCount() + 1);
+		}
+		if(lastUpdate != null && (previous == null || lastUpdate.after(previous))) {
+			schedule.setLastUpdate(lastUpdate);
+		}
+		schedule.setLastCheck(now);
+		schedule.setNextCheck(new Date(now.getTime() + getTtl(schedule, now)));
+	}
+
+	/**
+	 * @return time until the next check in ms
+	 */
+	public static long getTtl(PageScheduleModel schedule, Date now) {
+		long estimate = schedule.getUpdateInterval();
+		if(schedule.getLastUpdate() != null) {
+			// quiet for longer than usual, likely paused or completed
+			long sinceUpdate = now.getTime() - schedule.getLastUpdate().getTime();
+			if(sinceUpdate > estimate) estimate = sinceUpdate;
+		}
+		if(estimate <= 0) return Constants.CHECK_INTERVAL * 24 * 3600 * 1000L;
+
+		long ttl = (long) (estimate * Constants.REVALIDATE_TTL_FACTOR);
+		if(ttl < Constants.REVALIDATE_MIN_TTL) ttl = Constants.REVALIDATE_MIN_TTL;
+		if(ttl > Constants.REVALIDATE_MAX_TTL) ttl = Constants.REVALIDATE_MAX_TTL;
+		return ttl;
+	}
+}
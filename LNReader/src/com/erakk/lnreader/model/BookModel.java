@@ -14,6 +14,7 @@ public class BookModel {
 	private Date lastUpdate;
 	private Date lastCheck;
 	private int order;	
+	private int novelId;
 	
 	private NovelCollectionModel parent;
 	
@@ -53,12 +54,27 @@ public class BookModel {
 	public void setOrder(int order) {
 		this.order = order;
 	}
+	/**
+	 * pages._id of the novel page.
+	 */
+	public int getNovelId() {
+		return novelId;
+	}
+	public void setNovelId(int novelId) {
+		this.novelId = novelId;
+	}
 	public ArrayList<PageModel> getChapterCollection() {
 		if(chapterCollection == null){
 			chapterCollection = NovelsDao.getInstance().getChapterCollection(page, title, this);
 		}
 		return chapterCollection;
 	}
+	/**
+	 * Chapters without loading from db, null if not loaded yet.
+	 */
+	public ArrayList<PageModel> getLoadedChapterCollection() {
+		return chapterCollection;
+	}
 	public void setChapterCollection(ArrayList<PageModel> chapterCollection) {
 		this.chapterCollection = chapterCollection;
 	}
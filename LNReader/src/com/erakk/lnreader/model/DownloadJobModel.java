@@ -0,0 +1,75 @@
+package com.erakk.lnreader.model;
+
+import java.util.Date;
+
+/**
+ * One item of the download queue, see DownloadService.
+ * State: PENDING -> RUNNING -> DONE, or back to PENDING on error until MAX_ATTEMPTS, then FAILED.
+ */
+public class DownloadJobModel {
+	public static final String TYPE_CHAPTER = "chapter";
+	public static final String TYPE_IMAGE = "image";
+
+	public static final int STATE_PENDING = 0;
+	public static final int STATE_RUNNING = 1;
+	public static final int STATE_DONE = 2;
+	public static final int STATE_FAILED = 3;
+
+	private int id;
+	private String page;
+	private String type;
+	private int state;
+	private int attempts;
+	private String lastError;
+	private Date lastUpdate;
+
+	public int getId() {
+		return id;
+	}
+	public void setId(int id) {
+		this.id = id;
+	}
+	/**
+	 * @return chapter page, or File: page for image
+	 */
+	public String getPage() {
+		return page;
+	}
+	public void setPage(String page) {
+		this.page = page;
+	}
+	public String getType() {
+		return type;
+	}
+	public void setType(String type) {
+		this.type = type;
+	}
+	public int getState() {
+		return state;
+	}
+	public void setState(int state) {
+		this.state = state;
+	}
+	public int getAttempts() {
+		return attempts;
+	}
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+	public String getLastError() {
+		return lastError;
+	}
+	public void setLastError(String lastError) {
+		this.lastError = lastError;
+	}
+	public Date getLastUpdate() {
+		return lastUpdate;
+	}
+	public void setLastUpdate(Date lastUpdate) {
+		this.lastUpdate = lastUpdate;
+	}
+
+	public String toString() {
+		return type + " " + page + " state: " + state + " attempts: " + attempts;
+	}
+}
@@ -0,0 +1,95 @@
+package com.erakk.lnreader.model;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * ETag / Last-Modified of the last downloaded response, used to send conditional request.
+ * Only saved together with the parsed result, so a 304 always means the db copy is current.
+ */
+public class HttpValidatorModel {
+	private String url;
+	private String etag;
+	private String lastModified;
+	private long size;
+	private long bytesSaved;
+	private Date lastCheck;
+
+	public HttpValidatorModel(String url) {
+		this.url = url;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+	public String getEtag() {
+		return etag;
+	}
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+	public String getLastModified() {
+		return lastModified;
+	}
+	public void setLastModified(String lastModified) {
+		this.lastModified = lastModified;
+	}
+	/**
+	 * @return Last-Modified as date, null if not sent or not valid
+	 */
+	public Date getLastModifiedDate() {
+		if(lastModified == null) return null;
+		//Sun, 06 Nov 1994 08:49:37 GMT
+		DateFormat formatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		formatter.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return formatter.parse(lastModified);
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+	/**
+	 * @return size of the last full response in bytes
+	 */
+	public long getSize() {
+		return size;
+	}
+	public void setSize(long size) {
+		this.size = size;
+	}
+	/**
+	 * @return total bytes not downloaded because of 304 response
+	 */
+	public long getBytesSaved() {
+		return bytesSaved;
+	}
+	public void setBytesSaved(long bytesSaved) {
+		this.bytesSaved = bytesSaved;
+	}
+	public Date getLastCheck() {
+		return lastCheck;
+	}
+	public void setLastCheck(Date lastCheck) {
+		this.lastCheck = lastCheck;
+	}
+
+	public boolean hasValidator() {
+		return etag != null || lastModified != null;
+	}
+
+	/**
+	 * Forget the validator, the next request will download the full page.
+	 */
+	public void clear() {
+		etag = null;
+		lastModified = null;
+	}
+
+	public String toString() {
+		return url + " etag: " + etag + " last-modified: " + lastModified;
+	}
+}
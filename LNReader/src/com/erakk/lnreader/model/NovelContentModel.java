@@ -8,6 +8,8 @@ import com.erakk.lnreader.dao.NovelsDao;
 public class NovelContentModel {
 	private int id;
 	private String content;
+	// not null if the content is saved to file, see ChapterFileStore
+	private String contentPath;
 	private String page;
 	private PageModel pageModel;
 	
@@ -32,6 +34,12 @@ public class NovelContentModel {
 	public void setContent(String content) {
 		this.content = content;
 	}
+	public String getContentPath() {
+		return contentPath;
+	}
+	public void setContentPath(String contentPath) {
+		this.contentPath = contentPath;
+	}
 	public String getPage() {
 		return page;
 	}
@@ -0,0 +1,51 @@
+package com.erakk.lnreader.model;
+
+/**
+ * Pending change of the PageModel flags, null means unchanged.
+ * Used by the NovelsDao write-behind queue.
+ */
+public class PageFlagModel {
+	private String page;
+	private Boolean isWatched;
+	private Boolean isFinishedRead;
+
+	public PageFlagModel(String page) {
+		this.page = page;
+	}
+
+	public String getPage() {
+		return page;
+	}
+	public Boolean isWatched() {
+		return isWatched;
+	}
+	public void setWatched(Boolean isWatched) {
+		this.isWatched = isWatched;
+	}
+	public Boolean isFinishedRead() {
+		return isFinishedRead;
+	}
+	public void setFinishedRead(Boolean isFinishedRead) {
+		this.isFinishedRead = isFinishedRead;
+	}
+
+	/**
+	 * Merge newer change into this one.
+	 */
+	public void merge(PageFlagModel newer) {
+		if(newer.isWatched != null) this.isWatched = newer.isWatched;
+		if(newer.isFinishedRead != null) this.isFinishedRead = newer.isFinishedRead;
+	}
+
+	/**
+	 * Apply the pending flags to the page read from db.
+	 */
+	public void applyTo(PageModel pageModel) {
+		if(isWatched != null) pageModel.setWatched(isWatched);
+		if(isFinishedRead != null) pageModel.setFinishedRead(isFinishedRead);
+	}
+
+	public String toString() {
+		return page + " watched: " + isWatched + " read: " + isFinishedRead;
+	}
+}
@@ -25,6 +25,7 @@ public class PageModel{
 	private boolean isFinishedRead;
 	private boolean isDownloaded;
 	private BookModel book;
+	private int bookId;
 	private int order;
 	
 	// not saved to db
@@ -92,6 +93,9 @@ public class PageModel{
 		this.order = order;
 	}
 	public PageModel getParentPageModel() throws Exception {
+		if(this.parentPageModel == null && this.bookId > 0) {
+			this.parentPageModel = NovelsDao.getInstance().getNovelPageByBookId(this.bookId);
+		}
 		if(this.parentPageModel == null) {
 			NovelsDao dao = NovelsDao.getInstance();
 			PageModel tempPage = new PageModel();
@@ -137,7 +141,7 @@ public class PageModel{
 					NovelCollectionModel details = dao.getNovelDetails(getParentPageModel(), null);
 					for(Iterator<BookModel> iBook = details.getBookCollections().iterator();iBook.hasNext();) {
 						BookModel tempBook = iBook.next();
-						if(tempBook.getTitle().equals(bookTitle)){
+						if((bookId > 0 && tempBook.getId() == bookId) || (bookId <= 0 && tempBook.getTitle().equals(bookTitle))){
 							this.book = tempBook;
 							break;
 						}						
@@ -154,10 +158,44 @@ public class PageModel{
 	public void setBook(BookModel book) {
 		this.book = book;
 	}
+	/**
+	 * novel_books._id of the chapter, 0 if not a chapter or not linked yet.
+	 */
+	public int getBookId() {
+		return bookId;
+	}
+	public void setBookId(int bookId) {
+		this.bookId = bookId;
+	}
 	public boolean isUpdated() {
 		return isUpdated;
 	}
 	public void setUpdated(boolean isUpdated) {
 		this.isUpdated = isUpdated;
 	}
+	
+	/**
+	 * Shallow copy, the instance from NovelsDao.getPageModel() is shared by the page cache,
+	 * copy it before changing the values to be saved.
+	 */
+	public PageModel copy() {
+		PageModel copy = new PageModel();
+		copy.id = id;
+		copy.page = page;
+		copy.title = title;
+		copy.type = type;
+		copy.lastUpdate = lastUpdate;
+		copy.parent = parent;
+		copy.parentPageModel = parentPageModel;
+		copy.pageModel = pageModel;
+		copy.lastCheck = lastCheck;
+		copy.isWatched = isWatched;
+		copy.isFinishedRead = isFinishedRead;
+		copy.isDownloaded = isDownloaded;
+		copy.book = book;
+		copy.bookId = bookId;
+		copy.order = order;
+		copy.isUpdated = isUpdated;
+		return copy;
+	}
 }
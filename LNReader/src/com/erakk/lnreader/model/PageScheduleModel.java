@@ -0,0 +1,70 @@
+package com.erakk.lnreader.model;
+
+import java.util.Date;
+
+/**
+ * Observed update history of a page and the time it should be checked again, see RevalidationPolicy.
+ */
+public class PageScheduleModel {
+	private String page;
+	private long updateInterval;
+	private int updateCount;
+	private Date lastUpdate;
+	private Date lastCheck;
+	private Date nextCheck;
+
+	public PageScheduleModel(String page) {
+		this.page = page;
+	}
+
+	public String getPage() {
+		return page;
+	}
+	/**
+	 * @return moving average of the time between the updates in ms, 0 if not known yet
+	 */
+	public long getUpdateInterval() {
+		return updateInterval;
+	}
+	public void setUpdateInterval(long updateInterval) {
+		this.updateInterval = updateInterval;
+	}
+	/**
+	 * @return number of updates seen since the first check
+	 */
+	public int getUpdateCount() {
+		return updateCount;
+	}
+	public void setUpdateCount(int updateCount) {
+		this.updateCount = updateCount;
+	}
+	/**
+	 * @return last update time seen in the wiki
+	 */
+	public Date getLastUpdate() {
+		return lastUpdate;
+	}
+	public void setLastUpdate(Date lastUpdate) {
+		this.lastUpdate = lastUpdate;
+	}
+	public Date getLastCheck() {
+		return lastCheck;
+	}
+	public void setLastCheck(Date lastCheck) {
+		this.lastCheck = lastCheck;
+	}
+	public Date getNextCheck() {
+		return nextCheck;
+	}
+	public void setNextCheck(Date nextCheck) {
+		this.nextCheck = nextCheck;
+	}
+
+	public boolean isDue(Date now) {
+		return nextCheck == null || !now.before(nextCheck);
+	}
+
+	public String toString() {
+		return page + " interval: " + (updateInterval / 1000) + "s updates: " + updateCount + " next check: " + nextCheck;
+	}
+}
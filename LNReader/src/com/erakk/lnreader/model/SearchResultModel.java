@@ -0,0 +1,42 @@
+package com.erakk.lnreader.model;
+
+public class SearchResultModel {
+	private String page;
+	private String title;
+	private String snippet;
+	private int offset;
+
+	public String getPage() {
+		return page;
+	}
+	public void setPage(String page) {
+		this.page = page;
+	}
+	public String getTitle() {
+		return title;
+	}
+	public void setTitle(String title) {
+		this.title = title;
+	}
+	/**
+	 * Matched text with the surrounding words, match is wrapped with <b></b>
+	 */
+	public String getSnippet() {
+		return snippet;
+	}
+	public void setSnippet(String snippet) {
+		this.snippet = snippet;
+	}
+	/**
+	 * Byte offset of the first match in the chapter plain text, -1 if unknown
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	public void setOffset(int offset) {
+		this.offset = offset;
+	}
+	public String toString(){
+		return page;
+	}
+}
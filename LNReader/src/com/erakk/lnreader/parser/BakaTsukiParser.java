@@ -5,11 +5,14 @@ package com.erakk.lnreader.parser;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLDecoder;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.TimeZone;
 
 import org.jsoup.Jsoup;
@@ -20,7 +23,6 @@ import org.jsoup.select.Elements;
 import android.util.Log;
 
 import com.erakk.lnreader.Constants;
-import com.erakk.lnreader.dao.NovelsDao;
 import com.erakk.lnreader.model.BookModel;
 import com.erakk.lnreader.model.ImageModel;
 import com.erakk.lnreader.model.NovelCollectionModel;
@@ -55,9 +57,65 @@ public class BakaTsukiParser {
 		return pageModel;				
 	}
 	
+	/**
+	 * parse page info of multiple pages from Wiki API
+	 * @param pages requested pages
+	 * @param doc parsed api response for all the pages
+	 * @return new PageModel with title and last update in the same order as pages, null if not found in the wiki
+	 */
+	public static ArrayList<PageModel> parsePageAPI(List<PageModel> pages, Document doc) throws Exception {
+		DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+		// the api return the normalized title, e.g. "_" replaced by space
+		HashMap<String, String> normalized = new HashMap<String, String>();
+		for(Iterator<Element> i = doc.select("normalized n").iterator(); i.hasNext();) {
+			Element n = i.next();
+			normalized.put(n.attr("from"), n.attr("to"));
+		}
+		HashMap<String, Element> infos = new HashMap<String, Element>();
+		for(Iterator<Element> i = doc.select("page").iterator(); i.hasNext();) {
+			Element info = i.next();
+			// missing or invalid page has no touched attribute
+			if(!info.hasAttr("touched")) continue;
+			infos.put(info.attr("title"), info);
+		}
+
+		ArrayList<PageModel> result = new ArrayList<PageModel>();
+		for(Iterator<PageModel> i = pages.iterator(); i.hasNext();) {
+			PageModel page = i.next();
+			String title = toApiTitle(page.getPage());
+			if(normalized.containsKey(title)) title = normalized.get(title);
+			Element info = infos.get(title);
+			if(info == null) {
+				Log.w(TAG, "parsePageAPI not found: " + page.getPage());
+				result.add(null);
+				continue;
+			}
+			PageModel pageModel = new PageModel();
+			pageModel.setPage(page.getPage());
+			pageModel.setTitle(info.attr("title"));
+			pageModel.setLastUpdate(formatter.parse(info.attr("touched")));
+			result.add(pageModel);
+		}
+		Log.d(TAG, "parsePageAPI found " + infos.size() + " of " + pages.size() + " pages");
+		return result;
+	}
+
+	/*
+	 * Page name as received by the api, the page is taken from the url so it might be encoded.
+	 */
+	private static String toApiTitle(String page) {
+		try {
+			return URLDecoder.decode(page.replace("+", "%2B"), "UTF-8");
+		} catch (Exception e) {
+			return page;
+		}
+	}
+
 	/**
 	 * @param doc parsed page from Main_Page
-	 * @return list of novels in PageModel
+	 * @return list of novels in PageModel, the last update and flags are merged by NovelsDao
 	 */
 	public static ArrayList<PageModel> ParseNovelList(Document doc) {
 		ArrayList<PageModel> result = new ArrayList<PageModel>();
@@ -79,15 +137,6 @@ public class BakaTsukiParser {
 				page.setTitle(link.text());
 				
 				page.setLastUpdate(new Date(0)); // set to min value if never open
-				try {
-					//always get the page date
-					PageModel temp = NovelsDao.getInstance().getPageModel(page, null);
-					if(temp != null) {
-						page.setLastUpdate(temp.getLastUpdate());
-					}
-				} catch (Exception e) {
-					Log.e(TAG, "Error when getting pageModel: " + page.getPage(), e);
-				}				
 				page.setLastCheck(new Date());
 				page.setParent("Main_Page");
 				page.setOrder(order);
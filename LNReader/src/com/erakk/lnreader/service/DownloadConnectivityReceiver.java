@@ -0,0 +1,33 @@
+package com.erakk.lnreader.service;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import com.erakk.lnreader.LNReaderApplication;
+
+/**
+ * Resume the download queue when the network is back, see DownloadService.
+ * Disabled in the manifest, only enabled while the queue is paused for no network,
+ * so the app is not woken up on every connectivity change.
+ */
+public class DownloadConnectivityReceiver extends BroadcastReceiver {
+
+	@Override
+	public void onReceive(Context context, Intent intent) {
+		if(!LNReaderApplication.getInstance().isOnline()) return;
+		Log.d(DownloadService.TAG, "Network is back, resuming download queue");
+		setEnabled(context, false);
+		DownloadService.start(context);
+	}
+
+	public static void setEnabled(Context context, boolean enabled) {
+		ComponentName receiver = new ComponentName(context, DownloadConnectivityReceiver.class);
+		context.getPackageManager().setComponentEnabledSetting(receiver,
+				enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
+				PackageManager.DONT_KILL_APP);
+	}
+}
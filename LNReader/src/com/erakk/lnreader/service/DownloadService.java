@@ -0,0 +1,241 @@
+package com.erakk.lnreader.service;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IBinder;
+import android.util.Log;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.LNReaderApplication;
+import com.erakk.lnreader.activity.MainActivity;
+import com.erakk.lnreader.callback.CallbackEventData;
+import com.erakk.lnreader.callback.DownloadJobCallbackEventData;
+import com.erakk.lnreader.callback.ICallbackEventData;
+import com.erakk.lnreader.callback.ICallbackNotifier;
+import com.erakk.lnreader.dao.ChapterDownloader;
+import com.erakk.lnreader.dao.NovelsDao;
+import com.erakk.lnreader.model.DownloadJobModel;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Run the download queue saved in the db, see NovelsDao.addDownloads().
+ * Each item is marked as soon as its chapter is saved, and the service is sticky,
+ * so the queue continue after the process is killed: the items left running
+ * are set back to pending when the worker starts again.
+ * Without network the service stops, and is started again by DownloadConnectivityReceiver.
+ */
+public class DownloadService extends Service {
+	public final static String TAG = DownloadService.class.toString();
+	private static final int NOTIFICATION_ID = 1;
+	private static ICallbackNotifier listener = null;
+
+	private Thread worker = null;
+	private int lastStartId = 0;
+	private long lastNotification = 0;
+
+	public static void start(Context context) {
+		context.startService(new Intent(context, DownloadService.class));
+	}
+
+	/**
+	 * Receive the progress and a DownloadJobCallbackEventData for each finished item.
+	 * Called from the worker thread, set to null when the activity is paused.
+	 */
+	public static void setListener(ICallbackNotifier notifier) {
+		listener = notifier;
+	}
+
+	@Override
+	public synchronized int onStartCommand(Intent intent, int flags, int startId) {
+		Log.d(TAG, "onStartCommand");
+		lastStartId = startId;
+		if(worker == null) {
+			worker = new Thread(new Runnable() {
+				public void run() {
+					runQueue();
+				}
+			}, "DownloadService");
+			worker.start();
+		}
+		return Service.START_STICKY;
+	}
+
+	@Override
+	public IBinder onBind(Intent intent) {
+		return null;
+	}
+
+	@Override
+	public synchronized void onDestroy() {
+		Log.d(TAG, "onDestroy");
+		if(worker != null) {
+			// the running items are set back to pending on the next start
+			worker.interrupt();
+			worker = null;
+		}
+		cancelNotification();
+		super.onDestroy();
+	}
+
+	private void runQueue() {
+		NovelsDao dao = NovelsDao.getInstance(getApplicationContext());
+		try{
+			int reset = dao.resetRunningDownloads();
+			if(reset > 0) Log.i(TAG, "Resuming downloads: " + reset);
+
+			while(!Thread.currentThread().isInterrupted()) {
+				ArrayList<DownloadJobModel> jobs = new ArrayList<DownloadJobModel>();
+				boolean online = LNReaderApplication.getInstance().isOnline();
+				if(online) {
+					jobs = dao.takeDownloads(Constants.DOWNLOAD_QUEUE_BATCH);
+				}
+
+				if(jobs.isEmpty()) {
+					if(online) {
+						DownloadConnectivityReceiver.setEnabled(this, false);
+						int cleared = dao.clearFinishedDownloads();
+						Log.d(TAG, "Download queue finished, cleared: " + cleared);
+					}
+					else if(dao.getDownloadCount(DownloadJobModel.STATE_PENDING) > 0) {
+						Log.w(TAG, "No network, download queue paused");
+						DownloadConnectivityReceiver.setEnabled(this, true);
+						// connected before the receiver is enabled, the broadcast is missed
+						if(LNReaderApplication.getInstance().isOnline()) continue;
+					}
+					synchronized (this) {
+						// don't stop if started again in the mean time, the new items might be missed
+						if(stopSelfResult(lastStartId)) {
+							worker = null;
+							break;
+						}
+					}
+					continue;
+				}
+				runJobs(dao, jobs);
+			}
+		}
+		catch(Exception ex) {
+			Log.e(TAG, "Download queue stopped", ex);
+			stopSelf();
+		}
+		finally{
+			cancelNotification();
+		}
+	}
+
+	private void runJobs(final NovelsDao dao, ArrayList<DownloadJobModel> jobs) throws Exception {
+		final ArrayList<DownloadJobModel> chapterJobs = new ArrayList<DownloadJobModel>();
+		ArrayList<PageModel> chapters = new ArrayList<PageModel>();
+		for(Iterator<DownloadJobModel> i = jobs.iterator(); i.hasNext();) {
+			DownloadJobModel job = i.next();
+			try{
+				if(DownloadJobModel.TYPE_IMAGE.equals(job.getType())) {
+					dao.getImageModelFromInternet(job.getPage(), progress);
+					finish(dao, job, null);
+					continue;
+				}
+				// saved page is needed for the title
+				PageModel page = new PageModel();
+				page.setPage(job.getPage());
+				chapters.add(dao.getPageModel(page, null));
+				chapterJobs.add(job);
+			}
+			catch(Exception ex) {
+				finish(dao, job, ex);
+			}
+		}
+		if(chapters.isEmpty()) return;
+
+		ChapterDownloader downloader = new ChapterDownloader(dao, progress, Constants.DOWNLOAD_THREADS) {
+			@Override
+			protected void onChapterSaved(int index, NovelContentModel content) {
+				finish(dao, chapterJobs.get(index), null);
+			}
+			@Override
+			protected void onChapterFailed(int index, Exception ex) {
+				finish(dao, chapterJobs.get(index), ex);
+			}
+		};
+		try{
+			downloader.download(chapters);
+		}
+		catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		catch(Exception ex) {
+			// the chapters are already marked, except if failed before starting, e.g. getting the page info
+			for(Iterator<DownloadJobModel> i = chapterJobs.iterator(); i.hasNext();) {
+				DownloadJobModel job = i.next();
+				if(job.getState() == DownloadJobModel.STATE_RUNNING) finish(dao, job, ex);
+			}
+		}
+	}
+
+	/*
+	 * Checkpoint of the item, failed item is queued again until DOWNLOAD_QUEUE_MAX_ATTEMPTS.
+	 */
+	private void finish(NovelsDao dao, DownloadJobModel job, Exception ex) {
+		if(ex == null) {
+			job.setState(DownloadJobModel.STATE_DONE);
+			job.setLastError(null);
+		}
+		else if(ex instanceof InterruptedIOException || Thread.currentThread().isInterrupted()) {
+			// stopped, not counted as attempt
+			job.setState(DownloadJobModel.STATE_PENDING);
+		}
+		else {
+			job.setAttempts(job.getAttempts() + 1);
+			job.setLastError(ex.getMessage());
+			if(job.getAttempts() >= Constants.DOWNLOAD_QUEUE_MAX_ATTEMPTS)
+				job.setState(DownloadJobModel.STATE_FAILED);
+			else
+				job.setState(DownloadJobModel.STATE_PENDING);
+			Log.w(TAG, "Download failed: " + job.toString() + " " + ex.getMessage());
+		}
+		dao.updateDownload(job);
+
+		ICallbackNotifier notifier = listener;
+		if(notifier != null) {
+			String message = (job.getState() == DownloadJobModel.STATE_DONE ? "Downloaded: " : "Failed: ") + job.getPage();
+			notifier.onCallback(new DownloadJobCallbackEventData(message, job));
+		}
+	}
+
+	private final ICallbackNotifier progress = new ICallbackNotifier() {
+		public void onCallback(ICallbackEventData message) {
+			updateNotification(message.getMessage());
+			ICallbackNotifier notifier = listener;
+			if(notifier != null) notifier.onCallback(new CallbackEventData(message.getMessage()));
+		}
+	};
+
+	@SuppressWarnings("deprecation")
+	private void updateNotification(String message) {
+		// at most once per second, the progress is sent for every image
+		long now = System.currentTimeMillis();
+		synchronized (this) {
+			if(now - lastNotification < 1000) return;
+			lastNotification = now;
+		}
+		NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+		Notification notification = new Notification(android.R.drawable.stat_sys_download, "Downloading chapters", now);
+		notification.flags |= Notification.FLAG_ONGOING_EVENT;
+		PendingIntent contentIntent = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), 0);
+		notification.setLatestEventInfo(getApplicationContext(), "Downloading chapters", message, contentIntent);
+		manager.notify(NOTIFICATION_ID, notification);
+	}
+
+	private void cancelNotification() {
+		NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+		manager.cancel(NOTIFICATION_ID);
+	}
+}
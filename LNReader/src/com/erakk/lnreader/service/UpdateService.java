@@ -172,11 +172,20 @@ public class UpdateService extends Service {
 		
 		// check only watched novel
 		ArrayList<PageModel> watchedNovels = dao.getWatchedNovel();
+		if(watchedNovels != null && !force) {
+			// skip the novels not likely updated, from their update history
+			watchedNovels = dao.getPagesDueForCheck(watchedNovels);
+		}
 		if(watchedNovels != null){
-			for(Iterator<PageModel> iNovels = watchedNovels.iterator(); iNovels.hasNext();){
-				// get last update date from internet
-				PageModel novel = iNovels.next();
-				PageModel updatedNovel = dao.getPageModelFromInternet(novel.getPageModel(), null);
+			// get last update date of all novels from internet, in batches
+			ArrayList<PageModel> updatedNovels = dao.getPageModelsFromInternet(watchedNovels, null);
+			for(int n = 0; n < watchedNovels.size(); ++n){
+				PageModel novel = watchedNovels.get(n);
+				PageModel updatedNovel = updatedNovels.get(n);
+				if(updatedNovel == null) {
+					Log.w(TAG, "Novel not found in the wiki: " + novel.getPage());
+					continue;
+				}
 				
 				// different timestamp
 				if(force || !novel.getLastUpdate().equals(updatedNovel.getLastUpdate())) {
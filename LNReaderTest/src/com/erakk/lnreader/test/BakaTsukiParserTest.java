@@ -0,0 +1,86 @@
+package com.erakk.lnreader.test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import com.erakk.lnreader.model.PageModel;
+import com.erakk.lnreader.parser.BakaTsukiParser;
+
+public class BakaTsukiParserTest extends TestCase {
+	// api.php?action=query&prop=info&format=xml&titles=Sword_Art_Online|Missing_Page|Baka_to_Tesuto_to_Sh%C5%8Dkanj%C5%AB
+	private static final String PAGE_INFOS = "<?xml version=\"1.0\"?><api><query>"
+			+ "<normalized>"
+			+ "<n from=\"Sword_Art_Online\" to=\"Sword Art Online\" />"
+			+ "<n from=\"Missing_Page\" to=\"Missing Page\" />"
+			+ "<n from=\"Baka_to_Tesuto_to_Shōkanjū\" to=\"Baka to Tesuto to Shōkanjū\" />"
+			+ "</normalized>"
+			+ "<pages>"
+			+ "<page ns=\"0\" title=\"Missing Page\" missing=\"\" />"
+			+ "<page pageid=\"2\" ns=\"0\" title=\"Baka to Tesuto to Shōkanjū\" touched=\"2012-08-03T02:41:50Z\" lastrevid=\"20\" counter=\"0\" length=\"100\" />"
+			+ "<page pageid=\"1\" ns=\"0\" title=\"Sword Art Online\" touched=\"2013-01-02T03:04:05Z\" lastrevid=\"10\" counter=\"0\" length=\"100\" />"
+			+ "</pages>"
+			+ "</query></api>";
+
+	public void testParsePageInfosInRequestOrder() throws Exception {
+		ArrayList<PageModel> pages = new ArrayList<PageModel>();
+		pages.add(page("Sword_Art_Online"));
+		pages.add(page("Missing_Page"));
+		pages.add(page("Baka_to_Tesuto_to_Sh%C5%8Dkanj%C5%AB"));
+
+		ArrayList<PageModel> result = BakaTsukiParser.parsePageAPI(pages, Jsoup.parse(PAGE_INFOS));
+		assertEquals(3, result.size());
+
+		PageModel sao = result.get(0);
+		assertEquals("Sword_Art_Online", sao.getPage());
+		assertEquals("Sword Art Online", sao.getTitle());
+		assertEquals(utc("2013-01-02T03:04:05Z"), sao.getLastUpdate());
+
+		// missing page has no touched attribute
+		assertNull(result.get(1));
+
+		// the page from the url is encoded
+		PageModel baka = result.get(2);
+		assertEquals("Baka_to_Tesuto_to_Sh%C5%8Dkanj%C5%AB", baka.getPage());
+		assertEquals("Baka to Tesuto to Shōkanjū", baka.getTitle());
+		assertEquals(utc("2012-08-03T02:41:50Z"), baka.getLastUpdate());
+	}
+
+	public void testResultIsNewPageModel() throws Exception {
+		ArrayList<PageModel> pages = new ArrayList<PageModel>();
+		PageModel page = page("Sword_Art_Online");
+		page.setTitle("Old title");
+		pages.add(page);
+
+		ArrayList<PageModel> result = BakaTsukiParser.parsePageAPI(pages, Jsoup.parse(PAGE_INFOS));
+		assertNotSame(page, result.get(0));
+		assertEquals("Old title", page.getTitle());
+		assertNull(page.getLastUpdate());
+	}
+
+	public void testPageNotInResponse() throws Exception {
+		ArrayList<PageModel> pages = new ArrayList<PageModel>();
+		pages.add(page("Not_Requested"));
+		ArrayList<PageModel> result = BakaTsukiParser.parsePageAPI(pages, Jsoup.parse(PAGE_INFOS));
+		assertEquals(1, result.size());
+		assertNull(result.get(0));
+	}
+
+	private static PageModel page(String name) {
+		PageModel page = new PageModel();
+		page.setPage(name);
+		return page;
+	}
+
+	private static Date utc(String value) throws Exception {
+		SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return formatter.parse(value);
+	}
+}
@@ -0,0 +1,119 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+
+import android.util.Log;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.dao.ChapterDownloader;
+import com.erakk.lnreader.helper.BakaTsukiFetcher;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * ChapterDownloader against a local stub server with a fixed latency on each request,
+ * one thread compared to Constants.DOWNLOAD_THREADS.
+ * The chapters have no images: the parser points them to Constants.BASE_URL, not to the stub.
+ */
+public class ChapterDownloaderTest extends NovelsDaoTestCase {
+	private static final String TAG = ChapterDownloaderTest.class.toString();
+	private static final String NOVEL = "LNReaderTest";
+	private static final String BOOK = "Volume 1";
+	private static final int CHAPTERS = 40;
+	private static final long LATENCY = 100;
+
+	private StubServer server;
+	private ArrayList<PageModel> chapters;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = new StubServer(new StubServer.Handler() {
+			public StubServer.Response handle(StubServer.Request request) {
+				if(request.path.startsWith("/project/api.php?action=query&prop=info")) {
+					return StubServer.Response.xml(pageInfoXml(request.path.substring(request.path.indexOf("titles=") + 7).split("\\|")));
+				}
+				if(request.path.startsWith("/project/api.php?action=parse")) {
+					String page = request.path.substring(request.path.indexOf("page=") + 5);
+					return StubServer.Response.xml(FetcherTest.contentXml(page.replace('_', ' '), NovelContentTest.randomHtml(20000)));
+				}
+				return StubServer.Response.status(404);
+			}
+		});
+		server.start();
+		server.setLatency(LATENCY);
+		BakaTsukiFetcher.setBaseUrl(server.getBaseUrl());
+
+		dbh.insertOrUpdatePageModel(db, novel(NOVEL));
+		chapters = new ArrayList<PageModel>();
+		for(int i = 0; i < CHAPTERS; ++i) {
+			PageModel chapter = chapter(NOVEL + "_Volume_1_Chapter_" + i, NOVEL, BOOK);
+			chapter.setOrder(i);
+			dbh.insertOrUpdatePageModel(db, chapter);
+			chapters.add(chapter);
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		BakaTsukiFetcher.setBaseUrl(Constants.BASE_URL);
+		server.stop();
+		super.tearDown();
+	}
+
+	static String pageInfoXml(String[] titles) {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?><api><query><normalized>");
+		for(int i = 0; i < titles.length; ++i) {
+			xml.append("<n from=\"").append(titles[i]).append("\" to=\"").append(titles[i].replace('_', ' ')).append("\" />");
+		}
+		xml.append("</normalized><pages>");
+		for(int i = 0; i < titles.length; ++i) {
+			xml.append("<page pageid=\"").append(i + 1).append("\" ns=\"0\" title=\"").append(titles[i].replace('_', ' '))
+				.append("\" touched=\"2013-01-02T03:04:05Z\" lastrevid=\"1\" counter=\"0\" length=\"20000\" />");
+		}
+		xml.append("</pages></query></api>");
+		return xml.toString();
+	}
+
+	public void testParallelDownload() throws Exception {
+		long serial = download(1);
+		int serialConcurrency = server.getMaxConcurrentRequests();
+
+		server.reset();
+		long parallel = download(Constants.DOWNLOAD_THREADS);
+		int parallelConcurrency = server.getMaxConcurrentRequests();
+
+		Log.i(TAG, CHAPTERS + " chapters with " + LATENCY + " ms latency: 1 thread " + serial + " ms, "
+				+ Constants.DOWNLOAD_THREADS + " threads " + parallel + " ms");
+		assertEquals(1, serialConcurrency);
+		assertTrue(parallelConcurrency > 1);
+		// at least half of the ideal speed up
+		assertTrue(parallel + " ms vs " + serial + " ms", parallel * Constants.DOWNLOAD_THREADS < serial * 2);
+	}
+
+	public void testConnectionsPerHostAreLimited() throws Exception {
+		download(Constants.MAX_CONNECTIONS_PER_HOST * 2);
+		int concurrency = server.getMaxConcurrentRequests();
+		Log.i(TAG, "Highest concurrent requests: " + concurrency);
+		assertTrue(concurrency <= Constants.MAX_CONNECTIONS_PER_HOST);
+	}
+
+	/*
+	 * @return elapsed ms, all the chapters must be saved
+	 */
+	private long download(int threads) throws Exception {
+		ChapterDownloader downloader = new ChapterDownloader(dao, null, threads);
+		long start = System.currentTimeMillis();
+		NovelContentModel[] result = downloader.download(chapters);
+		long elapsed = System.currentTimeMillis() - start;
+
+		// one page info request and one request per chapter
+		assertEquals(1, server.countRequests("/project/api.php?action=query"));
+		assertEquals(CHAPTERS, server.countRequests("/project/api.php?action=parse"));
+		for(int i = 0; i < CHAPTERS; ++i) {
+			assertEquals(chapters.get(i).getPage(), result[i].getPage());
+			assertNotNull(dao.getNovelContent(chapters.get(i), null));
+		}
+		return elapsed;
+	}
+}
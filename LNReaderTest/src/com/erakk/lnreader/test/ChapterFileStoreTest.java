@@ -0,0 +1,87 @@
+package com.erakk.lnreader.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.helper.ChapterFileStore;
+import com.erakk.lnreader.helper.ContentCompressor;
+
+public class ChapterFileStoreTest extends TestCase {
+	private static final String PAGE = "LNReaderTest_Volume_1_Chapter_1";
+
+	private String name = null;
+	private String html;
+	private byte[] data;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		html = NovelContentTest.randomHtml(4 * 1024 * 1024);
+		data = ContentCompressor.compress(html);
+		assertTrue(data.length > Constants.CONTENT_FILE_THRESHOLD);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		ChapterFileStore.delete(name);
+		super.tearDown();
+	}
+
+	public void testRoundTrip() throws Exception {
+		name = ChapterFileStore.write(PAGE, data);
+		File file = new File(Constants.CHAPTER_ROOT, name);
+		assertEquals(data.length, file.length());
+		assertEquals(html, ChapterFileStore.read(name, data.length, ChapterFileStore.getChecksum(data)));
+	}
+
+	public void testWriteUsesNewFile() throws Exception {
+		name = ChapterFileStore.write(PAGE, data);
+		String other = ChapterFileStore.write(PAGE, data);
+		try{
+			assertFalse(name.equals(other));
+			// the old file is kept until the row is committed
+			assertTrue(new File(Constants.CHAPTER_ROOT, name).exists());
+			assertTrue(new File(Constants.CHAPTER_ROOT, other).exists());
+		}
+		finally{
+			ChapterFileStore.delete(other);
+		}
+	}
+
+	public void testMissingFile() throws Exception {
+		name = ChapterFileStore.write(PAGE, data);
+		ChapterFileStore.delete(name);
+		assertNull(ChapterFileStore.read(name, data.length, ChapterFileStore.getChecksum(data)));
+	}
+
+	public void testTruncatedFile() throws Exception {
+		name = ChapterFileStore.write(PAGE, data);
+		RandomAccessFile file = new RandomAccessFile(new File(Constants.CHAPTER_ROOT, name), "rw");
+		try{
+			file.setLength(data.length / 2);
+		}
+		finally{
+			file.close();
+		}
+		assertNull(ChapterFileStore.read(name, data.length, ChapterFileStore.getChecksum(data)));
+	}
+
+	public void testCorruptedFile() throws Exception {
+		name = ChapterFileStore.write(PAGE, data);
+		RandomAccessFile file = new RandomAccessFile(new File(Constants.CHAPTER_ROOT, name), "rw");
+		try{
+			// whether the deflate stream still decodes or not, the checksum differs
+			file.seek(data.length - 16);
+			int value = file.read();
+			file.seek(data.length - 16);
+			file.write(value ^ 0x01);
+		}
+		finally{
+			file.close();
+		}
+		assertNull(ChapterFileStore.read(name, data.length, ChapterFileStore.getChecksum(data)));
+	}
+}
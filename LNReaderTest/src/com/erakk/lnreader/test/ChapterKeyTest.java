@@ -0,0 +1,116 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import android.util.Log;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.model.BookModel;
+import com.erakk.lnreader.model.NovelCollectionModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Chapter list of a book by the integer book_id, compared to the old page%title parent string,
+ * over a library of many novels.
+ */
+public class ChapterKeyTest extends DBHelperTestCase {
+	private static final String TAG = ChapterKeyTest.class.toString();
+	private static final int NOVELS = 100;
+	private static final int BOOKS_PER_NOVEL = 10;
+	private static final int CHAPTERS_PER_BOOK = 20;
+	private static final int ROUNDS = 3;
+
+	private final ArrayList<BookModel> books = new ArrayList<BookModel>();
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		db.beginTransaction();
+		try{
+			for(int n = 0; n < NOVELS; ++n) {
+				String novel = "LNReaderTest_" + n;
+				dbh.insertOrUpdatePageModel(db, novel(novel));
+
+				NovelCollectionModel details = new NovelCollectionModel();
+				details.setPage(novel);
+				details.setLastUpdate(new Date(0));
+				ArrayList<BookModel> novelBooks = new ArrayList<BookModel>();
+				for(int b = 0; b < BOOKS_PER_NOVEL; ++b) {
+					BookModel book = new BookModel();
+					book.setPage(novel);
+					book.setTitle("Volume " + (b + 1));
+					book.setOrder(b);
+					ArrayList<PageModel> chapters = new ArrayList<PageModel>();
+					for(int c = 0; c < CHAPTERS_PER_BOOK; ++c) {
+						PageModel chapter = chapter(novel + "_Volume_" + (b + 1) + "_Chapter_" + (c + 1), novel, book.getTitle());
+						chapter.setOrder(c);
+						chapters.add(chapter);
+					}
+					book.setChapterCollection(chapters);
+					novelBooks.add(book);
+				}
+				details.setBookCollections(novelBooks);
+				// the book ids are set by the insert
+				dbh.insertNovelDetails(db, details);
+				books.addAll(novelBooks);
+			}
+			db.setTransactionSuccessful();
+		}
+		finally{
+			db.endTransaction();
+		}
+	}
+
+	public void testSameChapters() {
+		BookModel book = books.get(books.size() / 2);
+		ArrayList<PageModel> byParent = dbh.getChapterCollection(db, parent(book), book);
+		ArrayList<PageModel> byBookId = dbh.getChapterCollection(db, book.getId(), book);
+		assertEquals(CHAPTERS_PER_BOOK, byBookId.size());
+		assertEquals(byParent.size(), byBookId.size());
+		for(int i = 0; i < byParent.size(); ++i) {
+			assertEquals(byParent.get(i).getPage(), byBookId.get(i).getPage());
+		}
+	}
+
+	public void testBookIdIsNotSlower() {
+		// warm up
+		loadByParent();
+		loadByBookId();
+
+		long byParent = 0;
+		long byBookId = 0;
+		for(int r = 0; r < ROUNDS; ++r) {
+			long start = System.currentTimeMillis();
+			loadByParent();
+			byParent += System.currentTimeMillis() - start;
+
+			start = System.currentTimeMillis();
+			loadByBookId();
+			byBookId += System.currentTimeMillis() - start;
+		}
+
+		Log.i(TAG, (NOVELS * BOOKS_PER_NOVEL * CHAPTERS_PER_BOOK) + " chapters, " + ROUNDS + " x " + books.size() + " books: "
+				+ "by parent " + byParent + " ms, by book id " + byBookId + " ms");
+		// both are indexed, allow some noise
+		assertTrue(byBookId + " ms vs " + byParent + " ms", byBookId <= byParent + byParent / 5);
+	}
+
+	private void loadByParent() {
+		for(int i = 0; i < books.size(); ++i) {
+			BookModel book = books.get(i);
+			assertEquals(CHAPTERS_PER_BOOK, dbh.getChapterCollection(db, parent(book), book).size());
+		}
+	}
+
+	private void loadByBookId() {
+		for(int i = 0; i < books.size(); ++i) {
+			BookModel book = books.get(i);
+			assertEquals(CHAPTERS_PER_BOOK, dbh.getChapterCollection(db, book.getId(), book).size());
+		}
+	}
+
+	private static String parent(BookModel book) {
+		return book.getPage() + Constants.NOVEL_BOOK_DIVIDER + book.getTitle();
+	}
+}
@@ -0,0 +1,112 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.helper.BakaTsukiFetcher;
+import com.erakk.lnreader.model.HttpValidatorModel;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * The conditional request of BakaTsukiFetcher against a local stub server:
+ * the validator is taken from the first response, sent back on the next request,
+ * and a 304 is counted as saved bytes without parsing anything.
+ */
+public class ConditionalRequestTest extends TestCase {
+	private static final String LAST_MODIFIED = "Wed, 02 Jan 2013 03:04:05 GMT";
+	private static final String NOVEL_LIST = "<html><body><div id=\"p-Light_Novels\"><ul>"
+			+ "<li><a href=\"/project/index.php?title=LNReaderTest\">LNReaderTest</a></li>"
+			+ "<li><a href=\"/project/index.php?title=LNReaderTest_2\">LNReaderTest 2</a></li>"
+			+ "</ul></div></body></html>";
+
+	private StubServer server;
+	private volatile String etag = "\"v1\"";
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = new StubServer(new StubServer.Handler() {
+			public StubServer.Response handle(StubServer.Request request) {
+				if(etag.equals(request.getHeader("If-None-Match"))) {
+					return new StubServer.Response(304, null, null).header("ETag", etag);
+				}
+				StubServer.Response response;
+				if(request.path.equals("/project")) {
+					response = StubServer.Response.html(NOVEL_LIST);
+				}
+				else if(request.path.startsWith("/project/api.php?action=parse")) {
+					response = StubServer.Response.xml(FetcherTest.contentXml("LNReaderTest", "<p>Version " + etag + "</p>"));
+				}
+				else {
+					return StubServer.Response.status(404);
+				}
+				return response.header("ETag", etag).header("Last-Modified", LAST_MODIFIED);
+			}
+		});
+		server.start();
+		BakaTsukiFetcher.setBaseUrl(server.getBaseUrl());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		BakaTsukiFetcher.setBaseUrl(Constants.BASE_URL);
+		server.stop();
+		super.tearDown();
+	}
+
+	public void testValidatorIsStoredFromResponse() throws Exception {
+		HttpValidatorModel validator = new HttpValidatorModel(BakaTsukiFetcher.getNovelListUrl());
+		ArrayList<PageModel> list = BakaTsukiFetcher.fetchNovelList(validator, null);
+		assertEquals(2, list.size());
+
+		assertEquals("\"v1\"", validator.getEtag());
+		assertEquals(LAST_MODIFIED, validator.getLastModified());
+		assertEquals(NOVEL_LIST.length(), validator.getSize());
+		assertEquals(0, validator.getBytesSaved());
+		assertNotNull(validator.getLastCheck());
+
+		// nothing to validate on the first request
+		StubServer.Request request = server.getRequests().get(0);
+		assertNull(request.getHeader("If-None-Match"));
+		assertNull(request.getHeader("If-Modified-Since"));
+	}
+
+	public void testNotModifiedIsShortCircuited() throws Exception {
+		HttpValidatorModel validator = new HttpValidatorModel(BakaTsukiFetcher.getNovelListUrl());
+		assertNotNull(BakaTsukiFetcher.fetchNovelList(validator, null));
+		long size = validator.getSize();
+
+		assertNull(BakaTsukiFetcher.fetchNovelList(validator, null));
+		StubServer.Request request = server.getRequests().get(1);
+		assertEquals("\"v1\"", request.getHeader("If-None-Match"));
+		assertEquals(LAST_MODIFIED, request.getHeader("If-Modified-Since"));
+		assertEquals(size, validator.getBytesSaved());
+
+		// counted again on each 304, the validator is kept
+		assertNull(BakaTsukiFetcher.fetchNovelList(validator, null));
+		assertEquals(2 * size, validator.getBytesSaved());
+		assertEquals("\"v1\"", validator.getEtag());
+		assertEquals(size, validator.getSize());
+	}
+
+	public void testChangedPageIsDownloadedAgain() throws Exception {
+		PageModel page = new PageModel();
+		page.setPage("LNReaderTest");
+		HttpValidatorModel validator = new HttpValidatorModel(BakaTsukiFetcher.getNovelContentUrl(page));
+		assertNotNull(BakaTsukiFetcher.fetchNovelContent(page, validator, null));
+		assertNull(BakaTsukiFetcher.fetchNovelContent(page, validator, null));
+		long saved = validator.getBytesSaved();
+		assertTrue(saved > 0);
+
+		etag = "\"v2\"";
+		NovelContentModel content = BakaTsukiFetcher.fetchNovelContent(page, validator, null);
+		assertNotNull(content);
+		assertTrue(content.getContent().contains("Version \"v2\""));
+		assertEquals("\"v2\"", validator.getEtag());
+		assertEquals(saved, validator.getBytesSaved());
+		assertEquals("\"v1\"", server.getRequests().get(2).getHeader("If-None-Match"));
+	}
+}
@@ -0,0 +1,79 @@
+package com.erakk.lnreader.test;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.erakk.lnreader.helper.DBHelper;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Page lookups on the long-lived connection used by NovelsDao,
+ * compared to opening and closing the database around each call as it was done before.
+ */
+public class ConnectionReuseTest extends DBHelperTestCase {
+	private static final String TAG = ConnectionReuseTest.class.toString();
+	private static final String NOVEL = "LNReaderTest";
+	private static final String BOOK = "Volume 1";
+	private static final int PAGES = 3000;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		db.beginTransaction();
+		try{
+			dbh.insertOrUpdatePageModel(db, novel(NOVEL));
+			for(int i = 0; i < PAGES; ++i) {
+				PageModel chapter = chapter(page(i), NOVEL, BOOK);
+				chapter.setOrder(i);
+				dbh.insertOrUpdatePageModel(db, chapter);
+			}
+			db.setTransactionSuccessful();
+		}
+		finally{
+			db.endTransaction();
+		}
+	}
+
+	private static String page(int i) {
+		return NOVEL + "_Volume_1_Chapter_" + i;
+	}
+
+	public void testSharedConnectionIsFaster() {
+		// warm up both paths
+		lookupShared(100);
+		lookupPerCall(100);
+
+		long start = System.currentTimeMillis();
+		lookupPerCall(PAGES);
+		long perCall = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		lookupShared(PAGES);
+		long shared = System.currentTimeMillis() - start;
+
+		Log.i(TAG, PAGES + " page lookups: open/close per call " + perCall + " ms, shared connection " + shared + " ms");
+		assertTrue(shared + " ms vs " + perCall + " ms", shared < perCall);
+	}
+
+	private void lookupShared(int count) {
+		for(int i = 0; i < count; ++i) {
+			assertNotNull(dbh.getPageModel(db, page(i)));
+		}
+	}
+
+	/*
+	 * Same as the old NovelsDao: open the helper database, query, then close it.
+	 */
+	private void lookupPerCall(int count) {
+		DBHelper helper = new DBHelper(context);
+		for(int i = 0; i < count; ++i) {
+			SQLiteDatabase perCallDb = helper.getReadableDatabase();
+			try{
+				assertNotNull(helper.getPageModel(perCallDb, page(i)));
+			}
+			finally{
+				helper.close();
+			}
+		}
+	}
+}
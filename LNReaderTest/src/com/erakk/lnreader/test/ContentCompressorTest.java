@@ -0,0 +1,69 @@
+package com.erakk.lnreader.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.zip.CRC32;
+
+import junit.framework.TestCase;
+
+import com.erakk.lnreader.helper.ContentCompressor;
+
+public class ContentCompressorTest extends TestCase {
+	private static final String HTML = "<h2><span class=\"mw-headline\" id=\"Chapter_1\">Chapter 1</span></h2>"
+			+ "<p>&#8220;Hello,&#8221; she said. こんにちは — café</p>\n";
+
+	public void testRoundTrip() {
+		byte[] data = ContentCompressor.compress(HTML);
+		assertTrue(ContentCompressor.isCompressed(data));
+		assertEquals(HTML, ContentCompressor.decompress(data));
+	}
+
+	public void testRoundTripEmptyAndNull() {
+		assertEquals("", ContentCompressor.decompress(ContentCompressor.compress("")));
+		assertNull(ContentCompressor.compress(null));
+		assertNull(ContentCompressor.decompress((byte[]) null));
+	}
+
+	public void testRoundTripBigContent() throws Exception {
+		String html = repeat(HTML, 2000);
+		byte[] data = ContentCompressor.compress(html);
+		assertTrue("not compressed: " + data.length, data.length < html.length() / 4);
+		assertEquals(html, ContentCompressor.decompress(data));
+	}
+
+	public void testOldPlainTextIsReturnedAsIs() throws Exception {
+		byte[] plain = HTML.getBytes("UTF-8");
+		assertFalse(ContentCompressor.isCompressed(plain));
+		assertEquals(HTML, ContentCompressor.decompress(plain));
+	}
+
+	public void testStreamingDecompressAndChecksum() throws Exception {
+		String html = repeat(HTML, 2000);
+		byte[] data = ContentCompressor.compress(html);
+		CRC32 expected = new CRC32();
+		expected.update(data);
+
+		CRC32 crc = new CRC32();
+		String result = ContentCompressor.decompress(Channels.newChannel(new ByteArrayInputStream(data)), crc);
+		assertEquals(html, result);
+		assertEquals(expected.getValue(), crc.getValue());
+	}
+
+	public void testStreamingDecompressRejectsPlainText() throws Exception {
+		byte[] plain = HTML.getBytes("UTF-8");
+		try {
+			ContentCompressor.decompress(Channels.newChannel(new ByteArrayInputStream(plain)), new CRC32());
+			fail("Expected IOException");
+		} catch (IOException ex) {
+		}
+	}
+
+	private static String repeat(String value, int count) {
+		StringBuilder builder = new StringBuilder(value.length() * count);
+		for(int i = 0; i < count; ++i) {
+			builder.append(value).append(i);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,61 @@
+package com.erakk.lnreader.test;
+
+import java.util.Date;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.helper.DBHelper;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Tests on their own database (test_pages.db), the application data is not touched.
+ */
+public abstract class DBHelperTestCase extends AndroidTestCase {
+	protected static final String DATABASE_NAME = "pages.db";
+
+	protected Context context;
+	protected DBHelper dbh;
+	protected SQLiteDatabase db;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), "test_");
+		context.deleteDatabase(DATABASE_NAME);
+		dbh = new DBHelper(context);
+		db = dbh.getWritableDatabase();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		dbh.close();
+		context.deleteDatabase(DATABASE_NAME);
+		super.tearDown();
+	}
+
+	protected static PageModel novel(String page) {
+		PageModel novel = new PageModel();
+		novel.setPage(page);
+		novel.setTitle(page.replace('_', ' '));
+		novel.setType(PageModel.TYPE_NOVEL);
+		novel.setParent("Main_Page");
+		novel.setLastUpdate(new Date(0));
+		novel.setLastCheck(new Date());
+		return novel;
+	}
+
+	protected static PageModel chapter(String page, String novel, String book) {
+		PageModel chapter = new PageModel();
+		chapter.setPage(page);
+		chapter.setTitle(page.replace('_', ' '));
+		chapter.setType(PageModel.TYPE_CONTENT);
+		chapter.setParent(novel + Constants.NOVEL_BOOK_DIVIDER + book);
+		chapter.setLastUpdate(new Date(0));
+		chapter.setLastCheck(new Date());
+		return chapter;
+	}
+}
@@ -0,0 +1,370 @@
+package com.erakk.lnreader.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.helper.ChapterFileStore;
+import com.erakk.lnreader.helper.ContentCompressor;
+import com.erakk.lnreader.helper.DBHelper;
+import com.erakk.lnreader.model.BookModel;
+import com.erakk.lnreader.model.DownloadJobModel;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+import com.erakk.lnreader.model.SearchResultModel;
+
+/**
+ * Build the schema of an old version with some data, then let DBHelper migrate it.
+ * The schemas below are snapshots of the released versions, they must not follow DBHelper changes.
+ */
+public class DatabaseUpgradeTest extends AndroidTestCase {
+	private static final String DATABASE_NAME = "pages.db";
+	private static final String NOVEL = "LNReaderTest";
+	private static final String BOOK = "Volume 1";
+	private static final String SMALL_CHAPTER = "LNReaderTest_Volume_1_Chapter_1";
+	private static final String BIG_CHAPTER = "LNReaderTest_Volume_1_Chapter_2";
+	private static final String QUEUED_CHAPTER = "LNReaderTest_Volume_1_Chapter_3";
+	private static final String SMALL_HTML = "<p>Hello upgrade</p>";
+	private static final String BIG_HTML = NovelContentTest.randomHtml(2 * 1024 * 1024);
+	private static final String IMAGE_REFERER = "http://www.baka-tsuki.org/project/index.php?title=File:LNReaderTest.jpg";
+	private static final String VALIDATOR_URL = "http://www.baka-tsuki.org/project/api.php?action=query&titles=LNReaderTest";
+
+	private Context context;
+	private DBHelper dbh;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		context = new RenamingDelegatingContext(getContext(), "test_");
+		context.deleteDatabase(DATABASE_NAME);
+		deleteChapterFiles();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		if(dbh != null) dbh.close();
+		context.deleteDatabase(DATABASE_NAME);
+		deleteChapterFiles();
+		super.tearDown();
+	}
+
+	public void testUpgradeFrom18() throws Exception {
+		upgradeFrom(18);
+	}
+
+	public void testUpgradeFrom19() throws Exception {
+		upgradeFrom(19);
+	}
+
+	public void testUpgradeFrom20() throws Exception {
+		upgradeFrom(20);
+	}
+
+	public void testUpgradeFrom21() throws Exception {
+		upgradeFrom(21);
+	}
+
+	public void testUpgradeFrom22() throws Exception {
+		upgradeFrom(22);
+	}
+
+	public void testUpgradeFrom23() throws Exception {
+		upgradeFrom(23);
+	}
+
+	public void testUpgradeFrom24() throws Exception {
+		upgradeFrom(24);
+	}
+
+	public void testUpgradeFrom25() throws Exception {
+		upgradeFrom(25);
+	}
+
+	public void testUpgradeFrom26() throws Exception {
+		upgradeFrom(26);
+	}
+
+	public void testFailedUpgradeKeepsData() throws Exception {
+		SQLiteDatabase old = createDatabase(23);
+		// the last step creates page_schedule, make it fail after the chapter was moved to a file
+		old.execSQL("create table page_schedule(_id INTEGER PRIMARY KEY AUTOINCREMENT)");
+		old.close();
+
+		dbh = new DBHelper(context);
+		try{
+			dbh.getWritableDatabase();
+			fail("Upgrade should fail");
+		}
+		catch(RuntimeException ex) {
+			// expected
+		}
+		dbh.close();
+		dbh = null;
+
+		old = context.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+		try{
+			assertEquals(23, old.getVersion());
+			Cursor cursor = old.rawQuery("select content from novel_books_content where page = ?", new String[] {BIG_CHAPTER});
+			try{
+				assertTrue(cursor.moveToFirst());
+				assertEquals(BIG_HTML, ContentCompressor.decompress(cursor.getBlob(0)));
+			}
+			finally{
+				cursor.close();
+			}
+		}
+		finally{
+			old.close();
+		}
+		assertEquals(0, getChapterFiles().size());
+	}
+
+	private void upgradeFrom(int version) throws Exception {
+		createDatabase(version).close();
+
+		dbh = new DBHelper(context);
+		SQLiteDatabase db = dbh.getWritableDatabase();
+		assertTrue(db.getVersion() > version);
+
+		PageModel novel = dbh.getPageModel(db, NOVEL);
+		assertNotNull(novel);
+		assertTrue(novel.isWatched());
+		assertEquals("Synopsis of " + NOVEL, dbh.getNovelDetails(db, NOVEL).getSynopsis());
+		assertNotNull(dbh.getImageByReferer(db, IMAGE_REFERER));
+
+		PageModel chapter = dbh.getPageModel(db, SMALL_CHAPTER);
+		assertTrue(chapter.isFinishedRead());
+		assertEquals(NOVEL + Constants.NOVEL_BOOK_DIVIDER + BOOK, chapter.getParent());
+
+		BookModel book = dbh.getBookModel(db, NOVEL, BOOK);
+		assertNotNull(book);
+		ArrayList<PageModel> chapters = dbh.getChapterCollection(db, book.getId(), book);
+		assertEquals(2, chapters.size());
+		assertEquals(SMALL_CHAPTER, chapters.get(0).getPage());
+		assertEquals(BIG_CHAPTER, chapters.get(1).getPage());
+
+		NovelContentModel small = dbh.getNovelContent(db, SMALL_CHAPTER);
+		assertEquals(SMALL_HTML, small.getContent());
+		assertNull(small.getContentPath());
+		assertEquals(100, small.getLastYScroll());
+
+		NovelContentModel big = dbh.getNovelContent(db, BIG_CHAPTER);
+		assertEquals(BIG_HTML, big.getContent());
+		assertNotNull(big.getContentPath());
+		assertEquals(1, getChapterFiles().size());
+
+		ArrayList<SearchResultModel> results = dbh.searchNovelContent(db, "upgrade", 10);
+		assertEquals(1, results.size());
+		assertEquals(SMALL_CHAPTER, results.get(0).getPage());
+
+		if(version >= 25) {
+			assertEquals("\"lnreadertest\"", dbh.getHttpValidator(db, VALIDATOR_URL).getEtag());
+		}
+		if(version >= 26) {
+			assertEquals(1, dbh.getDownloadJobCount(db, DownloadJobModel.STATE_PENDING));
+		}
+	}
+
+	private SQLiteDatabase createDatabase(int version) throws Exception {
+		SQLiteDatabase db = context.openOrCreateDatabase(DATABASE_NAME, Context.MODE_PRIVATE, null);
+		db.beginTransaction();
+		try{
+			createSchema(db, version);
+			insertData(db, version);
+			db.setVersion(version);
+			db.setTransactionSuccessful();
+		}
+		finally{
+			db.endTransaction();
+		}
+		return db;
+	}
+
+	private static void createSchema(SQLiteDatabase db, int version) {
+		db.execSQL("create table pages(_id INTEGER PRIMARY KEY AUTOINCREMENT, page text unique not null, title text not null, type text, parent text, "
+				+ "last_update integer, last_check integer, is_watched boolean, is_finished_read boolean, is_downloaded boolean, _index integer);");
+		db.execSQL("create table images(_id INTEGER PRIMARY KEY AUTOINCREMENT, name text unique not null, filepath text not null, url text not null, "
+				+ "referer text, last_update integer, last_check integer);");
+		db.execSQL("create table novel_details(_id INTEGER PRIMARY KEY AUTOINCREMENT, page text unique not null, synopsis text not null, name text not null, "
+				+ "last_update integer, last_check integer);");
+		db.execSQL("create table novel_books(_id INTEGER PRIMARY KEY AUTOINCREMENT, page text not null, title text not null, "
+				+ "last_update integer, last_check integer, _index integer);");
+		db.execSQL("create table novel_books_content(_id INTEGER PRIMARY KEY AUTOINCREMENT, content text not null, page text unique not null, "
+				+ "lastXScroll integer, lastYScroll integer, lastZoom double, last_update integer, last_check integer);");
+		if(version >= 19) {
+			db.execSQL("alter table pages add column page_key text");
+			db.execSQL("create index pages_parent_order_idx on pages(parent, _index);");
+			db.execSQL("create index pages_parent_watched_idx on pages(parent, is_watched DESC, title);");
+			db.execSQL("create index pages_page_key_idx on pages(page_key);");
+			db.execSQL("create index images_referer_idx on images(referer);");
+			db.execSQL("create unique index novel_books_page_title_idx on novel_books(page, title);");
+		}
+		// 20 only compressed the content
+		if(version >= 21) {
+			db.execSQL("create table reading_position(_id INTEGER PRIMARY KEY AUTOINCREMENT, page text unique not null, "
+					+ "lastXScroll integer, lastYScroll integer, lastZoom double, last_update integer);");
+		}
+		if(version >= 22) {
+			db.execSQL("create virtual table novel_content_search using fts3(page, title, body);");
+		}
+		if(version >= 23) {
+			db.execSQL("alter table pages add column book_id integer");
+			db.execSQL("alter table novel_books add column novel_id integer");
+			db.execSQL("create index pages_book_order_idx on pages(book_id, _index);");
+			db.execSQL("create index novel_books_novel_order_idx on novel_books(novel_id, _index);");
+		}
+		if(version >= 24) {
+			db.execSQL("alter table novel_books_content add column content_path text");
+			db.execSQL("alter table novel_books_content add column content_size integer");
+			db.execSQL("alter table novel_books_content add column content_checksum integer");
+		}
+		if(version >= 25) {
+			db.execSQL("create table http_validators(_id INTEGER PRIMARY KEY AUTOINCREMENT, url text unique not null, etag text, last_modified text, "
+					+ "size integer, bytes_saved integer, last_check integer);");
+		}
+		if(version >= 26) {
+			db.execSQL("create table download_queue(_id INTEGER PRIMARY KEY AUTOINCREMENT, page text unique not null, type text not null, "
+					+ "state integer, attempts integer, last_error text, last_update integer);");
+			db.execSQL("create index download_queue_state_idx on download_queue(state, _id);");
+		}
+	}
+
+	private static void insertData(SQLiteDatabase db, int version) throws Exception {
+		long novelId = db.insertOrThrow("pages", null, page(version, NOVEL, PageModel.TYPE_NOVEL, "Main_Page", 0));
+		ContentValues cv = new ContentValues();
+		cv.put("page", NOVEL);
+		cv.put("synopsis", "Synopsis of " + NOVEL);
+		cv.put("name", "LNReaderTest.jpg");
+		cv.put("last_update", 0);
+		cv.put("last_check", 0);
+		db.insertOrThrow("novel_details", null, cv);
+
+		cv = new ContentValues();
+		cv.put("name", "LNReaderTest.jpg");
+		cv.put("filepath", "/LNReaderTest.jpg");
+		cv.put("url", "http://www.baka-tsuki.org/project/images/LNReaderTest.jpg");
+		cv.put("referer", IMAGE_REFERER);
+		cv.put("last_update", 0);
+		cv.put("last_check", 0);
+		db.insertOrThrow("images", null, cv);
+
+		cv = new ContentValues();
+		cv.put("page", NOVEL);
+		cv.put("title", BOOK);
+		cv.put("last_update", 0);
+		cv.put("last_check", 0);
+		cv.put("_index", 0);
+		if(version >= 23) cv.put("novel_id", novelId);
+		long bookId = db.insertOrThrow("novel_books", null, cv);
+
+		String parent = NOVEL + Constants.NOVEL_BOOK_DIVIDER + BOOK;
+		cv = page(version, SMALL_CHAPTER, PageModel.TYPE_CONTENT, parent, 0);
+		cv.put("is_finished_read", true);
+		if(version >= 23) cv.put("book_id", bookId);
+		db.insertOrThrow("pages", null, cv);
+		cv = page(version, BIG_CHAPTER, PageModel.TYPE_CONTENT, parent, 1);
+		if(version >= 23) cv.put("book_id", bookId);
+		db.insertOrThrow("pages", null, cv);
+
+		long contentId = db.insertOrThrow("novel_books_content", null, content(version, SMALL_CHAPTER, SMALL_HTML));
+		db.insertOrThrow("novel_books_content", null, content(version, BIG_CHAPTER, BIG_HTML));
+		if(version >= 21) {
+			cv = new ContentValues();
+			cv.put("page", SMALL_CHAPTER);
+			cv.put("lastXScroll", 0);
+			cv.put("lastYScroll", 100);
+			cv.put("lastZoom", 1.0);
+			cv.put("last_update", 0);
+			db.insertOrThrow("reading_position", null, cv);
+		}
+		if(version >= 22) {
+			db.execSQL("insert into novel_content_search(docid, page, title, body) values (?, ?, ?, ?)",
+					new Object[] {contentId, SMALL_CHAPTER, SMALL_CHAPTER, "Hello upgrade"});
+		}
+		if(version >= 25) {
+			cv = new ContentValues();
+			cv.put("url", VALIDATOR_URL);
+			cv.put("etag", "\"lnreadertest\"");
+			cv.put("size", 1024);
+			cv.put("bytes_saved", 0);
+			cv.put("last_check", 0);
+			db.insertOrThrow("http_validators", null, cv);
+		}
+		if(version >= 26) {
+			cv = new ContentValues();
+			cv.put("page", QUEUED_CHAPTER);
+			cv.put("type", DownloadJobModel.TYPE_CHAPTER);
+			cv.put("state", DownloadJobModel.STATE_PENDING);
+			cv.put("attempts", 0);
+			cv.put("last_update", 0);
+			db.insertOrThrow("download_queue", null, cv);
+		}
+	}
+
+	private static ContentValues page(int version, String page, String type, String parent, int order) {
+		ContentValues cv = new ContentValues();
+		cv.put("page", page);
+		cv.put("title", page.replace('_', ' '));
+		cv.put("type", type);
+		cv.put("parent", parent);
+		cv.put("last_update", 0);
+		cv.put("last_check", new Date().getTime() / 1000);
+		cv.put("is_watched", PageModel.TYPE_NOVEL.equals(type));
+		cv.put("is_finished_read", false);
+		cv.put("is_downloaded", PageModel.TYPE_CONTENT.equals(type));
+		cv.put("_index", order);
+		if(version >= 19) cv.put("page_key", page.toLowerCase(Locale.US));
+		return cv;
+	}
+
+	private static ContentValues content(int version, String page, String html) throws Exception {
+		ContentValues cv = new ContentValues();
+		cv.put("page", page);
+		cv.put("lastXScroll", 0);
+		cv.put("lastYScroll", 100);
+		cv.put("lastZoom", 1.0);
+		cv.put("last_update", 0);
+		cv.put("last_check", 0);
+		if(version < 20) {
+			cv.put("content", html);
+			return cv;
+		}
+		byte[] data = ContentCompressor.compress(html);
+		if(version >= 24 && data.length > Constants.CONTENT_FILE_THRESHOLD) {
+			cv.put("content", new byte[0]);
+			cv.put("content_path", ChapterFileStore.write(page, data));
+			cv.put("content_size", data.length);
+			cv.put("content_checksum", ChapterFileStore.getChecksum(data));
+		}
+		else {
+			cv.put("content", data);
+		}
+		return cv;
+	}
+
+	private static ArrayList<File> getChapterFiles() {
+		ArrayList<File> files = new ArrayList<File>();
+		File[] list = new File(Constants.CHAPTER_ROOT).listFiles();
+		if(list == null) return files;
+		for(int i = 0; i < list.length; ++i) {
+			if(list[i].getName().startsWith(NOVEL + "_")) files.add(list[i]);
+		}
+		return files;
+	}
+
+	private static void deleteChapterFiles() {
+		ArrayList<File> files = getChapterFiles();
+		for(int i = 0; i < files.size(); ++i) {
+			files.get(i).delete();
+		}
+	}
+}
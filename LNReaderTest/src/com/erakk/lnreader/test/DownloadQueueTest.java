@@ -0,0 +1,131 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+
+import com.erakk.lnreader.helper.DBHelper;
+import com.erakk.lnreader.model.DownloadJobModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * The persistent download queue through NovelsDao: the state of each item,
+ * and resuming from the database after the process is killed.
+ */
+public class DownloadQueueTest extends NovelsDaoTestCase {
+	private static final String NOVEL = "LNReaderTest";
+	private static final String BOOK = "Volume 1";
+	private static final int CHAPTERS = 5;
+
+	private ArrayList<PageModel> chapters;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		chapters = new ArrayList<PageModel>();
+		for(int i = 0; i < CHAPTERS; ++i) {
+			chapters.add(chapter(NOVEL + "_Volume_1_Chapter_" + i, NOVEL, BOOK));
+		}
+		dao.addDownloads(chapters, DownloadJobModel.TYPE_CHAPTER);
+	}
+
+	public void testTakeInQueueOrder() {
+		assertEquals(CHAPTERS, dao.getDownloadCount(DownloadJobModel.STATE_PENDING));
+
+		ArrayList<DownloadJobModel> jobs = dao.takeDownloads(3);
+		assertEquals(3, jobs.size());
+		for(int i = 0; i < jobs.size(); ++i) {
+			assertEquals(chapters.get(i).getPage(), jobs.get(i).getPage());
+			assertEquals(DownloadJobModel.TYPE_CHAPTER, jobs.get(i).getType());
+			assertEquals(DownloadJobModel.STATE_RUNNING, jobs.get(i).getState());
+		}
+		assertEquals(3, dao.getDownloadCount(DownloadJobModel.STATE_RUNNING));
+		assertEquals(2, dao.getDownloadCount(DownloadJobModel.STATE_PENDING));
+
+		// running items are not taken again
+		jobs = dao.takeDownloads(10);
+		assertEquals(2, jobs.size());
+		assertEquals(chapters.get(3).getPage(), jobs.get(0).getPage());
+		assertTrue(dao.takeDownloads(10).isEmpty());
+	}
+
+	public void testResumeAfterProcessDeath() {
+		ArrayList<DownloadJobModel> jobs = dao.takeDownloads(3);
+		finish(jobs.get(0), DownloadJobModel.STATE_DONE);
+		DownloadJobModel failed = jobs.get(1);
+		failed.setAttempts(1);
+		failed.setLastError("503 error loading URL");
+		finish(failed, DownloadJobModel.STATE_PENDING);
+		// jobs.get(2) is still running when the process is killed
+
+		// nothing kept in memory, only the database file
+		DBHelper restarted = new DBHelper(context);
+		dao.setDBHelper(restarted);
+		try{
+			assertEquals(1, dao.resetRunningDownloads());
+			assertEquals(0, dao.getDownloadCount(DownloadJobModel.STATE_RUNNING));
+			assertEquals(1, dao.getDownloadCount(DownloadJobModel.STATE_DONE));
+
+			// resumed in the original order, without the finished one
+			jobs = dao.takeDownloads(10);
+			assertEquals(CHAPTERS - 1, jobs.size());
+			for(int i = 0; i < jobs.size(); ++i) {
+				assertEquals(chapters.get(i + 1).getPage(), jobs.get(i).getPage());
+			}
+			// the attempts are kept
+			assertEquals(1, jobs.get(0).getAttempts());
+			assertEquals("503 error loading URL", jobs.get(0).getLastError());
+			assertEquals(0, jobs.get(1).getAttempts());
+		}
+		finally{
+			dao.setDBHelper(dbh);
+			restarted.close();
+		}
+	}
+
+	public void testAddAgain() {
+		ArrayList<DownloadJobModel> jobs = dao.takeDownloads(2);
+		DownloadJobModel done = jobs.get(0);
+		finish(done, DownloadJobModel.STATE_DONE);
+		DownloadJobModel failed = jobs.get(1);
+		failed.setAttempts(3);
+		failed.setLastError("404 error loading URL");
+		finish(failed, DownloadJobModel.STATE_FAILED);
+
+		// everything is added again, only the finished and failed items change
+		dao.addDownloads(chapters, DownloadJobModel.TYPE_CHAPTER);
+		assertEquals(0, dao.getDownloadCount(DownloadJobModel.STATE_DONE));
+		assertEquals(0, dao.getDownloadCount(DownloadJobModel.STATE_FAILED));
+		assertEquals(0, dao.getDownloadCount(DownloadJobModel.STATE_RUNNING));
+		assertEquals(CHAPTERS, dao.getDownloadCount(DownloadJobModel.STATE_PENDING));
+
+		jobs = dao.takeDownloads(10);
+		assertEquals(CHAPTERS, jobs.size());
+		for(int i = 0; i < jobs.size(); ++i) {
+			assertEquals(0, jobs.get(i).getAttempts());
+			assertNull(jobs.get(i).getLastError());
+		}
+	}
+
+	public void testRunningItemIsNotQueuedTwice() {
+		dao.takeDownloads(1);
+		dao.addDownloads(chapters.subList(0, 1), DownloadJobModel.TYPE_CHAPTER);
+		assertEquals(1, dao.getDownloadCount(DownloadJobModel.STATE_RUNNING));
+		assertEquals(CHAPTERS - 1, dao.getDownloadCount(DownloadJobModel.STATE_PENDING));
+	}
+
+	public void testClearFinished() {
+		ArrayList<DownloadJobModel> jobs = dao.takeDownloads(2);
+		finish(jobs.get(0), DownloadJobModel.STATE_DONE);
+		finish(jobs.get(1), DownloadJobModel.STATE_FAILED);
+
+		assertEquals(1, dao.clearFinishedDownloads());
+		assertEquals(0, dao.getDownloadCount(DownloadJobModel.STATE_DONE));
+		// failed items are kept to be shown to the user
+		assertEquals(1, dao.getDownloadCount(DownloadJobModel.STATE_FAILED));
+		assertEquals(CHAPTERS - 2, dao.getDownloadCount(DownloadJobModel.STATE_PENDING));
+	}
+
+	private void finish(DownloadJobModel job, int state) {
+		job.setState(state);
+		dao.updateDownload(job);
+	}
+}
@@ -0,0 +1,130 @@
+package com.erakk.lnreader.test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.helper.BakaTsukiFetcher;
+import com.erakk.lnreader.helper.RetryPolicy;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * BakaTsukiFetcher against a local stub server instead of the wiki.
+ */
+public class FetcherTest extends TestCase {
+	static final String PAGE_INFO_XML = "<?xml version=\"1.0\"?><api><query>"
+			+ "<normalized><n from=\"LNReaderTest_Volume_1\" to=\"LNReaderTest Volume 1\" /></normalized>"
+			+ "<pages>"
+			+ "<page pageid=\"1\" ns=\"0\" title=\"LNReaderTest\" touched=\"2013-01-02T03:04:05Z\" lastrevid=\"1\" counter=\"0\" length=\"100\" />"
+			+ "<page pageid=\"2\" ns=\"0\" title=\"LNReaderTest Volume 1\" touched=\"2013-02-03T04:05:06Z\" lastrevid=\"2\" counter=\"0\" length=\"100\" />"
+			+ "<page ns=\"0\" title=\"LNReaderTest Missing\" missing=\"\" />"
+			+ "</pages></query></api>";
+
+	private StubServer server;
+	private volatile int status503;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = new StubServer(new StubServer.Handler() {
+			public StubServer.Response handle(StubServer.Request request) {
+				if(request.path.startsWith("/project/api.php?action=query&prop=info")) {
+					return StubServer.Response.xml(PAGE_INFO_XML);
+				}
+				if(request.path.startsWith("/project/api.php?action=parse") && request.path.endsWith("page=LNReaderTest_Volume_1")) {
+					return StubServer.Response.xml(contentXml("LNReaderTest Volume 1", "<p>Chapter text</p><img src=\"/project/images/a/a1/LNReaderTest.jpg\" />"));
+				}
+				if(request.path.startsWith("/project/api.php?action=parse") && request.path.endsWith("page=Unavailable")) {
+					// fail once, then succeed
+					if(status503++ == 0) return StubServer.Response.status(503);
+					return StubServer.Response.xml(contentXml("Unavailable", "<p>Back again</p>"));
+				}
+				return StubServer.Response.status(404);
+			}
+		});
+		server.start();
+		BakaTsukiFetcher.setBaseUrl(server.getBaseUrl());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		BakaTsukiFetcher.setBaseUrl(Constants.BASE_URL);
+		BakaTsukiFetcher.setTimeout(Constants.TIMEOUT);
+		server.stop();
+		super.tearDown();
+	}
+
+	static String contentXml(String title, String html) {
+		return "<?xml version=\"1.0\"?><api><parse title=\"" + title + "\"><text xml:space=\"preserve\">"
+				+ html.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;")
+				+ "</text></parse></api>";
+	}
+
+	public void testPageInfoBatch() throws Exception {
+		ArrayList<PageModel> pages = new ArrayList<PageModel>();
+		pages.add(page("LNReaderTest"));
+		pages.add(page("LNReaderTest_Volume_1"));
+		pages.add(page("LNReaderTest_Missing"));
+
+		ArrayList<PageModel> infos = BakaTsukiFetcher.fetchPageInfo(pages, null);
+		assertEquals(3, infos.size());
+		assertEquals("LNReaderTest", infos.get(0).getTitle());
+		assertEquals("LNReaderTest_Volume_1", infos.get(1).getPage());
+		assertEquals("LNReaderTest Volume 1", infos.get(1).getTitle());
+		assertTrue(infos.get(1).getLastUpdate().after(infos.get(0).getLastUpdate()));
+		assertNull(infos.get(2));
+
+		// one request for all the pages
+		assertEquals(1, server.getRequests().size());
+		assertTrue(server.getRequests().get(0).path.endsWith("titles=LNReaderTest|LNReaderTest_Volume_1|LNReaderTest_Missing"));
+	}
+
+	public void testNovelContent() throws Exception {
+		NovelContentModel content = BakaTsukiFetcher.fetchNovelContent(page("LNReaderTest_Volume_1"), null, null);
+		assertEquals("LNReaderTest_Volume_1", content.getPage());
+		assertTrue(content.getContent().contains("<p>Chapter text</p>"));
+		assertTrue(content.getContent().contains("file://" + Constants.IMAGE_ROOT + "/project/images/a/a1/LNReaderTest.jpg"));
+		assertEquals(1, content.getImages().size());
+		assertTrue(content.getPageModel().isDownloaded());
+	}
+
+	public void testNotFoundIsNotRetried() throws Exception {
+		try{
+			BakaTsukiFetcher.fetchNovelContent(page("LNReaderTest_Not_Found"), null, null);
+			fail("404 should be thrown");
+		}
+		catch(IOException ex) {
+			assertEquals(404, RetryPolicy.getHttpStatus(ex));
+		}
+		assertEquals(1, server.getRequests().size());
+	}
+
+	public void testServerErrorIsRetried() throws Exception {
+		NovelContentModel content = BakaTsukiFetcher.fetchNovelContent(page("Unavailable"), null, null);
+		assertTrue(content.getContent().contains("Back again"));
+		assertEquals(2, server.getRequests().size());
+	}
+
+	public void testTimeoutIsRetried() throws Exception {
+		BakaTsukiFetcher.setTimeout(200);
+		server.setLatency(1000);
+		try{
+			BakaTsukiFetcher.fetchNovelContent(page("LNReaderTest_Volume_1"), null, null);
+			fail("timeout should be thrown");
+		}
+		catch(SocketTimeoutException ex) {
+			// expected
+		}
+		assertEquals(Constants.PAGE_DOWNLOAD_RETRY, server.getRequests().size());
+	}
+
+	private static PageModel page(String name) {
+		PageModel page = new PageModel();
+		page.setPage(name);
+		return page;
+	}
+}
@@ -0,0 +1,22 @@
+package com.erakk.lnreader.test;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import com.erakk.lnreader.model.HttpValidatorModel;
+
+public class HttpValidatorModelTest extends TestCase {
+	public void testLastModifiedDate() {
+		HttpValidatorModel validator = new HttpValidatorModel("http://www.baka-tsuki.org/project");
+		validator.setLastModified("Sun, 06 Nov 1994 08:49:37 GMT");
+		assertEquals(new Date(784111777000L), validator.getLastModifiedDate());
+	}
+
+	public void testMissingOrInvalidLastModified() {
+		HttpValidatorModel validator = new HttpValidatorModel("http://www.baka-tsuki.org/project");
+		assertNull(validator.getLastModifiedDate());
+		validator.setLastModified("yesterday");
+		assertNull(validator.getLastModifiedDate());
+	}
+}
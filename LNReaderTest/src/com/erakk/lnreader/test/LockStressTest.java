@@ -0,0 +1,126 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import android.database.Cursor;
+
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Readers and writers going through NovelsDao at the same time on the shared connection.
+ * Any exception (e.g. SQLiteDatabaseLockedException) or a thread still running at the end fails the test.
+ */
+public class LockStressTest extends NovelsDaoTestCase {
+	private static final String NOVEL = "LNReaderTest";
+	private static final String BOOK = "Volume 1";
+	private static final int CHAPTERS = 20;
+	private static final int READERS = 4;
+	private static final int WRITERS = 2;
+	private static final int ITERATIONS = 100;
+	private static final long TIMEOUT = 120000;
+
+	private final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+	private final CountDownLatch start = new CountDownLatch(1);
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dbh.insertOrUpdatePageModel(db, novel(NOVEL));
+		for(int i = 0; i < CHAPTERS; ++i) {
+			PageModel chapter = chapter(page(i), NOVEL, BOOK);
+			chapter.setOrder(i);
+			dbh.insertOrUpdatePageModel(db, chapter);
+			dbh.insertNovelContent(db, content(chapter, 0));
+		}
+	}
+
+	public void testReadersAndWriters() throws Exception {
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < READERS; ++i) {
+			threads.add(new Worker("reader-" + i) {
+				void iteration(int i) throws Exception {
+					PageModel chapter = chapter(page(i % CHAPTERS), NOVEL, BOOK);
+					assertEquals(CHAPTERS, dao.getChapterCollection(NOVEL, BOOK, null).size());
+					assertNotNull(dao.getPageModel(chapter, null));
+					assertNotNull(dao.getNovelContent(chapter, null));
+					dao.searchNovelContent("stress", 10);
+					Cursor cursor = dao.getNovelListCursor(false);
+					try{
+						assertEquals(1, cursor.getCount());
+					}
+					finally{
+						cursor.close();
+					}
+				}
+			});
+		}
+		for(int i = 0; i < WRITERS; ++i) {
+			threads.add(new Worker("writer-" + i) {
+				void iteration(int i) throws Exception {
+					PageModel chapter = chapter(page(i % CHAPTERS), NOVEL, BOOK);
+					chapter.setOrder(i % CHAPTERS);
+					dao.updatePageModel(chapter);
+					NovelContentModel content = dao.updateNovelContent(content(chapter, i));
+					content.setLastYScroll(i);
+					dao.updateReadingPosition(content);
+					dao.setFinishedRead(chapter, i % 2 == 0);
+					if(i % 10 == 0) dao.flushPendingFlags(true);
+				}
+			});
+		}
+
+		for(int i = 0; i < threads.size(); ++i) {
+			threads.get(i).start();
+		}
+		start.countDown();
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		for(int i = 0; i < threads.size(); ++i) {
+			Thread thread = threads.get(i);
+			thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+			assertFalse("Deadlock? still running: " + thread.getName(), thread.isAlive());
+		}
+		dao.flushPendingFlags(true);
+
+		if(!errors.isEmpty()) {
+			AssertionError error = new AssertionError(errors.size() + " thread(s) failed, first: " + errors.get(0));
+			error.initCause(errors.get(0));
+			throw error;
+		}
+	}
+
+	private abstract class Worker extends Thread {
+		Worker(String name) {
+			super(name);
+		}
+
+		abstract void iteration(int i) throws Exception;
+
+		public void run() {
+			try{
+				start.await();
+				for(int i = 0; i < ITERATIONS; ++i) {
+					iteration(i);
+				}
+			}
+			catch(Throwable ex) {
+				errors.add(ex);
+			}
+		}
+	}
+
+	private static String page(int index) {
+		return NOVEL + "_Volume_1_Chapter_" + index;
+	}
+
+	private static NovelContentModel content(PageModel chapter, int version) {
+		NovelContentModel content = new NovelContentModel();
+		content.setPage(chapter.getPage());
+		content.setContent("<p>stress test " + chapter.getPage() + " version " + version + "</p>");
+		content.setPageModel(chapter);
+		return content;
+	}
+}
@@ -0,0 +1,131 @@
+package com.erakk.lnreader.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Date;
+import java.util.Random;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.helper.ChapterFileStore;
+import com.erakk.lnreader.model.NovelContentModel;
+
+public class NovelContentTest extends DBHelperTestCase {
+	private static final String PAGE = "LNReaderTest_Volume_1_Chapter_1";
+
+	private String contentPath = null;
+
+	@Override
+	protected void tearDown() throws Exception {
+		ChapterFileStore.delete(contentPath);
+		super.tearDown();
+	}
+
+	public void testSmallContentIsSavedInDb() throws Exception {
+		NovelContentModel saved = dbh.insertNovelContent(db, content(PAGE, "<p>Hello</p>"));
+		assertNull(saved.getContentPath());
+		assertEquals("<p>Hello</p>", dbh.getNovelContent(db, PAGE).getContent());
+	}
+
+	public void testBigContentIsSavedToFile() throws Exception {
+		String html = randomHtml(2 * 1024 * 1024);
+		NovelContentModel saved = save(html);
+		assertNotNull(saved.getContentPath());
+		assertTrue(new File(Constants.CHAPTER_ROOT, contentPath).length() > Constants.CONTENT_FILE_THRESHOLD);
+		assertEquals(html, dbh.getNovelContent(db, PAGE).getContent());
+	}
+
+	public void testSavedModelIsSameAsReadBack() throws Exception {
+		NovelContentModel content = content(PAGE, randomHtml(2 * 1024 * 1024));
+		content.setLastUpdate(new Date(1356998400000L));
+		content.setLastYScroll(100);
+		save(content);
+		// reading position is kept in its own table
+		content.setLastYScroll(200);
+		dbh.updateReadingPosition(db, content);
+
+		NovelContentModel saved = save(content(PAGE, randomHtml(3 * 1024 * 1024)));
+		NovelContentModel read = dbh.getNovelContent(db, PAGE);
+		assertEquals(read.getId(), saved.getId());
+		assertEquals(read.getPage(), saved.getPage());
+		assertEquals(read.getContentPath(), saved.getContentPath());
+		assertEquals(read.getContent(), saved.getContent());
+		assertEquals(read.getLastUpdate(), saved.getLastUpdate());
+		assertEquals(new Date(1356998400000L), saved.getLastUpdate());
+		assertEquals(read.getLastCheck(), saved.getLastCheck());
+		assertEquals(200, saved.getLastYScroll());
+		assertEquals(read.getLastYScroll(), saved.getLastYScroll());
+	}
+
+	public void testMissingFileIsNotFound() throws Exception {
+		save(randomHtml(2 * 1024 * 1024));
+		assertTrue(new File(Constants.CHAPTER_ROOT, contentPath).delete());
+		// downloaded again by the dao
+		assertNull(dbh.getNovelContent(db, PAGE));
+	}
+
+	public void testCorruptedFileIsNotFound() throws Exception {
+		save(randomHtml(2 * 1024 * 1024));
+		RandomAccessFile file = new RandomAccessFile(new File(Constants.CHAPTER_ROOT, contentPath), "rw");
+		try{
+			file.seek(file.length() / 2);
+			int value = file.read();
+			file.seek(file.length() / 2);
+			file.write(value ^ 0xFF);
+		}
+		finally{
+			file.close();
+		}
+		assertNull(dbh.getNovelContent(db, PAGE));
+	}
+
+	public void testReplacedFileIsKept() throws Exception {
+		String oldPath = dbh.insertNovelContent(db, content(PAGE, randomHtml(2 * 1024 * 1024))).getContentPath();
+		try{
+			save(randomHtml(2 * 1024 * 1024));
+			// deleted by NovelsDao after the commit
+			assertFalse(oldPath.equals(contentPath));
+			assertTrue(new File(Constants.CHAPTER_ROOT, oldPath).exists());
+		}
+		finally{
+			ChapterFileStore.delete(oldPath);
+		}
+	}
+
+	private NovelContentModel save(String html) throws Exception {
+		return save(content(PAGE, html));
+	}
+
+	private NovelContentModel save(NovelContentModel content) throws Exception {
+		NovelContentModel saved = dbh.insertNovelContent(db, content);
+		// the replaced file is deleted by NovelsDao after the commit
+		if(contentPath != null && !contentPath.equals(saved.getContentPath())) ChapterFileStore.delete(contentPath);
+		contentPath = saved.getContentPath();
+		return saved;
+	}
+
+	private static NovelContentModel content(String page, String html) {
+		NovelContentModel content = new NovelContentModel();
+		content.setPage(page);
+		content.setContent(html);
+		content.setPageModel(chapter(page, "LNReaderTest", "Volume 1"));
+		return content;
+	}
+
+	/*
+	 * Random words compress poorly, so a few MB of html is still over CONTENT_FILE_THRESHOLD when compressed.
+	 */
+	static String randomHtml(int length) {
+		Random random = new Random(length);
+		StringBuilder builder = new StringBuilder(length + 16);
+		builder.append("<p>");
+		while(builder.length() < length) {
+			int word = 2 + random.nextInt(8);
+			for(int i = 0; i < word; ++i) {
+				builder.append((char) ('a' + random.nextInt(26)));
+			}
+			builder.append(random.nextInt(20) == 0 ? "</p>\n<p>" : " ");
+		}
+		builder.append("</p>");
+		return builder.toString();
+	}
+}
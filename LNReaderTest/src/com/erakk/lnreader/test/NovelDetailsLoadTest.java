@@ -0,0 +1,126 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+
+import android.util.Log;
+
+import com.erakk.lnreader.helper.QueryStats;
+import com.erakk.lnreader.model.BookModel;
+import com.erakk.lnreader.model.NovelCollectionModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Novel details with all the books and chapters loaded by the single joined query,
+ * compared to one query for the books and one more for the chapters of each book.
+ */
+public class NovelDetailsLoadTest extends DBHelperTestCase {
+	private static final String TAG = NovelDetailsLoadTest.class.toString();
+	private static final String NOVEL = "LNReaderTest";
+	private static final int BOOKS = 30;
+	private static final int CHAPTERS_PER_BOOK = 20;
+	private static final int ITERATIONS = 20;
+
+	private boolean wasEnabled;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		NovelCollectionModel details = new NovelCollectionModel();
+		details.setPage(NOVEL);
+		details.setSynopsis("Synopsis");
+		details.setLastUpdate(new Date(0));
+		ArrayList<BookModel> books = new ArrayList<BookModel>();
+		for(int b = 0; b < BOOKS; ++b) {
+			BookModel book = new BookModel();
+			book.setTitle("Volume " + (b + 1));
+			book.setOrder(b);
+			ArrayList<PageModel> chapters = new ArrayList<PageModel>();
+			for(int c = 0; c < CHAPTERS_PER_BOOK; ++c) {
+				PageModel chapter = chapter(NOVEL + "_Volume_" + (b + 1) + "_Chapter_" + (c + 1), NOVEL, book.getTitle());
+				chapter.setOrder(c);
+				chapters.add(chapter);
+			}
+			book.setChapterCollection(chapters);
+			books.add(book);
+		}
+		details.setBookCollections(books);
+
+		db.beginTransaction();
+		try{
+			dbh.insertOrUpdatePageModel(db, novel(NOVEL));
+			dbh.insertNovelDetails(db, details);
+			db.setTransactionSuccessful();
+		}
+		finally{
+			db.endTransaction();
+		}
+
+		wasEnabled = QueryStats.isEnabled();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		QueryStats.reset();
+		QueryStats.setEnabled(wasEnabled);
+		super.tearDown();
+	}
+
+	public void testSingleQuery() {
+		QueryStats.setEnabled(true);
+		QueryStats.reset();
+		NovelCollectionModel details = dbh.getNovelDetails(db, NOVEL);
+		assertEquals(1, countQueries());
+		assertEquals(BOOKS * CHAPTERS_PER_BOOK, details.getFlattedChapterList().size());
+
+		QueryStats.reset();
+		assertEquals(BOOKS * CHAPTERS_PER_BOOK, loadPerBook().size());
+		assertEquals(BOOKS + 1, countQueries());
+	}
+
+	public void testSingleQueryIsFaster() {
+		// warm up
+		dbh.getNovelDetails(db, NOVEL);
+		loadPerBook();
+
+		long start = System.currentTimeMillis();
+		for(int i = 0; i < ITERATIONS; ++i) {
+			loadPerBook();
+		}
+		long perBook = System.currentTimeMillis() - start;
+
+		start = System.currentTimeMillis();
+		for(int i = 0; i < ITERATIONS; ++i) {
+			dbh.getNovelDetails(db, NOVEL);
+		}
+		long joined = System.currentTimeMillis() - start;
+
+		Log.i(TAG, BOOKS + " books, " + (BOOKS * CHAPTERS_PER_BOOK) + " chapters, " + ITERATIONS + " loads: "
+				+ "query per book " + perBook + " ms, single query " + joined + " ms");
+		assertTrue(joined + " ms vs " + perBook + " ms", joined < perBook);
+	}
+
+	/*
+	 * The books, then the chapters of each book by book_id.
+	 */
+	private ArrayList<PageModel> loadPerBook() {
+		NovelCollectionModel details = new NovelCollectionModel();
+		details.setPage(NOVEL);
+		ArrayList<PageModel> result = new ArrayList<PageModel>();
+		ArrayList<BookModel> books = dbh.getBookCollectionOnly(db, NOVEL, details);
+		for(Iterator<BookModel> i = books.iterator(); i.hasNext();) {
+			BookModel book = i.next();
+			result.addAll(dbh.getChapterCollection(db, book.getId(), book));
+		}
+		return result;
+	}
+
+	private static long countQueries() {
+		long count = 0;
+		for(Iterator<QueryStats.Entry> i = QueryStats.getEntries().iterator(); i.hasNext();) {
+			count += i.next().getCount();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,25 @@
+package com.erakk.lnreader.test;
+
+import com.erakk.lnreader.dao.NovelsDao;
+import com.erakk.lnreader.helper.DBHelper;
+
+/**
+ * NovelsDao pointed to the test database, the application db is restored afterward.
+ */
+public abstract class NovelsDaoTestCase extends DBHelperTestCase {
+	protected NovelsDao dao;
+	private DBHelper previous;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dao = NovelsDao.getInstance(context.getApplicationContext());
+		previous = dao.setDBHelper(dbh);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		dao.setDBHelper(previous);
+		super.tearDown();
+	}
+}
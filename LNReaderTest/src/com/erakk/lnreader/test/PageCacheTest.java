@@ -0,0 +1,32 @@
+package com.erakk.lnreader.test;
+
+import com.erakk.lnreader.model.PageModel;
+
+public class PageCacheTest extends NovelsDaoTestCase {
+	private static final String NOVEL = "LNReaderTest";
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dbh.insertOrUpdatePageModel(db, novel(NOVEL));
+	}
+
+	public void testSameInstanceIsReturned() throws Exception {
+		PageModel page = dao.getPageModel(novel(NOVEL), null);
+		assertSame(page, dao.getPageModel(novel(NOVEL), null));
+	}
+
+	public void testQueuedFlagsAreAppliedOnCopy() throws Exception {
+		PageModel cached = dao.getPageModel(novel(NOVEL), null);
+		assertFalse(cached.isFinishedRead());
+
+		dao.setFinishedRead(novel(NOVEL), true);
+		PageModel page = dao.getPageModel(novel(NOVEL), null);
+		assertNotSame(cached, page);
+		assertTrue(page.isFinishedRead());
+		assertFalse(cached.isFinishedRead());
+
+		dao.flushPendingFlags(true);
+		assertTrue(dao.getPageModel(novel(NOVEL), null).isFinishedRead());
+	}
+}
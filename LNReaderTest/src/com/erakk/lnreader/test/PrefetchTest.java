@@ -0,0 +1,174 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.LNReaderApplication;
+import com.erakk.lnreader.dao.ChapterPrefetcher;
+import com.erakk.lnreader.helper.BakaTsukiFetcher;
+import com.erakk.lnreader.model.BookModel;
+import com.erakk.lnreader.model.NovelCollectionModel;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * Reading a novel from the first to the last chapter the same way as DisplayLightNovelContentActivity:
+ * take the prefetched chapter or load it, then prefetch the next ones.
+ * Counts the prefetch hit rate, and the time until the html is ready for the WebView
+ * of the prefetched and not prefetched chapters. The WebView drawing itself is left out,
+ * it is the same for both and is recorded by the activity.
+ */
+public class PrefetchTest extends NovelsDaoTestCase {
+	private static final String TAG = PrefetchTest.class.toString();
+	private static final String NOVEL = "LNReaderTest";
+	private static final String BOOK = "Volume 1";
+	private static final String CSS = "body { color: black; }";
+	private static final int CHAPTERS = 6;
+	private static final long LATENCY = 300;
+
+	private StubServer server;
+	private NovelCollectionModel details;
+	private ArrayList<PageModel> chapters;
+	private SharedPreferences prefs;
+	private boolean wasPrefetch;
+	private boolean wasPrefetchMetered;
+
+	private long hitTime;
+	private long missTime;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		server = new StubServer(new StubServer.Handler() {
+			public StubServer.Response handle(StubServer.Request request) {
+				if(request.path.startsWith("/project/api.php?action=query&prop=info")) {
+					return StubServer.Response.xml(ChapterDownloaderTest.pageInfoXml(request.path.substring(request.path.indexOf("titles=") + 7).split("\\|")));
+				}
+				if(request.path.startsWith("/project/api.php?action=parse")) {
+					String page = request.path.substring(request.path.indexOf("page=") + 5);
+					return StubServer.Response.xml(FetcherTest.contentXml(page.replace('_', ' '), html(page)));
+				}
+				return StubServer.Response.status(404);
+			}
+		});
+		server.start();
+		server.setLatency(LATENCY);
+		BakaTsukiFetcher.setBaseUrl(server.getBaseUrl());
+
+		prefs = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+		wasPrefetch = prefs.getBoolean(Constants.PREF_PREFETCH, true);
+		wasPrefetchMetered = prefs.getBoolean(Constants.PREF_PREFETCH_METERED, false);
+		prefs.edit().putBoolean(Constants.PREF_PREFETCH, true).putBoolean(Constants.PREF_PREFETCH_METERED, true).commit();
+
+		dbh.insertOrUpdatePageModel(db, novel(NOVEL));
+		chapters = new ArrayList<PageModel>();
+		for(int i = 0; i < CHAPTERS; ++i) {
+			PageModel chapter = chapter(NOVEL + "_Volume_1_Chapter_" + i, NOVEL, BOOK);
+			chapter.setOrder(i);
+			dbh.insertOrUpdatePageModel(db, chapter);
+			chapters.add(chapter);
+		}
+		BookModel book = new BookModel();
+		book.setPage(NOVEL);
+		book.setTitle(BOOK);
+		book.setChapterCollection(chapters);
+		ArrayList<BookModel> books = new ArrayList<BookModel>();
+		books.add(book);
+		details = new NovelCollectionModel();
+		details.setPage(NOVEL);
+		details.setBookCollections(books);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		// wait for the prefetch still running and drop the cached chapters
+		for(int i = 0; i < CHAPTERS; ++i) {
+			ChapterPrefetcher.take(chapters.get(i).getPage(), CSS);
+		}
+		prefs.edit().putBoolean(Constants.PREF_PREFETCH, wasPrefetch).putBoolean(Constants.PREF_PREFETCH_METERED, wasPrefetchMetered).commit();
+		BakaTsukiFetcher.setBaseUrl(Constants.BASE_URL);
+		server.stop();
+		super.tearDown();
+	}
+
+	private static String html(String page) {
+		return "<h2>" + page + "</h2>" + NovelContentTest.randomHtml(20000);
+	}
+
+	public void testSavedChapters() throws Exception {
+		for(int i = 0; i < CHAPTERS; ++i) {
+			NovelContentModel content = new NovelContentModel();
+			content.setPage(chapters.get(i).getPage());
+			content.setContent(html(chapters.get(i).getPage()));
+			content.setPageModel(chapters.get(i));
+			content.setLastUpdate(new Date(0));
+			content.setLastCheck(new Date());
+			dbh.insertNovelContent(db, content);
+		}
+
+		read(200, "saved");
+		assertEquals(0, server.countRequests("/project/api.php?action=parse"));
+	}
+
+	public void testDownloadedChapters() throws Exception {
+		if(!LNReaderApplication.getInstance().isOnline()) {
+			Log.w(TAG, "No network, the download is not allowed: skipped");
+			return;
+		}
+		// reading takes longer than the page info and content requests
+		read(LATENCY * 4, "downloaded");
+		// each chapter only once
+		assertEquals(CHAPTERS, server.countRequests("/project/api.php?action=parse"));
+	}
+
+	public void testNextChapterStillLoading() throws Exception {
+		if(!LNReaderApplication.getInstance().isOnline()) {
+			Log.w(TAG, "No network, the download is not allowed: skipped");
+			return;
+		}
+		// the next chapter is opened right away, take() waits for the running prefetch
+		read(0, "not read");
+		assertEquals(CHAPTERS, server.countRequests("/project/api.php?action=parse"));
+	}
+
+	/*
+	 * Open each chapter in order, the first one is always a miss.
+	 */
+	private void read(long readingTime, String name) throws Exception {
+		long hits = ChapterPrefetcher.getHits();
+		long misses = ChapterPrefetcher.getMisses();
+		hitTime = 0;
+		missTime = 0;
+		for(int i = 0; i < CHAPTERS; ++i) {
+			PageModel chapter = chapters.get(i);
+			long start = System.currentTimeMillis();
+			String html;
+			ChapterPrefetcher.Entry entry = ChapterPrefetcher.take(chapter.getPage(), CSS);
+			if(entry != null) {
+				html = entry.getHtml();
+			}
+			else {
+				html = ChapterPrefetcher.buildHtml(CSS, dao.getNovelContent(chapter, null));
+			}
+			long elapsed = System.currentTimeMillis() - start;
+			if(entry != null) hitTime += elapsed;
+			else missTime += elapsed;
+			assertTrue(html.contains(chapter.getPage()));
+
+			ChapterPrefetcher.prefetch(details, chapter.getPage(), CSS);
+			if(readingTime > 0) Thread.sleep(readingTime);
+		}
+		hits = ChapterPrefetcher.getHits() - hits;
+		misses = ChapterPrefetcher.getMisses() - misses;
+
+		Log.i(TAG, name + ": hit rate " + hits + "/" + (hits + misses) + ", content ready average prefetched "
+				+ (hits == 0 ? 0 : hitTime / hits) + " ms, not prefetched " + (misses == 0 ? 0 : missTime / misses) + " ms");
+		assertEquals(1, misses);
+		assertEquals(CHAPTERS - 1, hits);
+	}
+}
@@ -0,0 +1,108 @@
+package com.erakk.lnreader.test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import android.database.Cursor;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.helper.QueryStats;
+import com.erakk.lnreader.model.ImageModel;
+
+/**
+ * The hot queries are run through DBHelper, then the sql recorded by QueryStats is explained:
+ * none of them should scan a whole table or sort with a temp b-tree.
+ */
+public class QueryPlanTest extends DBHelperTestCase {
+	private static final String NOVEL = "LNReaderTest";
+	private static final String BOOK = "Volume 1";
+
+	private boolean wasEnabled;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		dbh.insertOrUpdatePageModel(db, novel(NOVEL));
+		for(int i = 1; i <= 10; ++i) {
+			dbh.insertOrUpdatePageModel(db, chapter(NOVEL + "_Volume_1_Chapter_" + i, NOVEL, BOOK));
+		}
+		ImageModel image = new ImageModel();
+		image.setName("LNReaderTest.jpg");
+		image.setPath("/LNReaderTest.jpg");
+		image.setUrl(new URL("http://www.baka-tsuki.org/project/images/LNReaderTest.jpg"));
+		image.setReferer("http://www.baka-tsuki.org/project/index.php?title=File:LNReaderTest.jpg");
+		dbh.insertImage(db, image);
+
+		wasEnabled = QueryStats.isEnabled();
+		QueryStats.setEnabled(true);
+		QueryStats.reset();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		QueryStats.reset();
+		QueryStats.setEnabled(wasEnabled);
+		super.tearDown();
+	}
+
+	public void testChapterCollectionByParent() {
+		dbh.getChapterCollection(db, NOVEL + Constants.NOVEL_BOOK_DIVIDER + BOOK, null);
+		assertQueriesUseIndex(1);
+	}
+
+	public void testChapterCollectionByBookId() {
+		dbh.getChapterCollection(db, 1, null);
+		assertQueriesUseIndex(1);
+	}
+
+	public void testAllNovels() {
+		dbh.getAllNovels(db);
+		assertQueriesUseIndex(1);
+	}
+
+	public void testNovelListCursor() {
+		Cursor cursor = dbh.getNovelListCursor(db, false);
+		cursor.getCount();
+		cursor.close();
+		assertQueriesUseIndex(1);
+	}
+
+	public void testCaseInsensitivePageLookup() {
+		// not found by page, then by page_key
+		assertNotNull(dbh.getPageModel(db, NOVEL.toLowerCase()));
+		assertQueriesUseIndex(2);
+	}
+
+	public void testImageByReferer() {
+		assertNotNull(dbh.getImageByReferer(db, "http://www.baka-tsuki.org/project/index.php?title=File:LNReaderTest.jpg"));
+		assertQueriesUseIndex(1);
+	}
+
+	public void testBookModel() {
+		dbh.getBookModel(db, NOVEL, BOOK);
+		assertQueriesUseIndex(1);
+	}
+
+	private void assertQueriesUseIndex(int expectedQueries) {
+		ArrayList<QueryStats.Entry> entries = QueryStats.getEntries();
+		assertEquals(expectedQueries, entries.size());
+		for(Iterator<QueryStats.Entry> i = entries.iterator(); i.hasNext();) {
+			String sql = i.next().getShape();
+			Cursor cursor = db.rawQuery("explain query plan " + sql, null);
+			try{
+				int detailIndex = cursor.getColumnIndexOrThrow("detail");
+				assertTrue(cursor.moveToFirst());
+				while(!cursor.isAfterLast()) {
+					String detail = cursor.getString(detailIndex);
+					assertFalse(sql + ": " + detail, detail.startsWith("SCAN"));
+					assertFalse(sql + ": " + detail, detail.contains("TEMP B-TREE"));
+					cursor.moveToNext();
+				}
+			}
+			finally{
+				cursor.close();
+			}
+		}
+	}
+}
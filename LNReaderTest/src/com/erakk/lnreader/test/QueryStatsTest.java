@@ -0,0 +1,81 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+
+import junit.framework.TestCase;
+
+import com.erakk.lnreader.helper.QueryStats;
+
+public class QueryStatsTest extends TestCase {
+	private boolean wasEnabled;
+	private long threshold;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		wasEnabled = QueryStats.isEnabled();
+		threshold = QueryStats.getSlowQueryThreshold();
+		QueryStats.setEnabled(true);
+		QueryStats.setSlowQueryThreshold(-1);
+		QueryStats.reset();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		QueryStats.reset();
+		QueryStats.setEnabled(wasEnabled);
+		QueryStats.setSlowQueryThreshold(threshold);
+		super.tearDown();
+	}
+
+	public void testShapeReplacesLiterals() {
+		assertEquals("select * from pages where page = ? and _id > ?",
+				QueryStats.toShape("select * from pages where page = 'Main_Page' and _id > 42"));
+		assertEquals("select * from pages where title = ?",
+				QueryStats.toShape("select * from pages where title = 'Kino''s Journey'"));
+	}
+
+	public void testShapeKeepsIdentifiersAndParameters() {
+		assertEquals("select c1 from novel_books_content where _id = ?",
+				QueryStats.toShape("select c1 from novel_books_content where _id = ?"));
+	}
+
+	public void testShapeCollapsesWhitespace() {
+		assertEquals("select * from pages where type = ?",
+				QueryStats.toShape("  select *\n\tfrom   pages\r\n where type = ?  "));
+	}
+
+	public void testSameShapeIsCountedTogether() {
+		QueryStats.record("select * from pages where _id = 1", QueryStats.start(), 1);
+		QueryStats.record("select * from pages where _id = 2", QueryStats.start(), 1);
+		QueryStats.record("select * from pages  where _id = 3", QueryStats.start(), -1);
+		QueryStats.record("delete from pages where _id = 4", QueryStats.start(), 1);
+
+		ArrayList<QueryStats.Entry> entries = QueryStats.getEntries();
+		assertEquals(2, entries.size());
+		QueryStats.Entry select = find(entries, "select * from pages where _id = ?");
+		assertNotNull(select);
+		assertEquals(3, select.getCount());
+		// unknown row count is not added
+		assertEquals(2, select.getRows());
+		assertTrue(select.getPercentileMillis(50) <= select.getPercentileMillis(99));
+		assertTrue(select.getPercentileMillis(99) <= select.getMaxMillis());
+	}
+
+	public void testDisabledIsNotRecorded() {
+		QueryStats.setEnabled(false);
+		long start = QueryStats.start();
+		assertEquals(0, start);
+		QueryStats.record("select * from pages", start, 1);
+		QueryStats.setEnabled(true);
+		QueryStats.record("select * from pages", start, 1);
+		assertEquals(0, QueryStats.getEntries().size());
+	}
+
+	private static QueryStats.Entry find(ArrayList<QueryStats.Entry> entries, String shape) {
+		for(int i = 0; i < entries.size(); ++i) {
+			if(entries.get(i).getShape().equals(shape)) return entries.get(i);
+		}
+		return null;
+	}
+}
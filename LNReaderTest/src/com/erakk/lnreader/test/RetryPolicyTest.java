@@ -0,0 +1,122 @@
+package com.erakk.lnreader.test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.MalformedInputException;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+import com.erakk.lnreader.helper.RetryPolicy;
+
+public class RetryPolicyTest extends TestCase {
+
+	public void testDelayIsDoubledWithJitter() {
+		RetryPolicy policy = new RetryPolicy(10, 1000, 15000, 0);
+		for(int i = 0; i < 100; ++i) {
+			assertInRange(500, 1000, policy.getDelay(1));
+			assertInRange(1000, 2000, policy.getDelay(2));
+			assertInRange(2000, 4000, policy.getDelay(3));
+		}
+	}
+
+	public void testDelayIsLimitedToMaxDelay() {
+		RetryPolicy policy = new RetryPolicy(10, 1000, 15000, 0);
+		for(int i = 0; i < 100; ++i) {
+			assertInRange(7500, 15000, policy.getDelay(5));
+			assertInRange(7500, 15000, policy.getDelay(64));
+		}
+	}
+
+	public void testHttpStatus() {
+		assertEquals(503, RetryPolicy.getHttpStatus(RetryPolicy.httpError(503, "http://www.baka-tsuki.org/")));
+		assertEquals(404, RetryPolicy.getHttpStatus(new IOException("404 error loading URL http://www.baka-tsuki.org/")));
+		assertEquals(-1, RetryPolicy.getHttpStatus(new IOException("Connection reset")));
+		assertEquals(-1, RetryPolicy.getHttpStatus(new IOException()));
+	}
+
+	public void testRetryableErrors() {
+		assertTrue(RetryPolicy.isRetryable(new SocketTimeoutException()));
+		assertTrue(RetryPolicy.isRetryable(new IOException("Connection reset")));
+		assertTrue(RetryPolicy.isRetryable(RetryPolicy.httpError(408, "url")));
+		assertTrue(RetryPolicy.isRetryable(RetryPolicy.httpError(429, "url")));
+		assertTrue(RetryPolicy.isRetryable(RetryPolicy.httpError(500, "url")));
+		assertTrue(RetryPolicy.isRetryable(RetryPolicy.httpError(503, "url")));
+	}
+
+	public void testNotRetryableErrors() {
+		assertFalse(RetryPolicy.isRetryable(RetryPolicy.httpError(403, "url")));
+		assertFalse(RetryPolicy.isRetryable(RetryPolicy.httpError(404, "url")));
+		assertFalse(RetryPolicy.isRetryable(new InterruptedIOException()));
+		assertFalse(RetryPolicy.isRetryable(new MalformedURLException()));
+		assertFalse(RetryPolicy.isRetryable(new FileNotFoundException()));
+		assertFalse(RetryPolicy.isRetryable(new MalformedInputException(1)));
+		assertFalse(RetryPolicy.isRetryable(new IOException("Unhandled content type \"image/png\" on URL url. Must be text/*, application/xml, or application/xhtml+xml")));
+		assertFalse(RetryPolicy.isRetryable(new IOException("Too many redirects occurred trying to load URL url")));
+		assertFalse(RetryPolicy.isRetryable(new NullPointerException()));
+	}
+
+	public void testExecuteRetriesUntilSuccess() throws Exception {
+		FailingTask task = new FailingTask(2, new IOException("Connection reset"));
+		assertEquals("done", new RetryPolicy(3, 1, 2, 0).execute(task, "test", null));
+		assertEquals(3, task.calls);
+	}
+
+	public void testExecuteGivesUpAfterMaxAttempts() throws Exception {
+		IOException error = new IOException("Connection reset");
+		FailingTask task = new FailingTask(5, error);
+		try {
+			new RetryPolicy(3, 1, 2, 0).execute(task, "test", null);
+			fail("Expected the last error");
+		} catch (IOException ex) {
+			assertSame(error, ex);
+		}
+		assertEquals(3, task.calls);
+	}
+
+	public void testExecuteDoesNotRetryNotRetryableError() throws Exception {
+		FailingTask task = new FailingTask(5, RetryPolicy.httpError(404, "url"));
+		try {
+			new RetryPolicy(3, 1, 2, 0).execute(task, "test", null);
+			fail("Expected the 404 error");
+		} catch (IOException ex) {
+			assertEquals(404, RetryPolicy.getHttpStatus(ex));
+		}
+		assertEquals(1, task.calls);
+	}
+
+	public void testExecuteStopsAtDeadline() throws Exception {
+		FailingTask task = new FailingTask(5, new IOException("Connection reset"));
+		try {
+			// the first delay is already over the deadline
+			new RetryPolicy(5, 1000, 1000, 100).execute(task, "test", null);
+			fail("Expected the last error");
+		} catch (IOException ex) {
+		}
+		assertEquals(1, task.calls);
+	}
+
+	private static void assertInRange(long min, long max, long value) {
+		assertTrue(value + " not in " + min + "-" + max, value >= min && value <= max);
+	}
+
+	private static class FailingTask implements Callable<String> {
+		private final int failures;
+		private final Exception error;
+		int calls = 0;
+
+		FailingTask(int failures, Exception error) {
+			this.failures = failures;
+			this.error = error;
+		}
+
+		public String call() throws Exception {
+			++calls;
+			if(calls <= failures) throw error;
+			return "done";
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.erakk.lnreader.test;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import com.erakk.lnreader.Constants;
+import com.erakk.lnreader.helper.RevalidationPolicy;
+import com.erakk.lnreader.model.PageScheduleModel;
+
+public class RevalidationPolicyTest extends TestCase {
+	private static final long HOUR = 3600 * 1000L;
+	private static final long DAY = 24 * HOUR;
+	private static final long START = 1356998400000L; // 2013-01-01
+
+	public void testFirstCheckWithoutUpdateTimeUsesDefaultInterval() {
+		PageScheduleModel schedule = new PageScheduleModel("Main_Page");
+		RevalidationPolicy.onChecked(schedule, null, day(0));
+		assertEquals(0, schedule.getUpdateInterval());
+		assertEquals(0, schedule.getUpdateCount());
+		assertEquals(day(0), schedule.getLastCheck());
+		assertEquals(day(Constants.CHECK_INTERVAL), schedule.getNextCheck());
+	}
+
+	public void testFirstCheckUsesTimeSinceLastUpdate() {
+		PageScheduleModel schedule = new PageScheduleModel("Page");
+		RevalidationPolicy.onChecked(schedule, day(0), day(4));
+		assertEquals(day(0), schedule.getLastUpdate());
+		assertEquals(0, schedule.getUpdateCount());
+		assertEquals(day(6), schedule.getNextCheck());
+	}
+
+	public void testNewUpdateSetsInterval() {
+		PageScheduleModel schedule = new PageScheduleModel("Page");
+		RevalidationPolicy.onChecked(schedule, day(0), day(0));
+		RevalidationPolicy.onChecked(schedule, day(10), day(10));
+		assertEquals(10 * DAY, schedule.getUpdateInterval());
+		assertEquals(1, schedule.getUpdateCount());
+		assertEquals(day(10), schedule.getLastUpdate());
+		assertEquals(day(15), schedule.getNextCheck());
+	}
+
+	public void testIntervalIsMovingAverage() {
+		PageScheduleModel schedule = new PageScheduleModel("Page");
+		RevalidationPolicy.onChecked(schedule, day(0), day(0));
+		RevalidationPolicy.onChecked(schedule, day(10), day(10));
+		RevalidationPolicy.onChecked(schedule, day(30), day(30));
+		// 0.3 * 20 + 0.7 * 10
+		assertEquals(13 * DAY, schedule.getUpdateInterval());
+		assertEquals(2, schedule.getUpdateCount());
+	}
+
+	public void testSameOrOlderUpdateIsNotCounted() {
+		PageScheduleModel schedule = new PageScheduleModel("Page");
+		RevalidationPolicy.onChecked(schedule, day(0), day(0));
+		RevalidationPolicy.onChecked(schedule, day(10), day(10));
+		RevalidationPolicy.onChecked(schedule, day(10), day(12));
+		RevalidationPolicy.onChecked(schedule, day(5), day(14));
+		assertEquals(10 * DAY, schedule.getUpdateInterval());
+		assertEquals(1, schedule.getUpdateCount());
+		assertEquals(day(10), schedule.getLastUpdate());
+		assertEquals(day(14), schedule.getLastCheck());
+	}
+
+	public void testQuietPageIsCheckedLessOften() {
+		PageScheduleModel schedule = new PageScheduleModel("Page");
+		schedule.setUpdateInterval(2 * DAY);
+		schedule.setLastUpdate(day(0));
+		// not updated for 20 days, longer than the usual 2 days
+		assertEquals(10 * DAY, RevalidationPolicy.getTtl(schedule, day(20)));
+	}
+
+	public void testTtlIsLimited() {
+		PageScheduleModel schedule = new PageScheduleModel("Page");
+		schedule.setUpdateInterval(HOUR);
+		schedule.setLastUpdate(day(0));
+		assertEquals(Constants.REVALIDATE_MIN_TTL, RevalidationPolicy.getTtl(schedule, day(0)));
+
+		schedule.setLastUpdate(day(-365));
+		assertEquals(Constants.REVALIDATE_MAX_TTL, RevalidationPolicy.getTtl(schedule, day(0)));
+	}
+
+	public void testIsDue() {
+		PageScheduleModel schedule = new PageScheduleModel("Page");
+		assertTrue(schedule.isDue(day(0)));
+		RevalidationPolicy.onChecked(schedule, day(0), day(4));
+		assertFalse(schedule.isDue(day(5)));
+		assertTrue(schedule.isDue(day(6)));
+	}
+
+	private static Date day(long day) {
+		return new Date(START + day * DAY);
+	}
+}
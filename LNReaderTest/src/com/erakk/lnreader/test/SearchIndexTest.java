@@ -0,0 +1,103 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import android.util.Log;
+
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageModel;
+import com.erakk.lnreader.model.SearchResultModel;
+
+/**
+ * Full text search over a few thousand downloaded chapters: time to index them
+ * while saving, and the latency of the search queries.
+ */
+public class SearchIndexTest extends DBHelperTestCase {
+	private static final String TAG = SearchIndexTest.class.toString();
+	private static final String NOVEL = "LNReaderTest";
+	private static final String BOOK = "Volume 1";
+	private static final int CHAPTERS = 3000;
+	private static final int WORDS_PER_CHAPTER = 600;
+	private static final int VOCABULARY = 2000;
+	// only in every NEEDLE_EVERY chapter
+	private static final String NEEDLE = "lnreaderneedle";
+	private static final int NEEDLE_EVERY = 500;
+	private static final int QUERIES = 200;
+	private static final int LIMIT = 20;
+
+	private final Random random = new Random(42);
+	private String[] vocabulary;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		vocabulary = new String[VOCABULARY];
+		for(int i = 0; i < VOCABULARY; ++i) {
+			StringBuilder word = new StringBuilder();
+			int length = 4 + random.nextInt(6);
+			for(int c = 0; c < length; ++c) {
+				word.append((char) ('a' + random.nextInt(26)));
+			}
+			vocabulary[i] = word.toString();
+		}
+	}
+
+	public void testIndexAndSearch() throws Exception {
+		dbh.insertOrUpdatePageModel(db, novel(NOVEL));
+		long start = System.currentTimeMillis();
+		db.beginTransaction();
+		try{
+			for(int i = 0; i < CHAPTERS; ++i) {
+				PageModel chapter = chapter(NOVEL + "_Volume_1_Chapter_" + i, NOVEL, BOOK);
+				chapter.setOrder(i);
+				NovelContentModel content = new NovelContentModel();
+				content.setPage(chapter.getPage());
+				content.setContent(html(i));
+				content.setPageModel(chapter);
+				dbh.insertNovelContent(db, content);
+			}
+			db.setTransactionSuccessful();
+		}
+		finally{
+			db.endTransaction();
+		}
+		long build = System.currentTimeMillis() - start;
+
+		ArrayList<SearchResultModel> needles = dbh.searchNovelContent(db, NEEDLE, LIMIT);
+		assertEquals(CHAPTERS / NEEDLE_EVERY, needles.size());
+		for(int i = 0; i < needles.size(); ++i) {
+			assertTrue(needles.get(i).getSnippet().contains("<b>" + NEEDLE + "</b>"));
+		}
+
+		long[] latencies = new long[QUERIES];
+		for(int i = 0; i < QUERIES; ++i) {
+			String query = vocabulary[random.nextInt(VOCABULARY)];
+			// every other query with two words
+			if(i % 2 == 1) query += " " + vocabulary[random.nextInt(VOCABULARY)];
+			long queryStart = System.nanoTime();
+			dbh.searchNovelContent(db, query, LIMIT);
+			latencies[i] = (System.nanoTime() - queryStart) / 1000;
+		}
+		Arrays.sort(latencies);
+		long p50 = latencies[QUERIES / 2];
+		long p95 = latencies[QUERIES * 95 / 100];
+
+		Log.i(TAG, "Indexed " + CHAPTERS + " chapters of " + WORDS_PER_CHAPTER + " words in " + build + " ms, "
+				+ QUERIES + " searches: p50 " + p50 + " us, p95 " + p95 + " us, max " + latencies[QUERIES - 1] + " us");
+		// the limit keeps the snippets cheap, a search must not read through all the chapters
+		assertTrue("p95 " + p95 + " us", p95 < 500000);
+	}
+
+	private String html(int chapter) {
+		StringBuilder html = new StringBuilder("<h2>Chapter " + chapter + "</h2><p>");
+		for(int i = 0; i < WORDS_PER_CHAPTER; ++i) {
+			if(i > 0) html.append(i % 40 == 0 ? "</p><p>" : " ");
+			html.append(vocabulary[random.nextInt(VOCABULARY)]);
+		}
+		if(chapter % NEEDLE_EVERY == 0) html.append(" ").append(NEEDLE);
+		html.append("</p>");
+		return html.toString();
+	}
+}
@@ -0,0 +1,216 @@
+package com.erakk.lnreader.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal http server on localhost for the fetch tests, one thread per connection
+ * and every response closes the connection.
+ * The latency is added before each response, and the highest number of requests
+ * handled at the same time is recorded.
+ */
+public class StubServer {
+	public interface Handler {
+		Response handle(Request request) throws Exception;
+	}
+
+	public static class Request {
+		public final String method;
+		/** path and query */
+		public final String path;
+		/** header name in lower case */
+		public final HashMap<String, String> headers = new HashMap<String, String>();
+
+		Request(String method, String path) {
+			this.method = method;
+			this.path = path;
+		}
+
+		public String getHeader(String name) {
+			return headers.get(name.toLowerCase(Locale.US));
+		}
+	}
+
+	public static class Response {
+		public final int status;
+		public final HashMap<String, String> headers = new HashMap<String, String>();
+		public final byte[] body;
+
+		public Response(int status, String contentType, String body) {
+			this.status = status;
+			try {
+				this.body = body == null ? new byte[0] : body.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new RuntimeException(e);
+			}
+			if(contentType != null) headers.put("Content-Type", contentType + "; charset=UTF-8");
+		}
+
+		public Response header(String name, String value) {
+			headers.put(name, value);
+			return this;
+		}
+
+		public static Response xml(String body) {
+			return new Response(200, "text/xml", body);
+		}
+
+		public static Response html(String body) {
+			return new Response(200, "text/html", body);
+		}
+
+		public static Response status(int status) {
+			return new Response(status, "text/html", "<html><body>" + status + "</body></html>");
+		}
+	}
+
+	private final Handler handler;
+	private final ArrayList<Request> requests = new ArrayList<Request>();
+	private ServerSocket serverSocket;
+	private volatile long latency;
+	private int active;
+	private int maxActive;
+
+	public StubServer(Handler handler) {
+		this.handler = handler;
+	}
+
+	public void start() throws IOException {
+		serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				while(!serverSocket.isClosed()) {
+					try {
+						final Socket socket = serverSocket.accept();
+						Thread worker = new Thread(new Runnable() {
+							public void run() {
+								serve(socket);
+							}
+						}, "StubServer-worker");
+						worker.setDaemon(true);
+						worker.start();
+					} catch (IOException e) {
+						// closed by stop()
+					}
+				}
+			}
+		}, "StubServer");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public void stop() throws IOException {
+		if(serverSocket != null) serverSocket.close();
+	}
+
+	/**
+	 * @return http://127.0.0.1:port, without trailing slash
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @param millis added before each response
+	 */
+	public void setLatency(long millis) {
+		latency = millis;
+	}
+
+	/**
+	 * @return copy of the received requests, in the order they were read
+	 */
+	public synchronized ArrayList<Request> getRequests() {
+		return new ArrayList<Request>(requests);
+	}
+
+	/**
+	 * @return number of received requests with the path starting with the prefix
+	 */
+	public synchronized int countRequests(String prefix) {
+		int count = 0;
+		for(Iterator<Request> i = requests.iterator(); i.hasNext();) {
+			if(i.next().path.startsWith(prefix)) ++count;
+		}
+		return count;
+	}
+
+	public synchronized int getMaxConcurrentRequests() {
+		return maxActive;
+	}
+
+	public synchronized void reset() {
+		requests.clear();
+		maxActive = active;
+	}
+
+	private void serve(Socket socket) {
+		try{
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+			String line = reader.readLine();
+			if(line == null) return;
+			String[] parts = line.split(" ");
+			Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/");
+			while((line = reader.readLine()) != null && line.length() > 0) {
+				int colon = line.indexOf(':');
+				if(colon > 0) request.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+			}
+
+			synchronized (this) {
+				requests.add(request);
+				++active;
+				if(active > maxActive) maxActive = active;
+			}
+			Response response;
+			try{
+				if(latency > 0) Thread.sleep(latency);
+				response = handler.handle(request);
+			}
+			catch(Exception ex) {
+				response = Response.status(500);
+			}
+			finally{
+				synchronized (this) {
+					--active;
+				}
+			}
+			if(response == null) response = Response.status(404);
+
+			StringBuilder head = new StringBuilder();
+			head.append("HTTP/1.1 ").append(response.status).append(" Stub\r\n");
+			for(Iterator<Map.Entry<String, String>> i = response.headers.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<String, String> header = i.next();
+				head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+			}
+			boolean hasBody = response.status != 304 && !"HEAD".equals(request.method);
+			head.append("Content-Length: ").append(hasBody ? response.body.length : 0).append("\r\n");
+			head.append("Connection: close\r\n\r\n");
+
+			OutputStream out = socket.getOutputStream();
+			out.write(head.toString().getBytes("ISO-8859-1"));
+			if(hasBody) out.write(response.body);
+			out.flush();
+		}
+		catch(Exception ex) {
+			// client gone, e.g. timed out
+		}
+		finally{
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.erakk.lnreader.test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import com.erakk.lnreader.helper.QueryStats;
+import com.erakk.lnreader.model.NovelContentModel;
+import com.erakk.lnreader.model.PageFlagModel;
+import com.erakk.lnreader.model.PageModel;
+
+/**
+ * The precompiled statements are recorded by QueryStats like the other queries.
+ */
+public class TimedWriteTest extends DBHelperTestCase {
+	private static final String NOVEL = "LNReaderTest";
+	private static final String CHAPTER = "LNReaderTest_Volume_1_Chapter_1";
+
+	private boolean wasEnabled;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		wasEnabled = QueryStats.isEnabled();
+		QueryStats.setEnabled(true);
+		QueryStats.reset();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		QueryStats.reset();
+		QueryStats.setEnabled(wasEnabled);
+		super.tearDown();
+	}
+
+	public void testNovelListInsert() {
+		ArrayList<PageModel> list = new ArrayList<PageModel>();
+		list.add(novel(NOVEL));
+		dbh.insertAllNovel(db, list);
+		assertRecorded("insert or ignore into pages");
+		// second time the row is updated
+		dbh.insertAllNovel(db, list);
+		assertRecorded("update pages set page_key");
+	}
+
+	public void testPageFlags() {
+		dbh.insertOrUpdatePageModel(db, novel(NOVEL));
+		ArrayList<PageFlagModel> changes = new ArrayList<PageFlagModel>();
+		PageFlagModel change = new PageFlagModel(NOVEL);
+		change.setWatched(true);
+		changes.add(change);
+		dbh.updatePageFlags(db, changes);
+		assertRecorded("update pages set is_watched");
+	}
+
+	public void testContentAndReadingPosition() throws Exception {
+		NovelContentModel content = new NovelContentModel();
+		content.setPage(CHAPTER);
+		content.setContent("<p>Hello</p>");
+		content.setPageModel(chapter(CHAPTER, NOVEL, "Volume 1"));
+		dbh.insertNovelContent(db, content);
+		assertRecorded("insert into novel_content_search");
+		dbh.updateReadingPosition(db, content);
+		assertRecorded("insert or replace into reading_position");
+	}
+
+	private static void assertRecorded(String prefix) {
+		for(Iterator<QueryStats.Entry> i = QueryStats.getEntries().iterator(); i.hasNext();) {
+			QueryStats.Entry entry = i.next();
+			if(entry.getShape().startsWith(prefix)) {
+				assertTrue(entry.getCount() > 0);
+				return;
+			}
+		}
+		fail("Not recorded: " + prefix);
+	}
+}